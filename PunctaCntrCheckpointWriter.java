@@ -0,0 +1,104 @@
+/*
+ * PunctaCntrCheckpointWriter.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Callable;
+
+public class PunctaCntrCheckpointWriter {
+	//Writes the marker files of chained stages on one background thread, so the next
+	//stage starts while the XML of the last one is still being written. A stage hands
+	//over its typeVector once it is done with it; the next stage works on copies
+	//(PunctaCntrMarkerVector.addMarkersAsLoaded), so nothing changes the markers while
+	//they are written.
+	private final String directory;
+	private final ExecutorService writer;
+	private final Vector<Future<Boolean>> pending = new Vector<Future<Boolean>>();
+	private final Vector<String> paths = new Vector<String>();
+	private int failed;
+
+	/** Creates a new instance of PunctaCntrCheckpointWriter */
+	public PunctaCntrCheckpointWriter(String directory) {
+		this.directory = directory;
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PunctaCntrCheckpointWriter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	//Queues typeVector to be written to filePath as WriteXML.writeXML would write it
+	public void write(final String filePath, final String imgFilename, final Vector<PunctaCntrMarkerVector> typeVector, final int currentType) {
+		collect(false); //drop the files already written, so their markers can be freed
+		pending.add(writer.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return new WriteXML(filePath).writeXML(imgFilename, typeVector, currentType, 0);
+			}
+		}));
+		paths.add(filePath);
+	}
+
+	//Waits for every queued file; returns how many could not be written since the last call
+	public int finish() {
+		collect(true);
+		int n = failed;
+		failed = 0;
+		return n;
+	}
+
+	private void collect(boolean wait) {
+		for (int i = 0; i < pending.size(); i++) {
+			Future<Boolean> f = pending.get(i);
+			if (!wait && !f.isDone()) continue;
+			boolean written = false;
+			try {
+				written = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				System.out.println(e.getCause());
+			}
+			if (!written) {
+				System.out.println("Could not write "+paths.get(i));
+				failed++;
+			}
+			pending.remove(i);
+			paths.remove(i);
+			i--;
+		}
+	}
+
+	public void close() {
+		finish();
+		writer.shutdown();
+	}
+}
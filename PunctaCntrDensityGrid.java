@@ -0,0 +1,105 @@
+/*
+ * PunctaCntrDensityGrid.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+public class PunctaCntrDensityGrid {
+	//The owners of a marker list binned into cells as large as the density tolerance box, for
+	//the neighbouring density test of removeinadequate. Counting the owners within the box
+	//around a punctum only visits the 3x3x3 cells around it. The tolerances are turned into
+	//pixel radii with the same float test the density loop applied to each axis, so the counts
+	//are the ones the loop over every owner gave. Removed groups have to be reported with
+	//removeGroup before they leave the list; nothing else is tracked.
+	private final int rx, ry, rz; //largest offsets in pixels and slices within the tolerance, -1 if none
+	private final int cx, cy, cz; //cell size
+	private final Hashtable<Long, Vector<PunctaCntrMarker>> cells = new Hashtable<Long, Vector<PunctaCntrMarker>>();
+
+	/** Creates a new instance of PunctaCntrDensityGrid */
+	public PunctaCntrDensityGrid(PunctaCntrMarkerVector markers, float scaleX, float scaleY, float scaleZ, float tolX, float tolY, float tolZ) {
+		rx = PunctaCntrKdTree.linkRadius(scaleX, tolX);
+		ry = PunctaCntrKdTree.linkRadius(scaleY, tolY);
+		rz = PunctaCntrKdTree.linkRadius(scaleZ, tolZ);
+		cx = Math.max(1, rx);
+		cy = Math.max(1, ry);
+		cz = Math.max(1, rz);
+		for (int n = 0; n < markers.size(); n++) {
+			PunctaCntrMarker m = markers.get(n);
+			if (!m.isOwner()) continue;
+			Long key = key(m);
+			Vector<PunctaCntrMarker> cell = cells.get(key);
+			if (cell == null) {
+				cell = new Vector<PunctaCntrMarker>();
+				cells.put(key, cell);
+			}
+			cell.add(m);
+		}
+	}
+
+	//Owners within the tolerance box around m, m itself included when it is an owner
+	public int count(PunctaCntrMarker m) {
+		if (rx < 0 || ry < 0 || rz < 0) return 0;
+		int x = m.getX();
+		int y = m.getY();
+		int z = m.getZ();
+		int count = 0;
+		for (int k = Math.floorDiv(z-rz, cz); k <= Math.floorDiv(z+rz, cz); k++) {
+			for (int j = Math.floorDiv(y-ry, cy); j <= Math.floorDiv(y+ry, cy); j++) {
+				for (int i = Math.floorDiv(x-rx, cx); i <= Math.floorDiv(x+rx, cx); i++) {
+					Vector<PunctaCntrMarker> cell = cells.get(key(i, j, k));
+					if (cell == null) continue;
+					for (int n = 0; n < cell.size(); n++) {
+						PunctaCntrMarker neighbor = cell.get(n);
+						if (Math.abs(neighbor.getX()-x) <= rx && Math.abs(neighbor.getY()-y) <= ry && Math.abs(neighbor.getZ()-z) <= rz)
+							count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	//Drops the owners among the markers of a group, as PunctaCntrMarkerVector.removeMarker
+	//is about to remove all of them
+	public void removeGroup(Vector<PunctaCntrMarker> group) {
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m = group.get(n);
+			Long key = key(m);
+			Vector<PunctaCntrMarker> cell = cells.get(key);
+			if (cell == null) continue;
+			for (int i = 0; i < cell.size(); i++) {
+				if (cell.get(i) == m) {
+					cell.remove(i);
+					break;
+				}
+			}
+			if (cell.isEmpty()) cells.remove(key);
+		}
+	}
+
+	private Long key(PunctaCntrMarker m) {
+		return key(Math.floorDiv(m.getX(), cx), Math.floorDiv(m.getY(), cy), Math.floorDiv(m.getZ(), cz));
+	}
+
+	private static Long key(int i, int j, int k) {
+		return ((long)k << 42) ^ (((long)i & 0x1fffff) << 21) ^ ((long)j & 0x1fffff);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * PunctaCntrGroupStats.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+public class PunctaCntrGroupStats {
+	//What measureMarker3D reports for one 3D punctum, gathered by the plugins' measureGroup.
+	//ofRegion reads the pixels inside one 2D circle's restricted boundary once, for their
+	//count, total, max and squared deviations, which used to take a second pass; add()
+	//combines a circle into its group with the pairwise update of the mean and the sum of
+	//squared deviations (Chan, Golub and LeVeque), the same variance the running formula of
+	//measureMarker3D gave without its loss of precision. Intensity is summed in the order
+	//the pixels were read before, so totals and averages come out exactly as they did.
+	public int resultNum, markerImage;
+	public int zCount, sumX, sumY, sumZ, sumRad, maxArea;
+	public int pixels;
+	public double intensity, max;
+	private double m2; //sum of squared deviations from intensity/pixels
+
+	/** Creates a new instance of PunctaCntrGroupStats */
+	public PunctaCntrGroupStats() {
+	}
+
+	//The pixels strictly between the two ends of every line of endpts, as restrictBoundary
+	//left them for the circle of radius rad at (x,y). Squares are taken around the first
+	//pixel read, so pixel values far above the spread of the region lose nothing
+	public static PunctaCntrGroupStats ofRegion(PunctaCntrSlice ip, int x, int y, int rad, int[][] endpts) {
+		PunctaCntrGroupStats s = new PunctaCntrGroupStats();
+		double shift = 0, shifted = 0, shiftedSq = 0;
+		for (int j = -rad; j <= rad; j++) {
+			if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
+			for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
+				double v = ip.getPixelValue(x+i, y+j);
+				if (s.pixels == 0) shift = v;
+				s.intensity += v;
+				if (v > s.max) s.max = v;
+				shifted += v-shift;
+				shiftedSq += (v-shift)*(v-shift);
+				s.pixels++;
+			}
+		}
+		if (s.pixels > 0) s.m2 = Math.max(0, shiftedSq - shifted*shifted/s.pixels);
+		return s;
+	}
+
+	//Adds the 2D circle m, measured by ofRegion, to the group
+	public void add(PunctaCntrMarker m, PunctaCntrGroupStats circle) {
+		sumRad += m.getRad();
+		sumX += m.getX();
+		sumY += m.getY();
+		sumZ += m.getZ();
+		zCount++;
+		if (circle.pixels > maxArea) maxArea = circle.pixels;
+		if (circle.max > max) max = circle.max;
+		if (circle.pixels == 0) return;
+		if (pixels == 0) {
+			m2 = circle.m2;
+		} else {
+			double delta = circle.intensity/circle.pixels - intensity/pixels;
+			m2 += circle.m2 + delta*delta*((double)pixels*circle.pixels/(pixels+circle.pixels));
+		}
+		intensity += circle.intensity;
+		pixels += circle.pixels;
+	}
+
+	//Population standard deviation of the group's pixels; NaN when it has none
+	public double getStddev() {
+		return Math.sqrt(m2/pixels);
+	}
+}
@@ -0,0 +1,471 @@
+/*
+ * PunctaCntrGroupSweep.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+import java.util.Vector;
+
+public class PunctaCntrGroupSweep {
+	//The grouping pass of PunctaCounterAutoGroup.autoGroupMarker. Going down the list, each 2D
+	//circle m1 takes the best matching circle one slice further down (or two, when none is
+	//found one down) into its group, after allowing for the drift (MaxMovementX/Y) of the
+	//groups that already continue from its slice into the next. The rules are those of the
+	//nested scans over the whole list this replaces; what they looked up is kept at hand:
+	//  slices - per z, the markers in list order and in x order. Drift pairs come from m1's
+	//           slice and the next, match candidates from the next two slices near m1 only.
+	//  groups - per resultNum and z, the list positions of the members, so "the group already
+	//           spans this z (before/from this position)" is a look at the first or last one.
+	//Positions are list indexes. Nothing is added or removed during the pass; resultNums and
+	//owners change as groups merge and the group lists follow them.
+	//
+	//The copies of the pass in PunctaCounterAutolink and PunctaCounter (linking) differ in two
+	//rules: the next two puncta only rule out m4 when they are not already in its group, and
+	//the drift is found again for every m1 (off slice 0) instead of kept through the slice.
+	private static final int MAX_MATCH = 1000; //squared distance a match has to be within
+	private static final int MATCH_RADIUS = 31; //largest offset whose square is within MAX_MATCH
+	private final PunctaCntrMarkerVector markers;
+	private final PunctaCntrMarker[] list;
+	private final IdentityHashMap<PunctaCntrMarker, Integer> position;
+	private final HashMap<Integer, Slice> slices = new HashMap<Integer, Slice>();
+	private final HashMap<Integer, ArrayList<Integer>> byResultNum = new HashMap<Integer, ArrayList<Integer>>();
+	private final HashMap<Long, ArrayList<Integer>> byResultNumZ = new HashMap<Long, ArrayList<Integer>>();
+	private int version; //counts the merges, so drift pairs are collected again after one
+	private boolean ownersByResultNum; //owners were reassigned by resultNum over the whole list
+	private final boolean linking;
+
+	private class Slice {
+		final int z;
+		int[] byPos; //list positions in list order
+		int[] byX; //list positions in x order
+		int[] xOfByX;
+		TreeMap<Integer, Integer> xLeft = new TreeMap<Integer, Integer>(); //x and y of the markers
+		TreeMap<Integer, Integer> yLeft = new TreeMap<Integer, Integer>(); //the sweep has not passed
+		int left;
+		int pairsVersion = -1;
+		boolean[] hasPair; //drift of the pairs starting at byPos[i] or later
+		int[] minDx, maxDx, minDy, maxDy;
+
+		Slice(int z) {
+			this.z = z;
+		}
+	}
+
+	/** Creates a new instance of PunctaCntrGroupSweep */
+	public PunctaCntrGroupSweep(PunctaCntrMarkerVector markers) {
+		this(markers, false);
+	}
+
+	//With the rules of the autoGroupMarker(canvasID) copies when linking
+	public PunctaCntrGroupSweep(PunctaCntrMarkerVector markers, boolean linking) {
+		this.markers = markers;
+		this.linking = linking;
+		list = markers.toArray(new PunctaCntrMarker[markers.size()]);
+		position = new IdentityHashMap<PunctaCntrMarker, Integer>(2*list.length);
+		HashMap<Integer, ArrayList<Integer>> byZ = new HashMap<Integer, ArrayList<Integer>>();
+		for (int p = 0; p < list.length; p++) {
+			PunctaCntrMarker m = list[p];
+			position.put(m, p);
+			ArrayList<Integer> positions = byZ.get(m.getZ());
+			if (positions == null) {
+				positions = new ArrayList<Integer>();
+				byZ.put(m.getZ(), positions);
+			}
+			positions.add(p);
+			add(byResultNum, m.resultNum, p);
+			add(byResultNumZ, key(m.resultNum, m.getZ()), p);
+		}
+		for (Integer z : byZ.keySet()) {
+			ArrayList<Integer> positions = byZ.get(z);
+			Slice s = new Slice(z);
+			s.byPos = new int[positions.size()];
+			for (int i = 0; i < s.byPos.length; i++) {
+				s.byPos[i] = positions.get(i);
+				leave(s, list[s.byPos[i]], 1);
+			}
+			Integer[] sorted = positions.toArray(new Integer[positions.size()]);
+			Arrays.sort(sorted, new java.util.Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return list[a].getX() - list[b].getX();
+				}
+			});
+			s.byX = new int[sorted.length];
+			s.xOfByX = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				s.byX[i] = sorted[i];
+				s.xOfByX[i] = list[sorted[i]].getX();
+			}
+			slices.put(z, s);
+		}
+	}
+
+	public void run(int stackSize) {
+		int MaxMovementXNeg = 0;
+		int MaxMovementYNeg = 0;
+		int MaxMovementXPos = 0;
+		int MaxMovementYPos = 0;
+		int currentZ = 0;
+		int driftZ = 0; //slice the drift was reset for
+		int swept = 0;
+
+		for (int n1 = 0; n1 < list.length; n1++) {
+			PunctaCntrMarker m1 = list[n1];
+			int z1 = m1.getZ();
+			for (; swept < n1; swept++) {
+				PunctaCntrMarker passed = list[swept];
+				leave(slices.get(passed.getZ()), passed, -1);
+			}
+
+			if (driftZ != z1) {
+				MaxMovementXNeg = 0;
+				MaxMovementYNeg = 0;
+				MaxMovementXPos = 0;
+				MaxMovementYPos = 0;
+			}
+			if (currentZ != z1) IJ.showStatus("Processing autogroup in slice "+z1+"/"+stackSize);
+
+			//drift between the members of a group on this slice (from m1 on) and the next
+			Slice s1 = slices.get(z1);
+			collectPairs(s1);
+			int i1 = firstFrom(s1.byPos, n1);
+			if (s1.hasPair[i1]) {
+				MaxMovementXNeg = Math.min(MaxMovementXNeg, s1.minDx[i1]);
+				MaxMovementXPos = Math.max(MaxMovementXPos, s1.maxDx[i1]);
+				MaxMovementYNeg = Math.min(MaxMovementYNeg, s1.minDy[i1]);
+				MaxMovementYPos = Math.max(MaxMovementYPos, s1.maxDy[i1]);
+			}
+
+			if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next
+				//the nearest x and y on either side of m1 among the markers on the next slice (from m1 on)
+				Slice next = slices.get(z1+1);
+				int count = 0;
+				if (next != null) {
+					count = next.left;
+					Integer x = next.xLeft.lowerKey(m1.getX());
+					if (x != null) MaxMovementXNeg = x - m1.getX();
+					x = next.xLeft.higherKey(m1.getX());
+					if (x != null) MaxMovementXPos = x - m1.getX();
+					Integer y = next.yLeft.lowerKey(m1.getY());
+					if (y != null) MaxMovementYNeg = y - m1.getY();
+					y = next.yLeft.higherKey(m1.getY());
+					if (y != null) MaxMovementYPos = y - m1.getY();
+				}
+
+				if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
+					MaxMovementXPos = Math.abs(MaxMovementXNeg);
+					MaxMovementYPos = Math.abs(MaxMovementYNeg);
+				} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
+					MaxMovementXNeg = MaxMovementXPos;
+					MaxMovementYNeg = MaxMovementYPos;
+				}
+
+				if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
+					MaxMovementXNeg = 0;
+					MaxMovementYNeg = 0;
+					MaxMovementXPos = 0;
+					MaxMovementYPos = 0;
+				} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
+					MaxMovementXNeg = 0;
+					MaxMovementYNeg = 0;
+					MaxMovementXPos = 0;
+					MaxMovementYPos = 0;
+				}
+			}
+
+			PunctaCntrMarker BestMatchNum = null;
+			PunctaCntrMarker BestMatchNum2 = null;
+			int BestMatch = MAX_MATCH;
+			int BestMatch2 = MAX_MATCH;
+
+			if (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0) {
+				//only markers this close can come within MAX_MATCH once the drift is allowed for
+				int wx = MATCH_RADIUS + Math.max(Math.abs(MaxMovementXNeg), Math.abs(MaxMovementXPos));
+				int wy = MATCH_RADIUS + Math.max(Math.abs(MaxMovementYNeg), Math.abs(MaxMovementYPos));
+				int[] candidates = candidates(m1, n1, wx, wy);
+				int rn1 = m1.resultNum;
+
+				for (int c = 0; c < candidates.length; c++) {
+					int n4 = candidates[c];
+					PunctaCntrMarker m4 = list[n4];
+					int rn4 = m4.resultNum;
+					if (rn4 == rn1) continue;
+					boolean ignore;
+					if (m4.getZ() == z1 + 1) {
+						//not with a punctum that already spans m1's slice, or the one above it when m1's does too,
+						//and not if m1's punctum already spans the next slice
+						ignore = spansBefore(rn4, z1, n4);
+						if (!ignore && spansBefore(rn4, z1-1, n4) && spansBefore(rn1, z1-1, n1)) ignore = true;
+						if (!ignore && spansFrom(rn1, z1+1, n1)) ignore = true;
+					} else if (BestMatchNum == null) {
+						//as above, and wait for the next slice when m1's punctum reaches it
+						ignore = spansBefore(rn4, z1, n4);
+						if (!ignore && (spans(rn1, z1+2) || spans(rn1, z1+1))) ignore = true;
+						if (!ignore && spansBefore(rn4, z1-1, n4) && spans(rn1, z1-1)) ignore = true;
+					} else {
+						continue;
+					}
+					if (ignore) continue;
+
+					int dx1 = drift(m4.getX() - m1.getX(), MaxMovementXNeg, MaxMovementXPos);
+					int dy1 = drift(m4.getY() - m1.getY(), MaxMovementYNeg, MaxMovementYPos);
+
+					//makes sure that the next two puncta in the list after m1 are not closer to m4
+					for (int n7 = n1+1; n7 < n1+3 && n7 < list.length; n7++) {
+						PunctaCntrMarker m1next = list[n7];
+						if (linking && m1next.resultNum == rn4) continue;
+						int dxm1next1 = drift(m4.getX() - m1next.getX(), MaxMovementXNeg, MaxMovementXPos);
+						int dym1next1 = drift(m4.getY() - m1next.getY(), MaxMovementYNeg, MaxMovementYPos);
+						if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1)))
+							ignore = true;
+					}
+
+					int r1 = m1.getRad();
+					int r4 = m4.getRad();
+					int d = dx1*dx1+dy1*dy1;
+					if (ignore || !(d <= r1*r1 || d <= r4*r4)) continue;
+					if (m4.getZ() == z1 + 1 && d <= BestMatch) {
+						BestMatch = d;
+						BestMatchNum = m4;
+					} else if (m4.getZ() == z1 + 2 && d <= BestMatch2) {
+						BestMatch2 = d;
+						BestMatchNum2 = m4;
+					}
+				}
+			}
+
+			if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
+				merge(BestMatchNum, m1.resultNum);
+			} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
+				merge(BestMatchNum2, m1.resultNum);
+			} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
+				merge(BestMatchNum, m1.resultNum);
+			}
+
+			currentZ = z1;
+			if (!linking) driftZ = z1;
+		}
+	}
+
+	//Offset d between two slices less the drift, in whichever direction leaves less
+	private static int drift(int d, int neg, int pos) {
+		int d1 = d;
+		int d2 = d;
+		if (d1 < 0) {
+			d1 = d1 - neg;
+			d2 = d2 + pos;
+		} else {
+			d1 = d1 + neg;
+			d2 = d2 - pos;
+		}
+		if (Math.abs(d2) < Math.abs(d1)) d1 = d2;
+		return d1;
+	}
+
+	//Markers after n1 on the next two slices within wx and wy of m1, in list order
+	private int[] candidates(PunctaCntrMarker m1, int n1, int wx, int wy) {
+		int[] found = new int[16];
+		int n = 0;
+		for (int dz = 1; dz <= 2; dz++) {
+			Slice s = slices.get(m1.getZ() + dz);
+			if (s == null) continue;
+			int x0 = m1.getX() - wx;
+			int lo = 0;
+			int hi = s.xOfByX.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (s.xOfByX[mid] < x0) lo = mid + 1;
+				else hi = mid;
+			}
+			for (int i = lo; i < s.byX.length && s.xOfByX[i] <= m1.getX() + wx; i++) {
+				int p = s.byX[i];
+				if (p <= n1 || Math.abs(list[p].getY() - m1.getY()) > wy) continue;
+				if (n == found.length) found = Arrays.copyOf(found, 2*n);
+				found[n++] = p;
+			}
+		}
+		found = Arrays.copyOf(found, n);
+		Arrays.sort(found);
+		return found;
+	}
+
+	//For every marker of the slice, from the last back, the drift of the markers from there on
+	//to the members of the same group on the next slice that come later in the list
+	private void collectPairs(Slice s) {
+		if (s.pairsVersion == version) return;
+		int len = s.byPos.length;
+		if (s.hasPair == null) {
+			s.hasPair = new boolean[len+1];
+			s.minDx = new int[len+1];
+			s.maxDx = new int[len+1];
+			s.minDy = new int[len+1];
+			s.maxDy = new int[len+1];
+		}
+		s.hasPair[len] = false;
+		for (int i = len-1; i >= 0; i--) {
+			boolean has = s.hasPair[i+1];
+			int minDx = s.minDx[i+1], maxDx = s.maxDx[i+1], minDy = s.minDy[i+1], maxDy = s.maxDy[i+1];
+			int p2 = s.byPos[i];
+			PunctaCntrMarker m2 = list[p2];
+			ArrayList<Integer> below = byResultNumZ.get(key(m2.resultNum, s.z+1));
+			if (below != null) {
+				for (int k = firstFrom(below, p2); k < below.size(); k++) {
+					PunctaCntrMarker m3 = list[below.get(k)];
+					int dx = m3.getX() - m2.getX();
+					int dy = m3.getY() - m2.getY();
+					if (!has) {
+						minDx = maxDx = dx;
+						minDy = maxDy = dy;
+						has = true;
+					} else {
+						minDx = Math.min(minDx, dx);
+						maxDx = Math.max(maxDx, dx);
+						minDy = Math.min(minDy, dy);
+						maxDy = Math.max(maxDy, dy);
+					}
+				}
+			}
+			s.hasPair[i] = has;
+			s.minDx[i] = minDx;
+			s.maxDx[i] = maxDx;
+			s.minDy[i] = minDy;
+			s.maxDy[i] = maxDy;
+		}
+		s.pairsVersion = version;
+	}
+
+	//The group of m takes resultNum, and every marker with that resultNum the owner of the first
+	//owner in the list with it, as setGroupResultNum and GroupOwnerByResultNum do
+	private void merge(PunctaCntrMarker m, int resultNum) {
+		int ownerUID = m.getOwner();
+		Vector<PunctaCntrMarker> group = markers.getGroup(ownerUID);
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m2 = group.get(n);
+			if (m2.getOwner() != ownerUID) continue;
+			int p = position.get(m2);
+			remove(byResultNum, m2.resultNum, p);
+			remove(byResultNumZ, key(m2.resultNum, m2.getZ()), p);
+			m2.resultNum = resultNum;
+			add(byResultNum, resultNum, p);
+			add(byResultNumZ, key(resultNum, m2.getZ()), p);
+		}
+		version++;
+
+		if (ownersByResultNum) { //every other resultNum still has its owner
+			claim(resultNum);
+			return;
+		}
+		HashSet<Integer> claimed = new HashSet<Integer>();
+		for (int p = 0; p < list.length; p++) {
+			PunctaCntrMarker own = list[p];
+			if (own.isOwner() && claimed.add(own.resultNum)) claim(own.resultNum, own.getOwner());
+		}
+		ownersByResultNum = true;
+	}
+
+	private void claim(int resultNum) {
+		ArrayList<Integer> members = byResultNum.get(resultNum);
+		for (int k = 0; k < members.size(); k++) {
+			PunctaCntrMarker own = list[members.get(k)];
+			if (own.isOwner()) {
+				claim(resultNum, own.getOwner());
+				return;
+			}
+		}
+	}
+
+	private void claim(int resultNum, int owner) {
+		ArrayList<Integer> members = byResultNum.get(resultNum);
+		for (int k = 0; k < members.size(); k++) {
+			PunctaCntrMarker m = list[members.get(k)];
+			if (m.getOwner() != owner) m.setOwner(owner);
+		}
+	}
+
+	//The group with resultNum has a member on slice z before list position p
+	private boolean spansBefore(int resultNum, int z, int p) {
+		ArrayList<Integer> members = byResultNumZ.get(key(resultNum, z));
+		return members != null && members.get(0) < p;
+	}
+
+	//... at list position p or later
+	private boolean spansFrom(int resultNum, int z, int p) {
+		ArrayList<Integer> members = byResultNumZ.get(key(resultNum, z));
+		return members != null && members.get(members.size()-1) >= p;
+	}
+
+	private boolean spans(int resultNum, int z) {
+		return byResultNumZ.containsKey(key(resultNum, z));
+	}
+
+	private void leave(Slice s, PunctaCntrMarker m, int change) {
+		s.left += change;
+		count(s.xLeft, m.getX(), change);
+		count(s.yLeft, m.getY(), change);
+	}
+
+	private static void count(TreeMap<Integer, Integer> values, int v, int change) {
+		Integer n = values.get(v);
+		int now = ((n == null) ? 0 : n) + change;
+		if (now == 0) values.remove(v);
+		else values.put(v, now);
+	}
+
+	//Index of the first position >= p in ascending positions
+	private static int firstFrom(int[] positions, int p) {
+		int lo = 0;
+		int hi = positions.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] < p) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	private static int firstFrom(ArrayList<Integer> positions, int p) {
+		int k = Collections.binarySearch(positions, p);
+		return (k >= 0) ? k : -k-1;
+	}
+
+	private static <K> void add(HashMap<K, ArrayList<Integer>> index, K key, int p) {
+		ArrayList<Integer> positions = index.get(key);
+		if (positions == null) {
+			positions = new ArrayList<Integer>();
+			index.put(key, positions);
+		}
+		positions.add(firstFrom(positions, p), p);
+	}
+
+	private static <K> void remove(HashMap<K, ArrayList<Integer>> index, K key, int p) {
+		ArrayList<Integer> positions = index.get(key);
+		positions.remove(Collections.binarySearch(positions, p));
+		if (positions.isEmpty()) index.remove(key);
+	}
+
+	private static Long key(int resultNum, int z) {
+		return ((long)resultNum << 32) ^ (z & 0xffffffffL);
+	}
+}
@@ -22,12 +22,10 @@
 
 import ij.IJ;
 import ij.ImagePlus;
-import ij.ImageStack;
 import ij.gui.ImageCanvas;
 import ij.gui.Roi;
 import ij.gui.Toolbar;
 import ij.gui.Overlay;
-import ij.process.ImageProcessor;
 import java.awt.BasicStroke;
 import java.awt.Cursor;
 import java.awt.Graphics;
@@ -158,16 +156,9 @@ public class PunctaCntrImageCanvasAutolink extends ImageCanvas {
         double xM=0;
         double yM=0;
 
-		//For drawing arbitrary boundaries
-		ImageProcessor ip;
-		if (img.getStackSize() == 1) {
-			ip = img.getProcessor();
-		} else {
-			ImageStack stack = img.getStack();
-			ip = stack.getProcessor(img.getCurrentSlice());
-		}
-		ip.resetRoi();
-		ip = ip.crop();
+		//For drawing arbitrary boundaries: the plugin's own view of the slice, no copy, so
+		//the boundaries it caches for measuring are the ones drawn here
+		PunctaCntrSlice ip = pc.getSlice(img, img.getCurrentSlice());
 		//end for drawing arbitrary boundaries
         
         Graphics2D g2 = (Graphics2D)g;
@@ -175,16 +166,20 @@ public class PunctaCntrImageCanvasAutolink extends ImageCanvas {
         g2.setFont(font);    
       
 		double mag = super.getMagnification();
+		//The part of the image in view, widened by the width of a label, which can stick
+		//out past a marker's circle; markers outside it are not looked at
+		int margin = (int)Math.ceil((g2.getFontMetrics().stringWidth("00000")+2)/mag);
+		Rectangle view = new Rectangle(srcRect.x-margin, srcRect.y-margin, srcRect.width+2*margin, srcRect.height+2*margin);
 		
         ListIterator it = pc.typeVector.listIterator();
         while(it.hasNext()){
             PunctaCntrMarkerVector mv = (PunctaCntrMarkerVector)it.next();
             int typeID = mv.getType();
             g2.setColor(mv.getColor());
-            ListIterator mit = mv.listIterator();
+            Vector<PunctaCntrMarker> visible = mv.getMarkersInRect(view, img.getCurrentSlice(), canvasID);
 			   int local_cutoff = 0;
-            while(mit.hasNext()){
-                PunctaCntrMarker m = (PunctaCntrMarker)mit.next();
+            for (int n = 0; n < visible.size(); n++) {
+                PunctaCntrMarker m = visible.get(n);
                 int z = m.getZ();
                 boolean sameSlice = (m.getZ()==img.getCurrentSlice());
                 if ((m.canvasID == 0 || m.canvasID == canvasID) && sameSlice) {
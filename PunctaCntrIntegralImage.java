@@ -0,0 +1,106 @@
+/*
+ * PunctaCntrIntegralImage.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+public class PunctaCntrIntegralImage {
+	//Summed-area tables of one slice: sum, sum of squares and number of zero pixels
+	//above and left of each point, so the total of any window is four lookups.
+	//Pixels are taken as (int)getPixelValue like the background code always did,
+	//and any part of a window outside the image counts as zero pixels, which is
+	//what reading past the edge gave the old per-pixel loops.
+	private final int width;
+	private final int height;
+	private final long[] sum;
+	private final long[] sumSq;
+	private final int[] zeros;
+
+	/** Creates a new instance of PunctaCntrIntegralImage */
+	public PunctaCntrIntegralImage(PunctaCntrSlice ip) {
+		width = ip.getWidth();
+		height = ip.getHeight();
+		int w1 = width+1;
+		sum = new long[w1*(height+1)];
+		sumSq = new long[w1*(height+1)];
+		zeros = new int[w1*(height+1)];
+		for (int y = 0; y < height; y++) {
+			long rowSum = 0;
+			long rowSumSq = 0;
+			int rowZeros = 0;
+			int index = (y+1)*w1 + 1;
+			for (int x = 0; x < width; x++, index++) {
+				int v = (int)ip.getPixelValue(x, y);
+				rowSum += v;
+				rowSumSq += (long)v*v;
+				if (v == 0) rowZeros++;
+				sum[index] = sum[index-w1] + rowSum;
+				sumSq[index] = sumSq[index-w1] + rowSumSq;
+				zeros[index] = zeros[index-w1] + rowZeros;
+			}
+		}
+	}
+
+	public long getSum(int x, int y, int w, int h) {
+		return window(sum, x, y, w, h);
+	}
+
+	public long getSumOfSquares(int x, int y, int w, int h) {
+		return window(sumSq, x, y, w, h);
+	}
+
+	//Zero pixels in the window, counting every position outside the image as one
+	public int getZeroCount(int x, int y, int w, int h) {
+		int inside = (clip(x+w, width)-clip(x, width))*(clip(y+h, height)-clip(y, height));
+		return (int)window(zeros, x, y, w, h) + w*h - inside;
+	}
+
+	public double getMean(int x, int y, int w, int h) {
+		return ((double)getSum(x, y, w, h))/(w*h);
+	}
+
+	//Population variance (divided by w*h) of the window
+	public double getVariance(int x, int y, int w, int h) {
+		double n = w*h;
+		double total = getSum(x, y, w, h);
+		double variance = (getSumOfSquares(x, y, w, h) - total*total/n)/n;
+		return (variance > 0) ? variance : 0;
+	}
+
+	private long window(long[] table, int x, int y, int w, int h) {
+		int x0 = clip(x, width);
+		int x1 = clip(x+w, width);
+		int y0 = clip(y, height);
+		int y1 = clip(y+h, height);
+		int w1 = width+1;
+		return table[y1*w1+x1] - table[y0*w1+x1] - table[y1*w1+x0] + table[y0*w1+x0];
+	}
+
+	private long window(int[] table, int x, int y, int w, int h) {
+		int x0 = clip(x, width);
+		int x1 = clip(x+w, width);
+		int y0 = clip(y, height);
+		int y1 = clip(y+h, height);
+		int w1 = width+1;
+		return table[y1*w1+x1] - table[y0*w1+x1] - table[y1*w1+x0] + table[y0*w1+x0];
+	}
+
+	private static int clip(int v, int max) {
+		return (v < 0) ? 0 : (v > max) ? max : v;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * PunctaCntrKdTree.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+public class PunctaCntrKdTree {
+	//Static 3D k-d tree over the pixel coordinates of a marker list, built once and
+	//then asked for every marker inside a box. Results are list indexes into the
+	//vector the tree was built from, in no particular order, so callers that care
+	//about list order (first of equally good matches) compare the indexes themselves.
+	//The tree is a snapshot: markers added, removed or moved afterwards are not seen.
+	private static final int LEAF = 8;
+	private static final int MAX_RADIUS = 1 << 24; //offsets stay exact as floats
+	private final int[] x;
+	private final int[] y;
+	private final int[] z;
+	private final int[] idx; //list indexes, arranged as an implicit tree
+	private int[] result = new int[64];
+	private int found;
+
+	/** Creates a new instance of PunctaCntrKdTree */
+	public PunctaCntrKdTree(PunctaCntrMarkerVector markers) {
+		int n = markers.size();
+		x = new int[n];
+		y = new int[n];
+		z = new int[n];
+		idx = new int[n];
+		for (int i = 0; i < n; i++) {
+			PunctaCntrMarker m = markers.get(i);
+			x[i] = m.getX();
+			y[i] = m.getY();
+			z[i] = m.getZ();
+			idx[i] = i;
+		}
+		build(0, n, 0);
+	}
+
+	//Largest pixel offset d with Math.abs(d*scale) <= tol, the float test autolink applies
+	//to each axis; -1 if not even offset 0 passes. |d*scale| never decreases as |d| grows,
+	//so exactly the offsets -d..d pass.
+	public static int linkRadius(float scale, float tol) {
+		if (!(Math.abs(0*scale) <= tol)) return -1;
+		float a = Math.abs(scale);
+		if (a == 0) return MAX_RADIUS;
+		int d = (int)Math.min(MAX_RADIUS, Math.floor(tol/a));
+		while (d < MAX_RADIUS && Math.abs((d+1)*scale) <= tol) d++;
+		while (d > 0 && Math.abs(d*scale) > tol) d--;
+		return d;
+	}
+
+	//Collects the markers with x0<=x<=x1, y0<=y<=y1 and z0<=z<=z1; returns how many.
+	//They are read with getResult until the next query.
+	public int query(int x0, int x1, int y0, int y1, int z0, int z1) {
+		found = 0;
+		if (x0 <= x1 && y0 <= y1 && z0 <= z1)
+			query(0, idx.length, 0, x0, x1, y0, y1, z0, z1);
+		return found;
+	}
+
+	public int getResult(int k) {
+		return result[k];
+	}
+
+	private void query(int lo, int hi, int depth, int x0, int x1, int y0, int y1, int z0, int z1) {
+		while (hi - lo > LEAF) {
+			int mid = (lo + hi) >>> 1;
+			int i = idx[mid];
+			if (x[i] >= x0 && x[i] <= x1 && y[i] >= y0 && y[i] <= y1 && z[i] >= z0 && z[i] <= z1)
+				add(i);
+			int split = coord(i, depth);
+			int from = (depth % 3 == 0) ? x0 : (depth % 3 == 1) ? y0 : z0;
+			int to = (depth % 3 == 0) ? x1 : (depth % 3 == 1) ? y1 : z1;
+			boolean left = from <= split;
+			boolean right = to >= split;
+			depth++;
+			if (left && right) {
+				query(lo, mid, depth, x0, x1, y0, y1, z0, z1);
+				lo = mid + 1;
+			} else if (left) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		for (int k = lo; k < hi; k++) {
+			int i = idx[k];
+			if (x[i] >= x0 && x[i] <= x1 && y[i] >= y0 && y[i] <= y1 && z[i] >= z0 && z[i] <= z1)
+				add(i);
+		}
+	}
+
+	private void add(int i) {
+		if (found == result.length) {
+			int[] grown = new int[result.length*2];
+			System.arraycopy(result, 0, grown, 0, found);
+			result = grown;
+		}
+		result[found++] = i;
+	}
+
+	private int coord(int i, int depth) {
+		switch (depth % 3) {
+			case 0: return x[i];
+			case 1: return y[i];
+			default: return z[i];
+		}
+	}
+
+	//Puts the median of idx[lo..hi) on the axis of this depth at the middle, smaller or
+	//equal ones before it and greater or equal ones after, then does the same for both halves
+	private void build(int lo, int hi, int depth) {
+		while (hi - lo > LEAF) {
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, depth);
+			build(lo, mid, depth + 1);
+			lo = mid + 1;
+			depth++;
+		}
+	}
+
+	private void select(int lo, int hi, int k, int depth) {
+		while (hi > lo) {
+			int pivot = coord(idx[(lo + hi) >>> 1], depth);
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coord(idx[i], depth) < pivot) i++;
+				while (coord(idx[j], depth) > pivot) j--;
+				if (i <= j) {
+					int t = idx[i];
+					idx[i] = idx[j];
+					idx[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+}
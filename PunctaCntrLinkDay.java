@@ -0,0 +1,146 @@
+/*
+ * PunctaCntrLinkDay.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.io.File;
+import java.util.Vector;
+
+public class PunctaCntrLinkDay {
+	//One day's stack as PunctaCounterLinkBatch links it with other days: the image, its _3
+	//markers and the background and signal tables Autolink measures for every slice. Each is
+	//made once, by the first pair that needs it, and then handed to every other pair with
+	//this day, from any thread. Autolink changes both the markers and the tables, so pairs
+	//get copies of them; the image is only read. The image can be flushed between pairs to
+	//save memory and is opened again when needed; release() drops everything.
+	private final String path;
+	private final String title;
+	private final String day;
+	private ImagePlus img;
+	private boolean markersRead;
+	private Vector<PunctaCntrMarkerVector> markers; //null if the marker file is for another image
+	private int currentType;
+	private double[][] background;
+	private int[] picknumber;
+	private boolean measuring; //a pair is measuring the tables
+	int users; //pairs running with this day, kept by PunctaCounterLinkBatch
+	int pending; //pairs with this day not finished yet, kept by PunctaCounterLinkBatch
+
+	/** Creates a new instance of PunctaCntrLinkDay */
+	public PunctaCntrLinkDay(String path) {
+		this.path = path;
+		title = new File(path).getName();
+		day = dayOf(title);
+	}
+
+	//The day number Autolink reads from a title of the form ...Day<n>..x..., as in
+	//stackDay12abx.tif; null if the title has no such form
+	public static String dayOf(String title) {
+		int ind1 = title.indexOf("Day");
+		int ind2 = title.indexOf('x');
+		if (ind1 < 0 || ind2-2 < ind1+3) return null;
+		return title.substring(ind1+3, ind2-2);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDay() {
+		return day;
+	}
+
+	public synchronized ImagePlus getImage() {
+		if (img == null) {
+			img = IJ.openImage(path);
+			if (img == null) throw new IllegalStateException("Could not open "+path);
+		}
+		return img;
+	}
+
+	public synchronized boolean isOpen() {
+		return img != null;
+	}
+
+	public synchronized void flushImage() {
+		if (img != null) img.flush();
+		img = null;
+	}
+
+	//The markers of <directory><title>_3.xml as read for canvas 1, read on the first call;
+	//null if the file was saved for another image, which loadMarkers2 skips as well
+	public synchronized Vector<PunctaCntrMarkerVector> getMarkers(String directory) {
+		if (!markersRead) {
+			ReadXML rxml = new ReadXML(directory+title+"_3.xml");
+			String storedfilename = rxml.readImgProperties(ReadXML.IMAGE_FILE_PATH);
+			if (storedfilename.equals(title)) {
+				markers = new Vector<PunctaCntrMarkerVector>();
+				rxml.readMarkerData(markers, 1);
+				currentType = Integer.parseInt(rxml.readImgProperties(ReadXML.CURRENT_TYPE));
+			}
+			markersRead = true;
+		}
+		return markers;
+	}
+
+	public synchronized int getCurrentType() {
+		return currentType;
+	}
+
+	//The tables if a pair measured them already. Otherwise returns null, and the caller has
+	//to measure them and hand them to setBackground, also when it fails (with null); other
+	//pairs asking meanwhile wait for that.
+	public synchronized double[][] claimBackground() {
+		while (measuring) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if (background == null) measuring = true;
+		return background;
+	}
+
+	public synchronized int[] getPicknumber() {
+		return picknumber;
+	}
+
+	public synchronized void setBackground(double[][] tables, int[] picknumber) {
+		background = tables;
+		this.picknumber = picknumber;
+		measuring = false;
+		notifyAll();
+	}
+
+	public synchronized void release() {
+		flushImage();
+		markers = null;
+		markersRead = false;
+		background = null;
+		picknumber = null;
+	}
+}
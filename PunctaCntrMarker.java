@@ -30,6 +30,7 @@
 	 public int linkedOwner;
 	 public int canvasID;
 	 public int resultNum;
+	 PunctaCntrMarkerVector indexedBy; //vector whose group index holds this marker, told when the owner changes
     
     /** Creates a new instance of Marker */
     public PunctaCntrMarker() {
@@ -99,7 +100,9 @@
 	}
 	
 	public void setOwner(int owner) {
+		  int oldOwner = this.owner;
 		  this.owner = owner;
+		  if (indexedBy != null && oldOwner != owner) indexedBy.ownerChanged(this, oldOwner);
 	}
 	
 	public int getUID() {
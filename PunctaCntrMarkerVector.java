@@ -21,9 +21,15 @@
  */
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.awt.geom.Point2D;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.Vector;
 import ij.IJ;
 
@@ -62,6 +68,25 @@ public class PunctaCntrMarkerVector extends Vector<PunctaCntrMarker> {
 		if (marker.getUID() > this.next_uid) this.next_uid = marker.getUID()+1;
 		add(marker);
 	}
+	
+	//Adds copies of source's markers holding only what a marker file keeps, through
+	//addMarkerFromXML, so a stage handed source directly starts from the same state as
+	//one that reads it back from the XML the previous stage wrote
+	public void addMarkersAsLoaded(PunctaCntrMarkerVector source, int canvasID) {
+		for (int n = 0; n < source.size(); n++) {
+			PunctaCntrMarker m = source.get(n);
+			PunctaCntrMarker copy = new PunctaCntrMarker();
+			copy.setX(m.getX());
+			copy.setY(m.getY());
+			copy.setZ(m.getZ());
+			copy.setRad(m.getRad());
+			copy.setUID(m.getUID());
+			copy.setOwner(m.getOwner());
+			copy.resultNum = m.resultNum;
+			copy.canvasID = canvasID;
+			addMarkerFromXML(copy);
+		}
+	}
     
     public PunctaCntrMarker getMarker(int n){
         return (PunctaCntrMarker)get(n);
@@ -75,26 +100,58 @@ public class PunctaCntrMarkerVector extends Vector<PunctaCntrMarker> {
 		this.remove(n);
 	}
 	
-	public PunctaCntrMarker getMarkerByUID(int uid) {
-		ListIterator it = this.listIterator();
-        while(it.hasNext()){
-            PunctaCntrMarker m = (PunctaCntrMarker)it.next();
-            if (m.getUID() == uid)
-                return m;
-        }
-		return null;
+	//First marker in the list with this UID, or null
+	public synchronized PunctaCntrMarker getMarkerByUID(int uid) {
+		ensureIndexes();
+		return byUID.get(uid);
 	}
 	
-	public void removeMarker(PunctaCntrMarker m) {
+	//Removes m's whole group. The group index gives its members and their list positions
+	//are found by binary search on list order, so no owner is compared outside the group
+	public synchronized void removeMarker(PunctaCntrMarker m) {
 		int remove_group = m.getOwner();
-        ListIterator it = this.listIterator();
-		  int n;
-        while(it.hasNext()){
-		    n = it.nextIndex();
-            PunctaCntrMarker m2 = (PunctaCntrMarker)it.next();
-            if (m2.getOwner() == remove_group) {
-				it.remove();
-			}
+		Vector<PunctaCntrMarker> group = getGroup(remove_group);
+		for (int i = group.size()-1; i >= 0; i--) {
+			ensureIndexes(); //only rebuilds if a shared UID made the last removal drop the indexes
+			remove(orderedIndex(this, group.get(i)));
+		}
+	}
+	
+	//Removes every marker in the set with one pass over the list
+	public synchronized void removeSingles(Set<PunctaCntrMarker> markers) {
+		int kept = 0;
+		for (int n = 0; n < size(); n++) {
+			PunctaCntrMarker m = get(n);
+			if (!markers.contains(m)) set(kept++, m);
+		}
+		setSize(kept);
+	}
+	
+	//Numbers the owners first, first+1, ... in list order and gives every marker its owner's
+	//number; markers whose owner is not in the list get 0. Returns the next unused number
+	public synchronized int renumber(int first) {
+		int next = first;
+		for (int n = 0; n < size(); n++) {
+			PunctaCntrMarker m = get(n);
+			m.resultNum = m.isOwner() ? next++ : 0;
+		}
+		propagateResultNums();
+		return next;
+	}
+	
+	//Copies each owner's resultNum to the rest of its group in two passes over the list. Where
+	//two owners share a UID the earlier one's number wins, as it did with the nested loops
+	public synchronized void propagateResultNums() {
+		Hashtable<Integer, Integer> ownerNum = new Hashtable<Integer, Integer>(2*size()+11);
+		for (int n = 0; n < size(); n++) {
+			PunctaCntrMarker m = get(n);
+			if (m.isOwner() && !ownerNum.containsKey(m.getUID()))
+				ownerNum.put(m.getUID(), m.resultNum);
+		}
+		for (int n = 0; n < size(); n++) {
+			PunctaCntrMarker m = get(n);
+			Integer num = ownerNum.get(m.getOwner());
+			if (num != null) m.resultNum = num;
 		}
 	}
 	
@@ -150,33 +207,316 @@ public class PunctaCntrMarkerVector extends Vector<PunctaCntrMarker> {
     }
 
     public PunctaCntrMarker getMarkerFromPosition(Point p, int sliceIndex, int thisCanvasID){
-        Vector<PunctaCntrMarker> v = new Vector<PunctaCntrMarker>();
-        ListIterator it = this.listIterator();
-        while(it.hasNext()){
-            PunctaCntrMarker m = (PunctaCntrMarker)it.next();
-            if (m.getZ()==sliceIndex && (m.canvasID == thisCanvasID || thisCanvasID == 0)){
-                v.add(m);
-            }
+        PunctaCntrMarker currentsmallest = getNearestMarker(p.x, p.y, sliceIndex, thisCanvasID);
+        if (currentsmallest != null) {
+            double currentLeastDist = p.distance(currentsmallest.getX(), currentsmallest.getY());
+            if (currentLeastDist <= currentsmallest.getRad() + 10 ) //tolerance in pixels
+              return currentsmallest;
         }
-        PunctaCntrMarker currentsmallest = (PunctaCntrMarker)v.get(0);
-        Point p0 = new Point(currentsmallest.getX(),currentsmallest.getY());
-        double currentLeastDist = Math.abs(p.distance(p0));
-        for (int i=1; i<v.size(); i++) {
-            PunctaCntrMarker m2 = (PunctaCntrMarker)v.get(i);
-            Point p1 = new Point(currentsmallest.getX(),currentsmallest.getY());
-            Point p2 = new Point(m2.getX(),m2.getY());
-            boolean closer = Math.abs(p1.distance(p)) > Math.abs(p2.distance(p));
-            if (closer) {
-                currentsmallest = m2;
-                currentLeastDist = p2.distance(p);
-            }
-        }
-        if (currentLeastDist <= currentsmallest.getRad() + 10 ) //tolerance in pixels
-          return currentsmallest;
         PunctaCntrMarker mEmpty = new PunctaCntrMarker(0, 0, 0, 0);
         return mEmpty;
     }
     
+//-----------------------------LIST INDEXES
+	//Three indexes over the list, built together on the first query that needs them:
+	//  grid    - marker centers binned by slice into GRID_CELL x GRID_CELL pixel cells, so
+	//            position queries only visit the cells around the point. Cells are keyed by
+	//            slice only: canvasID is assigned after a marker is added, so it is checked
+	//            per query instead.
+	//  byUID   - UID to marker. UIDs never change once a marker is in the list. If two markers
+	//            share a UID (an XML file can hold that) the earlier one is kept, as the old
+	//            scan returned.
+	//  byOwner - owner UID to every marker of that group, owner included, in list order.
+	//            Owners do change after insertion, so each marker points back at the vector
+	//            indexing it and PunctaCntrMarker.setOwner reports the move.
+	//From then on add() and remove(int) (which iterator removal also goes through) keep them
+	//up to date. Any other change to the list (insert at an index, clear, ...) moves modCount
+	//past indexModCount and everything is rebuilt on the next query.
+	private static final int GRID_CELL = 32; //pixels
+	private Hashtable<Long, Vector<PunctaCntrMarker>> grid;
+	private Hashtable<Integer, PunctaCntrMarker> byUID;
+	private Hashtable<Integer, Vector<PunctaCntrMarker>> byOwner;
+	private IdentityHashMap<PunctaCntrMarker, Integer> listOrder; //increases with list position
+	private int listSeq;
+	private boolean uidShared;
+	private int gridMaxRad;
+	private int gridMinCX, gridMaxCX, gridMinCY, gridMaxCY;
+	private int indexModCount = -1;
+
+	public synchronized boolean add(PunctaCntrMarker marker) {
+		boolean indexed = isIndexed();
+		super.add(marker);
+		if (indexed) {
+			indexInsert(marker);
+			indexModCount = modCount;
+		}
+		return true;
+	}
+
+	public synchronized PunctaCntrMarker remove(int n) {
+		boolean indexed = isIndexed();
+		PunctaCntrMarker m = super.remove(n);
+		if (indexed && indexDelete(m))
+			indexModCount = modCount;
+		return m;
+	}
+
+	public synchronized PunctaCntrMarker set(int n, PunctaCntrMarker marker) {
+		indexModCount = -1; //list order is no longer what the indexes hold
+		return super.set(n, marker);
+	}
+
+	public synchronized Object clone() {
+		PunctaCntrMarkerVector v = (PunctaCntrMarkerVector)super.clone();
+		v.grid = null; //never share the indexes between copies
+		v.byUID = null;
+		v.byOwner = null;
+		v.listOrder = null;
+		v.indexModCount = -1;
+		return v;
+	}
+
+	//Marker on slice z nearest to (x,y), earliest in the list on a tie, or null if the slice
+	//has none; canvasID 0 accepts markers from either canvas
+	public synchronized PunctaCntrMarker getNearestMarker(int x, int y, int z, int canvasID) {
+		ensureIndexes();
+		if (isEmpty()) return null;
+		int cx = Math.floorDiv(x, GRID_CELL);
+		int cy = Math.floorDiv(y, GRID_CELL);
+		int maxRing = Math.max(Math.max(cx-gridMinCX, gridMaxCX-cx), Math.max(cy-gridMinCY, gridMaxCY-cy));
+		PunctaCntrMarker best = null;
+		long bestD2 = 0;
+		int bestOrder = 0;
+		for (int k = 0; k <= maxRing; k++) {
+			//Every cell of ring k is more than (k-1)*GRID_CELL pixels away from (x,y)
+			long bound = (long)(k-1)*GRID_CELL+1;
+			if (best != null && k > 0 && bestD2 < bound*bound) break;
+			for (int i = cx-k; i <= cx+k; i++)
+			for (int j = cy-k; j <= cy+k; j += (i == cx-k || i == cx+k) ? 1 : 2*k) {
+				Vector<PunctaCntrMarker> cell = grid.get(gridKey(i, j, z));
+				if (cell == null) continue;
+				for (PunctaCntrMarker m : cell) {
+					if (canvasID != 0 && m.canvasID != canvasID) continue;
+					long dx = m.getX()-x;
+					long dy = m.getY()-y;
+					long d2 = dx*dx+dy*dy;
+					int order = listOrder.get(m);
+					if (best == null || d2 < bestD2 || (d2 == bestD2 && order < bestOrder)) {
+						best = m;
+						bestD2 = d2;
+						bestOrder = order;
+					}
+				}
+				if (k == 0) break;
+			}
+		}
+		return best;
+	}
+
+	//Markers on slice z whose center is within radius of (x,y), in list order
+	public synchronized Vector<PunctaCntrMarker> getMarkersNear(int x, int y, int z, int radius) {
+		Vector<PunctaCntrMarker> near = new Vector<PunctaCntrMarker>();
+		for (PunctaCntrMarker m : gridCandidates(x, y, z, radius)) {
+			long dx = m.getX()-x;
+			long dy = m.getY()-y;
+			if (dx*dx+dy*dy <= (long)radius*radius) near.add(m);
+		}
+		return near;
+	}
+
+	//Markers on slice z, other than m, that m's circle covers the center of or whose circle
+	//covers m's center (the test GroupAndRemoveRedundant uses), in list order
+	public synchronized Vector<PunctaCntrMarker> getMarkersOverlapping(PunctaCntrMarker m, int z) {
+		Vector<PunctaCntrMarker> near = new Vector<PunctaCntrMarker>();
+		ensureIndexes();
+		int r1 = m.getRad();
+		for (PunctaCntrMarker m2 : gridCandidates(m.getX(), m.getY(), z, Math.max(r1, gridMaxRad))) {
+			if (m2 == m) continue;
+			int x = m.getX() - m2.getX();
+			int y = m.getY() - m2.getY();
+			int r2 = m2.getRad();
+			if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) near.add(m2);
+		}
+		return near;
+	}
+
+	//Markers on slice z whose circle reaches into rect, in list order, for the canvases to
+	//paint only what is in view; canvasID 0 markers show on every canvas, as paint() has it
+	public synchronized Vector<PunctaCntrMarker> getMarkersInRect(Rectangle rect, int z, int canvasID) {
+		Vector<PunctaCntrMarker> visible = new Vector<PunctaCntrMarker>();
+		ensureIndexes();
+		if (isEmpty()) return visible;
+		int loX = Math.max(Math.floorDiv(rect.x-gridMaxRad, GRID_CELL), gridMinCX);
+		int hiX = Math.min(Math.floorDiv(rect.x+rect.width+gridMaxRad, GRID_CELL), gridMaxCX);
+		int loY = Math.max(Math.floorDiv(rect.y-gridMaxRad, GRID_CELL), gridMinCY);
+		int hiY = Math.min(Math.floorDiv(rect.y+rect.height+gridMaxRad, GRID_CELL), gridMaxCY);
+		for (int i = loX; i <= hiX; i++)
+		for (int j = loY; j <= hiY; j++) {
+			Vector<PunctaCntrMarker> cell = grid.get(gridKey(i, j, z));
+			if (cell == null) continue;
+			for (PunctaCntrMarker m : cell) {
+				if (m.canvasID != 0 && m.canvasID != canvasID) continue;
+				int rad = m.getRad();
+				if (m.getX()+rad < rect.x || m.getX()-rad > rect.x+rect.width
+					|| m.getY()+rad < rect.y || m.getY()-rad > rect.y+rect.height) continue;
+				visible.add(m);
+			}
+		}
+		final IdentityHashMap<PunctaCntrMarker, Integer> order = listOrder;
+		Collections.sort(visible, new Comparator<PunctaCntrMarker>() {
+			public int compare(PunctaCntrMarker a, PunctaCntrMarker b) {
+				return Integer.compare(order.get(a), order.get(b));
+			}
+		});
+		return visible;
+	}
+
+	//Every marker whose owner is the given UID, the owner itself included, in list order.
+	//The returned Vector is a copy, so the group may be changed while walking it
+	public synchronized Vector<PunctaCntrMarker> getGroup(int owner) {
+		ensureIndexes();
+		Vector<PunctaCntrMarker> group = byOwner.get(owner);
+		return (group == null) ? new Vector<PunctaCntrMarker>() : new Vector<PunctaCntrMarker>(group);
+	}
+
+	//Position of m relative to the other markers: larger means later in the list
+	public synchronized int getListOrder(PunctaCntrMarker m) {
+		ensureIndexes();
+		Integer order = listOrder.get(m);
+		return (order == null) ? -1 : order;
+	}
+
+	//Called by PunctaCntrMarker.setOwner for markers this vector has indexed
+	synchronized void ownerChanged(PunctaCntrMarker m, int oldOwner) {
+		if (!isIndexed() || !listOrder.containsKey(m)) return;
+		Vector<PunctaCntrMarker> group = byOwner.get(oldOwner);
+		int i = (group == null) ? -1 : orderedIndex(group, m);
+		if (i >= 0) {
+			group.remove(i);
+			if (group.isEmpty()) byOwner.remove(oldOwner);
+		}
+		group = byOwner.get(m.getOwner());
+		if (group == null) {
+			group = new Vector<PunctaCntrMarker>();
+			byOwner.put(m.getOwner(), group);
+		}
+		i = orderedIndex(group, m);
+		if (i < 0) group.add(-i-1, m);
+	}
+
+	private boolean isIndexed() {
+		return listOrder != null && indexModCount == modCount;
+	}
+
+	private Vector<PunctaCntrMarker> gridCandidates(int x, int y, int z, int radius) {
+		ensureIndexes();
+		Vector<PunctaCntrMarker> found = new Vector<PunctaCntrMarker>();
+		int loX = Math.max(Math.floorDiv(x-radius, GRID_CELL), gridMinCX);
+		int hiX = Math.min(Math.floorDiv(x+radius, GRID_CELL), gridMaxCX);
+		int loY = Math.max(Math.floorDiv(y-radius, GRID_CELL), gridMinCY);
+		int hiY = Math.min(Math.floorDiv(y+radius, GRID_CELL), gridMaxCY);
+		for (int i = loX; i <= hiX; i++)
+		for (int j = loY; j <= hiY; j++) {
+			Vector<PunctaCntrMarker> cell = grid.get(gridKey(i, j, z));
+			if (cell != null) found.addAll(cell);
+		}
+		if (loX < hiX || loY < hiY) {
+			final IdentityHashMap<PunctaCntrMarker, Integer> order = listOrder;
+			Collections.sort(found, new Comparator<PunctaCntrMarker>() {
+				public int compare(PunctaCntrMarker a, PunctaCntrMarker b) {
+					return Integer.compare(order.get(a), order.get(b));
+				}
+			});
+		}
+		return found;
+	}
+
+	private void ensureIndexes() {
+		if (isIndexed()) return;
+		grid = new Hashtable<Long, Vector<PunctaCntrMarker>>();
+		byUID = new Hashtable<Integer, PunctaCntrMarker>(2*size()+11);
+		byOwner = new Hashtable<Integer, Vector<PunctaCntrMarker>>();
+		listOrder = new IdentityHashMap<PunctaCntrMarker, Integer>();
+		listSeq = 0;
+		uidShared = false;
+		gridMaxRad = 0;
+		gridMinCX = gridMinCY = Integer.MAX_VALUE;
+		gridMaxCX = gridMaxCY = Integer.MIN_VALUE;
+		for (int n = 0; n < size(); n++)
+			indexInsert(get(n));
+		indexModCount = modCount;
+	}
+
+	private void indexInsert(PunctaCntrMarker m) {
+		listOrder.put(m, listSeq++);
+		m.indexedBy = this;
+
+		int cx = Math.floorDiv(m.getX(), GRID_CELL);
+		int cy = Math.floorDiv(m.getY(), GRID_CELL);
+		Long key = gridKey(cx, cy, m.getZ());
+		Vector<PunctaCntrMarker> cell = grid.get(key);
+		if (cell == null) {
+			cell = new Vector<PunctaCntrMarker>();
+			grid.put(key, cell);
+		}
+		cell.add(m);
+		if (m.getRad() > gridMaxRad) gridMaxRad = m.getRad();
+		if (cx < gridMinCX) gridMinCX = cx;
+		if (cx > gridMaxCX) gridMaxCX = cx;
+		if (cy < gridMinCY) gridMinCY = cy;
+		if (cy > gridMaxCY) gridMaxCY = cy;
+
+		if (byUID.containsKey(m.getUID())) uidShared = true;
+		else byUID.put(m.getUID(), m);
+
+		//the newest marker always goes last in its group
+		Vector<PunctaCntrMarker> group = byOwner.get(m.getOwner());
+		if (group == null) {
+			group = new Vector<PunctaCntrMarker>();
+			byOwner.put(m.getOwner(), group);
+		}
+		group.add(m);
+	}
+
+	//false when the indexes have to be rebuilt instead
+	private boolean indexDelete(PunctaCntrMarker m) {
+		if (byUID.get(m.getUID()) == m && uidShared) return false; //another marker now answers this UID
+
+		Long key = gridKey(Math.floorDiv(m.getX(), GRID_CELL), Math.floorDiv(m.getY(), GRID_CELL), m.getZ());
+		Vector<PunctaCntrMarker> cell = grid.get(key);
+		cell.remove(m);
+		if (cell.isEmpty()) grid.remove(key);
+
+		if (byUID.get(m.getUID()) == m) byUID.remove(m.getUID());
+
+		Vector<PunctaCntrMarker> group = byOwner.get(m.getOwner());
+		group.remove(orderedIndex(group, m));
+		if (group.isEmpty()) byOwner.remove(m.getOwner());
+
+		listOrder.remove(m);
+		if (m.indexedBy == this) m.indexedBy = null;
+		return true;
+	}
+
+	//Binary search by list order; (-(insertion point) - 1) when m is not in the markers
+	private int orderedIndex(Vector<PunctaCntrMarker> markers, PunctaCntrMarker m) {
+		int order = listOrder.get(m);
+		int lo = 0;
+		int hi = markers.size()-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			PunctaCntrMarker here = markers.get(mid);
+			if (here == m) return mid;
+			if (listOrder.get(here) < order) lo = mid+1;
+			else hi = mid-1;
+		}
+		return -lo-1;
+	}
+
+	private static Long gridKey(int cx, int cy, int z) {
+		return ((long)z << 42) ^ (((long)cx & 0x1fffff) << 21) ^ ((long)cy & 0x1fffff);
+	}
+    
     public int getType() {
         return type;
     }
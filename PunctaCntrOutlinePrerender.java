@@ -0,0 +1,128 @@
+/*
+ * PunctaCntrOutlinePrerender.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class PunctaCntrOutlinePrerender {
+	//Finds the outlines paint() draws for every slice of the canvases of a PunctaCounter on
+	//one background thread, so turning to a slice draws boundaries its PunctaCntrSlice
+	//already holds instead of scanning them on the event thread. Slices are queued as
+	//{canvasID, z} and done one at a time by PunctaCounter.prerenderSlice, nearest the slice
+	//on show first. The slice views check every boundary they hold against the marker and
+	//cutoff it was found for, so a pass overtaken by a change does no harm: a stale outline
+	//is never drawn, it is found again by the next pass or by paint().
+	private final PunctaCounter pc;
+	private final ExecutorService worker;
+	private final LinkedList<int[]> pending = new LinkedList<int[]>();
+	private boolean running;
+
+	/** Creates a new instance of PunctaCntrOutlinePrerender */
+	public PunctaCntrOutlinePrerender(PunctaCounter pc) {
+		this.pc = pc;
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PunctaCntrOutlinePrerender");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	//Queues all slices of canvasID behind what is queued already, from slice current
+	//outward: current, current+1, current-1, current+2, ...
+	public synchronized void queueStack(int canvasID, int slices, int current) {
+		queueAround(canvasID, current, slices, slices, false);
+	}
+
+	//Queues the slices within reach of z ahead of everything else, for a punctum added by
+	//hand; the rest of the stack keeps the outlines it has
+	public synchronized void queueNear(int canvasID, int z, int reach, int slices) {
+		queueAround(canvasID, z, reach, slices, true);
+	}
+
+	//Drops everything not started yet, as a step is about to change the markers
+	public synchronized void clear() {
+		pending.clear();
+	}
+
+	public void shutdown() {
+		clear();
+		worker.shutdown();
+	}
+
+	private void queueAround(int canvasID, int z, int reach, int slices, boolean first) {
+		LinkedList<int[]> jobs = new LinkedList<int[]>();
+		for (int d = 0; d <= reach; d++) {
+			if (z+d >= 1 && z+d <= slices) jobs.add(new int[] {canvasID, z+d});
+			if (d > 0 && z-d >= 1 && z-d <= slices) jobs.add(new int[] {canvasID, z-d});
+		}
+		for (int[] job : jobs) remove(job);
+		if (first) pending.addAll(0, jobs);
+		else pending.addAll(jobs);
+		if (!running && !pending.isEmpty()) {
+			running = true;
+			worker.execute(new Runnable() {
+				public void run() {
+					drain();
+				}
+			});
+		}
+	}
+
+	private void remove(int[] job) {
+		for (int i = 0; i < pending.size(); i++) {
+			int[] queued = pending.get(i);
+			if (queued[0] == job[0] && queued[1] == job[1]) {
+				pending.remove(i);
+				return;
+			}
+		}
+	}
+
+	private synchronized int[] next() {
+		if (pending.isEmpty()) {
+			running = false;
+			return null;
+		}
+		return pending.removeFirst();
+	}
+
+	private void drain() {
+		int[] job;
+		boolean told = false;
+		while ((job = next()) != null) {
+			try {
+				pc.prerenderSlice(job[0], job[1]);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				//the background arrays were measured again under the pass, for another
+				//stack size; paint() finds whatever was missed
+			} catch (RuntimeException e) {
+				if (!told) IJ.log("Outline pre-render stopped on slice "+job[1]+" of image "+job[0]+": "+e);
+				told = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * PunctaCntrResultsWriter.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.measure.ResultsTable;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Vector;
+
+public class PunctaCntrResultsWriter {
+	//Takes the rows measureMarker3D gives, with the calls of a ResultsTable, and writes them
+	//to <base>.csv and <base>.pcr while the measuring goes on, holding no more than
+	//BLOCK_ROWS rows. The ResultsTable passed as view, if any, gets every row as well, so
+	//the table ImageJ shows is only kept when somebody wants to see it; with neither a base
+	//nor a view the rows are counted and dropped.
+	//
+	//The .pcr file keeps the rows in blocks, one column after the other within a block, in
+	//big-endian ints and doubles:
+	//  header  MAGIC, VERSION
+	//  block   number of rows (0 ends the file), number of columns, then for every column
+	//          the length of its name in bytes, the name in UTF-8 and a double for each row
+	//Every block names all columns seen so far, in the order they first came; a value a row
+	//did not set is NaN. The .csv file has a header line of the columns of the first block
+	//and leaves unset values empty; a column that first comes after that block is only in
+	//the .pcr file.
+	public static final int MAGIC = 0x50435253; //"PCRS"
+	public static final int VERSION = 1;
+	public static final int BLOCK_ROWS = 4096;
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final String basePath;
+	private final ResultsTable view;
+	private BufferedWriter csv;
+	private FileOutputStream binary;
+	private ByteBuffer buf;
+	private final Vector<String> columns = new Vector<String>();
+	private final Vector<double[]> values = new Vector<double[]>();
+	private int csvColumns = -1; //columns in the csv header, -1 until it is written
+	private boolean toldLate;
+	private int blockRows; //rows of the block so far, the last one still being filled
+	private int rows;
+	private boolean failed;
+
+	/** Creates a new instance of PunctaCntrResultsWriter */
+	public PunctaCntrResultsWriter(ResultsTable view) {
+		this(null, view);
+	}
+
+	//Writes to <basePath>.csv and <basePath>.pcr unless basePath is null
+	public PunctaCntrResultsWriter(String basePath, ResultsTable view) {
+		this.basePath = basePath;
+		this.view = view;
+		if (basePath == null) return;
+		try {
+			csv = new BufferedWriter(new FileWriter(basePath+".csv"));
+			binary = new FileOutputStream(basePath+".pcr");
+			buf = ByteBuffer.allocate(BUFFER_BYTES);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	public ResultsTable getView() {
+		return view;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	//Clears the view, as a new measurement starts; rows already written stay in the files
+	public void reset() {
+		if (view != null) view.reset();
+	}
+
+	public void incrementCounter() {
+		if (view != null) view.incrementCounter();
+		rows++;
+		if (csv == null) return;
+		if (blockRows == BLOCK_ROWS) writeBlock();
+		if (csv == null) return;
+		for (int c = 0; c < values.size(); c++) values.get(c)[blockRows] = Double.NaN;
+		blockRows++;
+	}
+
+	public void addValue(String column, double value) {
+		if (view != null) view.addValue(column, value);
+		if (csv == null || blockRows == 0) return;
+		int c = columns.indexOf(column);
+		if (c < 0) {
+			c = columns.size();
+			columns.add(column);
+			double[] column2 = new double[BLOCK_ROWS];
+			Arrays.fill(column2, Double.NaN);
+			values.add(column2);
+		}
+		values.get(c)[blockRows-1] = value;
+	}
+
+	//Writes what is left and closes the files; false if they could not all be written
+	public boolean close() {
+		if (csv != null) {
+			try {
+				if (blockRows > 0) writeBlock();
+				ensureRoom(4);
+				buf.putInt(0);
+				drain();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		release();
+		return !failed;
+	}
+
+	//Closes the files and deletes them, for a run that failed before all its rows came
+	public void discard() {
+		release();
+		if (basePath == null) return;
+		new File(basePath+".csv").delete();
+		new File(basePath+".pcr").delete();
+	}
+
+	private void writeBlock() {
+		try {
+			if (csvColumns < 0) {
+				csvColumns = columns.size();
+				for (int c = 0; c < csvColumns; c++)
+					csv.write((c == 0 ? "" : ",")+quote(columns.get(c)));
+				csv.write("\n");
+			} else if (columns.size() > csvColumns && !toldLate) {
+				System.out.println(basePath+".csv: column "+columns.get(csvColumns)+" came after the header and is only in the .pcr file");
+				toldLate = true;
+			}
+			StringBuilder line = new StringBuilder();
+			for (int r = 0; r < blockRows; r++) {
+				line.setLength(0);
+				for (int c = 0; c < csvColumns; c++) {
+					if (c > 0) line.append(',');
+					line.append(format(values.get(c)[r]));
+				}
+				csv.write(line.append('\n').toString());
+			}
+
+			ensureRoom(8);
+			buf.putInt(blockRows);
+			buf.putInt(columns.size());
+			for (int c = 0; c < columns.size(); c++) {
+				byte[] name = columns.get(c).getBytes(UTF8);
+				ensureRoom(4+name.length);
+				buf.putInt(name.length);
+				buf.put(name);
+				double[] column = values.get(c);
+				for (int r = 0; r < blockRows; r++) {
+					ensureRoom(8);
+					buf.putDouble(column[r]);
+				}
+			}
+			drain();
+		} catch (IOException e) {
+			fail(e);
+		}
+		blockRows = 0;
+	}
+
+	private static String format(double v) {
+		if (Double.isNaN(v)) return "";
+		if (v == (long)v && Math.abs(v) < 1e15) return Long.toString((long)v);
+		return Double.toString(v);
+	}
+
+	private static String quote(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+		return "\""+s.replace("\"", "\"\"")+"\"";
+	}
+
+	private void ensureRoom(int room) throws IOException {
+		if (buf.remaining() < room) drain();
+	}
+
+	private void drain() throws IOException {
+		FileChannel channel = binary.getChannel();
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	//Stops writing; the rows still reach the view
+	private void fail(IOException e) {
+		System.out.println(e.getMessage());
+		failed = true;
+		release();
+	}
+
+	private void release() {
+		try {
+			if (csv != null) csv.close();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			failed = true;
+		}
+		try {
+			if (binary != null) binary.close();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			failed = true;
+		}
+		csv = null;
+		binary = null;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * PunctaCntrRunReport.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Vector;
+
+public class PunctaCntrRunReport {
+	//Timings and counts of every stage of a batch run, written as <name>.json and <name>.csv
+	//when the run is done. A stage calls start() as it begins and end() with the markers it
+	//left; between the two, count() adds the boundary candidates it tried and the pixels it
+	//read. The counts are -1 where a stage has none to give. Allocation is what the thread
+	//running the stage allocated, -1 where the JVM cannot tell; workers the stage hands
+	//slices to, as a parallel autoDetect does, are not included.
+	//
+	//The stages take a null report when nobody asked for one, so start() takes the report
+	//as an argument and hands back a Stage that records nothing.
+	private final Vector<Stage> stages = new Vector<Stage>();
+	private final long started = System.currentTimeMillis();
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	public static class Stage {
+		private final PunctaCntrRunReport report;
+		final String stack, plugin, name;
+		final long start;
+		private final long startNanos, startAllocated;
+		final int markersIn;
+		int markersOut = -1;
+		long candidates = -1, pixels = -1;
+		long wallNanos, allocated = -1;
+		final String thread;
+
+		private Stage(PunctaCntrRunReport report, String stack, String plugin, String name, int markersIn) {
+			this.report = report;
+			this.stack = stack;
+			this.plugin = plugin;
+			this.name = name;
+			this.markersIn = markersIn;
+			thread = Thread.currentThread().getName();
+			start = System.currentTimeMillis();
+			startAllocated = (report == null) ? -1 : allocatedBytes();
+			startNanos = System.nanoTime();
+		}
+
+		//Adds to the counts, leaving out a negative one; may be called from several threads at once
+		public synchronized void count(long candidates, long pixels) {
+			if (report == null) return;
+			if (candidates >= 0) this.candidates = Math.max(this.candidates, 0)+candidates;
+			if (pixels >= 0) this.pixels = Math.max(this.pixels, 0)+pixels;
+		}
+
+		public void end(int markersOut) {
+			if (report == null) return;
+			wallNanos = System.nanoTime()-startNanos;
+			long now = allocatedBytes();
+			if (startAllocated >= 0 && now >= 0) allocated = now-startAllocated;
+			this.markersOut = markersOut;
+			report.add(this);
+		}
+	}
+
+	public static Stage start(PunctaCntrRunReport report, String stack, String plugin, String name, int markersIn) {
+		return new Stage(report, stack, plugin, name, markersIn);
+	}
+
+	//Markers in every vector of typeVector, for start() and end()
+	public static int count(Vector<PunctaCntrMarkerVector> typeVector) {
+		int n = 0;
+		for (int i = 0; i < typeVector.size(); i++) n += typeVector.get(i).size();
+		return n;
+	}
+
+	private static long allocatedBytes() {
+		try {
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)threads;
+				if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled())
+					return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		} catch (LinkageError e) {
+			//no com.sun.management on this JVM
+		} catch (UnsupportedOperationException e) {
+			//turned off while the stage ran
+		}
+		return -1;
+	}
+
+	private synchronized void add(Stage stage) {
+		stages.add(stage);
+	}
+
+	public synchronized int size() {
+		return stages.size();
+	}
+
+	//Writes <directory><name>.json and <directory><name>.csv; false if either failed
+	public synchronized boolean write(String directory, String name) {
+		return writeJSON(directory+name+".json") & writeCSV(directory+name+".csv");
+	}
+
+	private boolean writeJSON(String path) {
+		SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(path));
+			try {
+				out.write("{\n");
+				out.write("  \"started\": "+quote(iso.format(new Date(started)))+",\n");
+				out.write("  \"java\": "+quote(System.getProperty("java.version"))+",\n");
+				out.write("  \"processors\": "+Runtime.getRuntime().availableProcessors()+",\n");
+				out.write("  \"stages\": [");
+				for (int i = 0; i < stages.size(); i++) {
+					Stage s = stages.get(i);
+					out.write((i == 0) ? "\n" : ",\n");
+					out.write("    {\"stack\": "+quote(s.stack)+", \"plugin\": "+quote(s.plugin)+", \"stage\": "+quote(s.name)
+							+", \"start\": "+quote(iso.format(new Date(s.start)))+", \"wall_ms\": "+millis(s.wallNanos)
+							+", \"markers_in\": "+s.markersIn+", \"markers_out\": "+s.markersOut
+							+", \"candidates\": "+s.candidates+", \"pixels\": "+s.pixels
+							+", \"allocated_bytes\": "+s.allocated+", \"thread\": "+quote(s.thread)+"}");
+				}
+				out.write("\n  ]\n}\n");
+			} finally {
+				out.close();
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+	}
+
+	private boolean writeCSV(String path) {
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(path));
+			try {
+				out.write("stack,plugin,stage,start_ms,wall_ms,markers_in,markers_out,candidates,pixels,allocated_bytes,thread\n");
+				for (int i = 0; i < stages.size(); i++) {
+					Stage s = stages.get(i);
+					out.write(csv(s.stack)+","+s.plugin+","+csv(s.name)+","+(s.start-started)+","+millis(s.wallNanos)+","
+							+s.markersIn+","+s.markersOut+","+s.candidates+","+s.pixels+","+s.allocated+","+csv(s.thread)+"\n");
+				}
+			} finally {
+				out.close();
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.valueOf(Math.round(nanos/1000.0)/1000.0);
+	}
+
+	private static String quote(String s) {
+		StringBuilder b = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') b.append('\\').append(c);
+			else if (c < 0x20) b.append(String.format("\\u%04x", (int)c));
+			else b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	private static String csv(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+		return "\""+s.replace("\"", "\"\"")+"\"";
+	}
+}
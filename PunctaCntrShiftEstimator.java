@@ -0,0 +1,211 @@
+/*
+ * PunctaCntrShiftEstimator.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+public class PunctaCntrShiftEstimator {
+	//Estimates the shift in pixels of stack B against stack A from their markers, by letting
+	//every pair of owners (one marker per 3D punctum) in range vote for its displacement:
+	//  coarse  pairs within the search range of the starting shift vote in a grid whose bins
+	//          are one link tolerance box wide; the peak is the bin whose 3x3x3 neighbourhood
+	//          holds the most votes
+	//  fine    pairs within two bins of that peak vote again pixel by pixel; the peak is the
+	//          pixel whose link tolerance box holds the most votes, and the shift is the mean
+	//          displacement of the votes in that box
+	//Pairs are found with a k-d tree of B, so the cost grows with the markers times the pairs
+	//each finds in range rather than with the product of the two lists; the boxes are
+	//summed from a summed-volume table, one step per bin. Votes of unrelated
+	//puncta spread evenly over the grid, so the peak stands out even when only a part of
+	//the puncta are found on both days.
+	private static final int MAX_BINS = 64; //per direction, bins are widened beyond that
+	private final float scaleX, scaleY, scaleZ; //microns per pixel and per slice
+	private int votes; //votes in the peak box of the last estimate
+
+	/** Creates a new instance of PunctaCntrShiftEstimator */
+	public PunctaCntrShiftEstimator(float scaleX, float scaleY, float scaleZ) {
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		this.scaleZ = scaleZ;
+	}
+
+	public int getVotes() {
+		return votes;
+	}
+
+	//Returns {x, y, z}. start is the shift to search around, search and tol are in microns per
+	//axis. Returns start when no pair is in range
+	public int[] estimate(PunctaCntrMarkerVector a, PunctaCntrMarkerVector b, int[] start, float[] search, float[] tol) {
+		votes = 0;
+		int tx = PunctaCntrKdTree.linkRadius(scaleX, tol[0]);
+		int ty = PunctaCntrKdTree.linkRadius(scaleY, tol[1]);
+		int tz = PunctaCntrKdTree.linkRadius(scaleZ, tol[2]);
+		if (tx < 0 || ty < 0 || tz < 0 || a.size() == 0 || b.size() == 0)
+			return new int[] {start[0], start[1], start[2]};
+		int rx = Math.max(tx, PunctaCntrKdTree.linkRadius(scaleX, search[0]));
+		int ry = Math.max(ty, PunctaCntrKdTree.linkRadius(scaleY, search[1]));
+		int rz = Math.max(tz, PunctaCntrKdTree.linkRadius(scaleZ, search[2]));
+		int wx = binWidth(rx, tx);
+		int wy = binWidth(ry, ty);
+		int wz = binWidth(rz, tz);
+
+		PunctaCntrKdTree treeB = new PunctaCntrKdTree(b);
+		int[] coarse = vote(a, b, treeB, start, new int[] {rx, ry, rz}, new int[] {wx, wy, wz}, new int[] {1, 1, 1});
+		if (coarse == null) return new int[] {start[0], start[1], start[2]};
+		int[] fine = vote(a, b, treeB, coarse, new int[] {2*wx, 2*wy, 2*wz}, new int[] {1, 1, 1}, new int[] {tx, ty, tz});
+		if (fine == null) fine = coarse;
+		votes = fine[3];
+		return new int[] {fine[0], fine[1], fine[2]};
+	}
+
+	//Votes of the owner pairs displaced by center +- r, in bins w pixels wide centred on center.
+	//Returns the mean displacement of the votes in the +-h bin box that holds the most, of equal
+	//boxes the one nearest center, and the number of those votes; null if there are none
+	private int[] vote(PunctaCntrMarkerVector a, PunctaCntrMarkerVector b, PunctaCntrKdTree treeB, int[] center, int[] r, int[] w, int[] h) {
+		int kx = (r[0] + w[0]/2)/w[0]; //bins on either side of the centre bin
+		int ky = (r[1] + w[1]/2)/w[1];
+		int kz = (r[2] + w[2]/2)/w[2];
+		int nx = 2*kx+1;
+		int ny = 2*ky+1;
+		int nz = 2*kz+1;
+		int[] count = new int[nx*ny*nz];
+		long[] sumX = new long[count.length];
+		long[] sumY = new long[count.length];
+		long[] sumZ = new long[count.length];
+
+		for (int nA = 0; nA < a.size(); nA++) {
+			PunctaCntrMarker mA = a.get(nA);
+			if (!votes(mA)) continue;
+			int cx = mA.getX() + center[0];
+			int cy = mA.getY() + center[1];
+			int cz = mA.getZ() + center[2];
+			int found = treeB.query(cx - r[0], cx + r[0], cy - r[1], cy + r[1], cz - r[2], cz + r[2]);
+			for (int k = 0; k < found; k++) {
+				PunctaCntrMarker mB = b.get(treeB.getResult(k));
+				if (!votes(mB)) continue;
+				int dx = mB.getX() - cx;
+				int dy = mB.getY() - cy;
+				int dz = mB.getZ() - cz;
+				int bin = (bin(dz, w[2], kz)*ny + bin(dy, w[1], ky))*nx + bin(dx, w[0], kx);
+				count[bin]++;
+				sumX[bin] += dx;
+				sumY[bin] += dy;
+				sumZ[bin] += dz;
+			}
+		}
+
+		//Each box sum is eight lookups in the summed-volume table of count, so the search
+		//costs one step per bin whatever the size of the box
+		int[] table = summedVolume(count, nx, ny, nz);
+		int best = 0;
+		int bestX = kx, bestY = ky, bestZ = kz;
+		int bestDistance = 0;
+		for (int iz = 0; iz < nz; iz++) {
+			int z0 = Math.max(0, iz-h[2]), z1 = Math.min(nz, iz+h[2]+1);
+			for (int iy = 0; iy < ny; iy++) {
+				int y0 = Math.max(0, iy-h[1]), y1 = Math.min(ny, iy+h[1]+1);
+				for (int ix = 0; ix < nx; ix++) {
+					int x0 = Math.max(0, ix-h[0]), x1 = Math.min(nx, ix+h[0]+1);
+					int n = boxSum(table, nx, ny, x0, x1, y0, y1, z0, z1);
+					int distance = Math.abs(ix-kx) + Math.abs(iy-ky) + Math.abs(iz-kz);
+					if (n > best || (n == best && n > 0 && distance < bestDistance)) {
+						best = n;
+						bestDistance = distance;
+						bestX = ix;
+						bestY = iy;
+						bestZ = iz;
+					}
+				}
+			}
+		}
+		if (best == 0) return null;
+
+		long mx = 0, my = 0, mz = 0;
+		int boxBins = 0;
+		for (int jz = Math.max(0, bestZ-h[2]); jz <= Math.min(nz-1, bestZ+h[2]); jz++)
+			for (int jy = Math.max(0, bestY-h[1]); jy <= Math.min(ny-1, bestY+h[1]); jy++)
+				for (int jx = Math.max(0, bestX-h[0]); jx <= Math.min(nx-1, bestX+h[0]); jx++) {
+					int j = (jz*ny + jy)*nx + jx;
+					mx += sumX[j];
+					my += sumY[j];
+					mz += sumZ[j];
+					boxBins++;
+				}
+
+		//The unrelated pairs in the box pull the mean towards its middle; their share is taken
+		//as the mean count of the bins outside the box and only the rest is weighed
+		int total = 0;
+		for (int j = 0; j < count.length; j++) total += count[j];
+		double background = (count.length > boxBins) ? (double)(total - best)*boxBins/(count.length - boxBins) : 0;
+		double signal = Math.max(1, best - background);
+		int ox = (bestX - kx)*w[0]; //displacement the box is centred on
+		int oy = (bestY - ky)*w[1];
+		int oz = (bestZ - kz)*w[2];
+		return new int[] {
+			center[0] + ox + (int)Math.round((mx - (double)best*ox)/signal),
+			center[1] + oy + (int)Math.round((my - (double)best*oy)/signal),
+			center[2] + oz + (int)Math.round((mz - (double)best*oz)/signal),
+			best};
+	}
+
+	//Votes in bins [0,x) x [0,y) x [0,z) of count, at ((z*(ny+1) + y)*(nx+1) + x)
+	private static int[] summedVolume(int[] count, int nx, int ny, int nz) {
+		int sx = nx+1;
+		int sxy = sx*(ny+1);
+		int[] table = new int[sxy*(nz+1)];
+		for (int z = 1; z <= nz; z++)
+			for (int y = 1; y <= ny; y++)
+				for (int x = 1; x <= nx; x++) {
+					int i = z*sxy + y*sx + x;
+					table[i] = count[((z-1)*ny + y-1)*nx + x-1]
+						+ table[i-1] + table[i-sx] + table[i-sxy]
+						- table[i-1-sx] - table[i-1-sxy] - table[i-sx-sxy]
+						+ table[i-1-sx-sxy];
+				}
+		return table;
+	}
+
+	//Votes in bins [x0,x1) x [y0,y1) x [z0,z1)
+	private static int boxSum(int[] table, int nx, int ny, int x0, int x1, int y0, int y1, int z0, int z1) {
+		int sx = nx+1;
+		int sxy = sx*(ny+1);
+		return table[z1*sxy + y1*sx + x1] - table[z1*sxy + y1*sx + x0]
+			- table[z1*sxy + y0*sx + x1] - table[z0*sxy + y1*sx + x1]
+			+ table[z1*sxy + y0*sx + x0] + table[z0*sxy + y1*sx + x0]
+			+ table[z0*sxy + y0*sx + x1] - table[z0*sxy + y0*sx + x0];
+	}
+
+	//One vote per 3D punctum; markers that were never grouped stand for themselves
+	private static boolean votes(PunctaCntrMarker m) {
+		return m.isOwner() || m.getOwner() < 0;
+	}
+
+	//Bins are one tolerance box wide, 2*tol+1 pixels, so the displacements of true pairs fall
+	//into two neighbouring bins at most; wider when the search range would need too many
+	private static int binWidth(int radius, int tol) {
+		int width = 2*tol + 1;
+		if (radius/width > MAX_BINS) width = radius/MAX_BINS + 1;
+		return width;
+	}
+
+	//Bin of displacement d, with bin k centred on 0
+	private static int bin(int d, int width, int k) {
+		int i = (d + width/2 + k*width)/width;
+		return Math.max(0, Math.min(2*k, i));
+	}
+}
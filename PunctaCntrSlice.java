@@ -0,0 +1,185 @@
+/*
+ * PunctaCntrSlice.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.process.ImageProcessor;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public class PunctaCntrSlice {
+	//Read-only view of one slice of a stack. The pixel arrays are the ones
+	//backing the stack, NOT a copy, so nothing here may ever write to them.
+	//Reads return the same values ip.crop().getPixelValue()/getPixel() did
+	//(the crop dropped any calibration table, so raw values are returned here too);
+	//out of range reads are handed to the processor so they keep whatever
+	//value the running ImageJ version returns for them.
+	private final ImageProcessor ip;
+	private final int width;
+	private final int height;
+	private final byte[] bytePixels;
+	private final short[] shortPixels;
+	private final float[] floatPixels;
+	//Boundaries restrictBoundary found on this slice, by marker: x, y, z, rad and the cutoff
+	//they were found for, then the left and right ends of each of the 2*rad+1 lines. Weak
+	//keys, so markers that were deleted drop out
+	private final Map<PunctaCntrMarker, int[]> boundaries =
+			Collections.synchronizedMap(new WeakHashMap<PunctaCntrMarker, int[]>());
+
+	/** Creates a new instance of PunctaCntrSlice */
+	public PunctaCntrSlice(ImageProcessor ip) {
+		this.ip = ip;
+		this.width = ip.getWidth();
+		this.height = ip.getHeight();
+		Object pixels = ip.getPixels();
+		this.bytePixels = (pixels instanceof byte[]) ? (byte[])pixels : null;
+		this.shortPixels = (pixels instanceof short[]) ? (short[])pixels : null;
+		this.floatPixels = (pixels instanceof float[]) ? (float[])pixels : null;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public float getPixelValue(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return ip.getPixelValue(x, y);
+		if (bytePixels != null) return bytePixels[y*width + x]&0xff;
+		if (shortPixels != null) return shortPixels[y*width + x]&0xffff;
+		if (floatPixels != null) return floatPixels[y*width + x];
+		return ip.getPixelValue(x, y);
+	}
+
+	public int getPixel(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return 0;
+		if (bytePixels != null) return bytePixels[y*width + x]&0xff;
+		if (shortPixels != null) return shortPixels[y*width + x]&0xffff;
+		if (floatPixels != null) return Float.floatToIntBits(floatPixels[y*width + x]);
+		return ip.getPixel(x, y);
+	}
+
+	//Ring sums for findBoundary's ring-ratio search around (x,y): every pixel of the
+	//(2*maxRadius+1) square adds max(v, 2*threshold) to rings_v and 1 to rings_c of
+	//its ring, floor(distance). The original getPixelValue loop added a float to the
+	//int sums; while no ring can reach 2^24 those float sums are exact, so 8 and
+	//16-bit slices whose square lies inside the image add ints read straight from
+	//the arrays instead. Anything else takes the original loop, so the result is the
+	//same bit for bit either way
+	public void accumulateRings(int x, int y, int maxRadius, int threshold, int[] rings_v, int[] rings_c) {
+		int[] ringOf = getRingTable(maxRadius);
+		int wid = 2*maxRadius+1;
+		int floor = 2*threshold;
+		boolean inside = x-maxRadius >= 0 && x+maxRadius < width && y-maxRadius >= 0 && y+maxRadius < height;
+		int pixelMax = (bytePixels != null) ? 255 : 65535;
+		boolean exact = (long)ringOf[ringOf.length-1]*Math.max(pixelMax, Math.max(floor, 0)) < (1<<24);
+		int k = 0;
+		if (inside && exact && bytePixels != null) {
+			int col = (y-maxRadius)*width + x-maxRadius;
+			for (int i = 0; i < wid; i++, col++)
+			for (int j = 0, index = col; j < wid; j++, index += width) {
+				int v = bytePixels[index]&0xff;
+				int ring = ringOf[k++];
+				rings_v[ring] += (v > floor) ? v : floor;
+				rings_c[ring] ++;
+			}
+		} else if (inside && exact && shortPixels != null) {
+			int col = (y-maxRadius)*width + x-maxRadius;
+			for (int i = 0; i < wid; i++, col++)
+			for (int j = 0, index = col; j < wid; j++, index += width) {
+				int v = shortPixels[index]&0xffff;
+				int ring = ringOf[k++];
+				rings_v[ring] += (v > floor) ? v : floor;
+				rings_c[ring] ++;
+			}
+		} else {
+			float v;
+			for (int i = -maxRadius; i <= maxRadius; i++)
+			for (int j = -maxRadius; j <= maxRadius; j++) {
+				v = getPixelValue(x+i,y+j);
+				int ring = ringOf[k++];
+				if (v > 2*threshold) rings_v[ring] += v;
+				else rings_v[ring] += 2*threshold;
+				rings_c[ring] ++;
+			}
+		}
+	}
+
+	//Copies the boundary restrictBoundary found for m into endpts; false if there is none for
+	//m as it is now, i.e. it was never found, the marker moved or changed size, or the cutoff
+	//(ArbitraryLocalBoundaryCutoff or the background under it) is not the same any more
+	public boolean getBoundary(PunctaCntrMarker m, int cutoff, int[][] endpts) {
+		int[] b = boundaries.get(m);
+		int rad = m.getRad();
+		if (b == null || b[0] != m.getX() || b[1] != m.getY() || b[2] != m.getZ() || b[3] != rad || b[4] != cutoff)
+			return false;
+		for (int j = 0, k = 5; j < 2*rad+1; j++, k += 2) {
+			endpts[j][0] = b[k];
+			endpts[j][1] = b[k+1];
+		}
+		return true;
+	}
+
+	public void putBoundary(PunctaCntrMarker m, int cutoff, int[][] endpts) {
+		int rad = m.getRad();
+		int[] b = new int[5+2*(2*rad+1)];
+		b[0] = m.getX();
+		b[1] = m.getY();
+		b[2] = m.getZ();
+		b[3] = rad;
+		b[4] = cutoff;
+		for (int j = 0, k = 5; j < 2*rad+1; j++, k += 2) {
+			b[k] = endpts[j][0];
+			b[k+1] = endpts[j][1];
+		}
+		boundaries.put(m, b);
+	}
+
+	private static Hashtable<Integer, int[]> ringTables = new Hashtable<Integer, int[]>();
+
+	//Ring of each offset of the square, i outer and j inner as in findBoundary;
+	//the extra last entry is the largest number of pixels in any one ring
+	private static int[] getRingTable(int maxRadius) {
+		int[] ringOf = ringTables.get(maxRadius);
+		if (ringOf == null) {
+			int size = (2*maxRadius+1)*(2*maxRadius+1);
+			ringOf = new int[size+1];
+			int[] count = new int[size];
+			int k = 0;
+			float d2;
+			for (int i = -maxRadius; i <= maxRadius; i++)
+			for (int j = -maxRadius; j <= maxRadius; j++) {
+				d2 = i*i+j*j;
+				ringOf[k] = (int)(Math.floor(Math.sqrt(d2)));
+				count[ringOf[k]]++;
+				k++;
+			}
+			for (int r = 0; r < size; r++)
+				if (count[r] > ringOf[size]) ringOf[size] = count[r];
+			ringTables.put(maxRadius, ringOf);
+		}
+		return ringOf;
+	}
+}
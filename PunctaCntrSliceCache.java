@@ -0,0 +1,69 @@
+/*
+ * PunctaCntrSliceCache.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+public class PunctaCntrSliceCache {
+	//One cache is kept per image for the length of a run. Each slice view is
+	//made the first time it is asked for and handed out again afterwards, so
+	//findBoundary and friends no longer need ip.crop(), which copied the whole
+	//slice every time it was called.
+	private final ImagePlus img;
+	private final ImageStack stack;
+	private final PunctaCntrSlice[] slices;
+
+	/** Creates a new instance of PunctaCntrSliceCache */
+	public PunctaCntrSliceCache(ImagePlus img) {
+		this.img = img;
+		this.slices = new PunctaCntrSlice[img.getStackSize()+1]; //slices start at 1
+		this.stack = (slices.length == 2) ? null : img.getStack();
+	}
+
+	//z follows the stack convention, 1 to getStackSize()
+	public PunctaCntrSlice getSlice(int z) {
+		if (slices.length == 2) z = 1; //single image, every z is the same plane
+		if (z < 1 || z >= slices.length)
+			throw new IllegalArgumentException("Slice out of range: "+z);
+		PunctaCntrSlice s = slices[z];
+		if (s == null) {
+			//Two threads may both build the view of an empty entry; they are
+			//identical so it does not matter which one is kept
+			if (slices.length == 2)
+				s = new PunctaCntrSlice(img.getProcessor());
+			else
+				s = new PunctaCntrSlice(stack.getProcessor(z));
+			slices[z] = s;
+		}
+		return s;
+	}
+
+	//True while the image still holds the stack this cache was built from
+	public boolean isFor(ImagePlus img) {
+		if (img != this.img) return false;
+		if (slices.length == 2) return img.getStackSize() == 1;
+		return img.getStack() == stack;
+	}
+
+	public ImagePlus getImage() {
+		return img;
+	}
+}
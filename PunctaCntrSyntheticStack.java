@@ -0,0 +1,249 @@
+/*
+ * PunctaCntrSyntheticStack.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.File;
+import java.util.Random;
+import java.util.Vector;
+
+public class PunctaCntrSyntheticStack {
+	//Stacks of made-up puncta whose true positions are known, for timing and checking the
+	//plugins without real images. Puncta are 2D Gaussians of the given radius, the same on
+	//every slice they span, over a flat background with Gaussian noise; snr is the peak of
+	//a punctum over the noise. Cell bodies are bright spheres puncta are kept out of, as
+	//findSignalLevel looks for them (grid squares 90% at 100 or more). The plugins take a
+	//stack to be 200 microns wide with 1 micron slices, and the default sizes follow that.
+	//
+	//The puncta are placed once; every stack made from them is one day, rigidly shifted by
+	//dx, dy, dz, with noise of its own. getGroundTruth gives a day's puncta as the grouping
+	//step leaves them: a marker per slice, the first slice's marker owning the rest, and the
+	//punctum's number, the same on every day, as group number.
+	//
+	//  java -cp ij.jar:plugins PunctaCntrSyntheticStack [-dir folder] [-name synth] [-size 1024] [-slices 40] [-density 4] [-radius r] [-zextent 2-4] [-snr 30] [-background 20] [-noise 5] [-cellbodies 0] [-bits 8|16] [-days 2] [-shift dx,dy,dz] [-seed 1]
+	//writes <name>Day<n>abx.tif, each day shifted by the shift from the one before, and its
+	//ground truth as <name>Day<n>abx.tif_truth.xml in the marker file format.
+	public final int width, height, slices;
+	public double density = 4;		//puncta per 10,000 pixels of each slice
+	public double radius;			//mean radius in pixels, 1.25 microns unless set
+	public double radiusSpread = 0.2;	//radii vary by up to this fraction either way
+	public int minZExtent = 2, maxZExtent = 4; //slices a punctum spans
+	public double snr = 30;			//peak of a punctum over the noise
+	public double background = 20;
+	public double noise = 5;		//standard deviation of the background
+	public int cellBodies = 0;
+	public double cellBodyRadius;	//in pixels, 8 microns unless set
+	public double cellBodyLevel = 150; //above background
+	public int bitDepth = 8;
+	private final long seed;
+	private double[][] puncta;		//{x, y, first slice, slices, radius}
+	private double[][] bodies;		//{x, y, z, radius}
+
+	/** Creates a new instance of PunctaCntrSyntheticStack */
+	public PunctaCntrSyntheticStack(int width, int height, int slices, long seed) {
+		this.width = width;
+		this.height = height;
+		this.slices = slices;
+		this.seed = seed;
+		radius = Math.max(2, width/160.0);
+		cellBodyRadius = width/25.0;
+	}
+
+	private void place() {
+		if (puncta != null) return;
+		Random random = new Random(seed);
+		bodies = new double[cellBodies][];
+		for (int i = 0; i < cellBodies; i++)
+			bodies[i] = new double[] {random.nextDouble()*width, random.nextDouble()*height, 1+random.nextDouble()*(slices-1), cellBodyRadius*(0.75+0.5*random.nextDouble())};
+		int n = (int)Math.round(density*width*height/10000.0*slices);
+		Vector<double[]> placed = new Vector<double[]>();
+		for (int tries = 0; placed.size() < n && tries < 20*n; tries++) {
+			double r = radius*(1+radiusSpread*(2*random.nextDouble()-1));
+			int margin = (int)Math.ceil(2*r);
+			int extent = minZExtent+random.nextInt(maxZExtent-minZExtent+1);
+			double[] p = new double[] {margin+random.nextInt(Math.max(1, width-2*margin)), margin+random.nextInt(Math.max(1, height-2*margin)),
+					1+random.nextInt(Math.max(1, slices-extent+1)), extent, r};
+			if (!inCellBody(p)) placed.add(p);
+		}
+		puncta = placed.toArray(new double[placed.size()][]);
+	}
+
+	private boolean inCellBody(double[] p) {
+		for (int i = 0; i < bodies.length; i++) {
+			double[] b = bodies[i];
+			double dx = p[0]-b[0], dy = p[1]-b[1];
+			double dz = Math.max(0, Math.max(b[2]-(p[2]+p[3]-1), p[2]-b[2]))*zScale();
+			if (dx*dx+dy*dy+dz*dz < (b[3]+2*p[4])*(b[3]+2*p[4])) return true;
+		}
+		return false;
+	}
+
+	//Pixels per slice: 1 micron slices of a 200 micron wide stack
+	private double zScale() {
+		return width/200.0;
+	}
+
+	public int getPunctaCount() {
+		place();
+		return puncta.length;
+	}
+
+	//One day: the puncta and cell bodies moved by dx, dy, dz, those moved out left out
+	public ImagePlus makeStack(String title, int dx, int dy, int dz) {
+		place();
+		Random random = new Random(seed*31+title.hashCode());
+		double peak = snr*noise;
+		int max = (bitDepth == 8) ? 255 : 65535;
+		ImageStack stack = new ImageStack(width, height);
+		float[] v = new float[width*height];
+		for (int z = 1; z <= slices; z++) {
+			for (int i = 0; i < v.length; i++)
+				v[i] = (float)(background+noise*random.nextGaussian());
+			for (int k = 0; k < bodies.length; k++) {
+				double[] b = bodies[k];
+				double dzPixels = (z-dz-b[2])*zScale();
+				double r2 = b[3]*b[3]-dzPixels*dzPixels;
+				if (r2 <= 0) continue;
+				double r = Math.sqrt(r2);
+				for (int y = Math.max(0, (int)(b[1]+dy-r)); y <= Math.min(height-1, (int)(b[1]+dy+r)); y++)
+					for (int x = Math.max(0, (int)(b[0]+dx-r)); x <= Math.min(width-1, (int)(b[0]+dx+r)); x++)
+						if ((x-b[0]-dx)*(x-b[0]-dx)+(y-b[1]-dy)*(y-b[1]-dy) <= r2) v[y*width+x] += cellBodyLevel;
+			}
+			for (int k = 0; k < puncta.length; k++) {
+				double[] p = puncta[k];
+				if (z-dz < p[2] || z-dz >= p[2]+p[3]) continue;
+				double sigma = p[4]/2;
+				int r = (int)Math.ceil(3*sigma);
+				int cx = (int)p[0]+dx, cy = (int)p[1]+dy;
+				for (int y = Math.max(0, cy-r); y <= Math.min(height-1, cy+r); y++)
+					for (int x = Math.max(0, cx-r); x <= Math.min(width-1, cx+r); x++)
+						v[y*width+x] += peak*Math.exp(-((x-cx)*(x-cx)+(y-cy)*(y-cy))/(2*sigma*sigma));
+			}
+			ImageProcessor ip = (bitDepth == 8) ? new ByteProcessor(width, height) : new ShortProcessor(width, height);
+			for (int i = 0; i < v.length; i++)
+				ip.set(i, Math.max(0, Math.min(max, Math.round(v[i]))));
+			stack.addSlice(ip);
+		}
+		return new ImagePlus(title, stack);
+	}
+
+	//The puncta of the day made with the same shift, one marker per slice a punctum spans
+	//within the stack, numbered by punctum from 1
+	public Vector<PunctaCntrMarkerVector> getGroundTruth(int dx, int dy, int dz) {
+		place();
+		PunctaCntrMarkerVector markers = new PunctaCntrMarkerVector(1);
+		for (int k = 0; k < puncta.length; k++) {
+			double[] p = puncta[k];
+			int x = (int)p[0]+dx, y = (int)p[1]+dy;
+			if (x < 0 || x >= width || y < 0 || y >= height) continue;
+			int owner = -1;
+			for (int z = (int)p[2]+dz; z < (int)(p[2]+p[3])+dz; z++) {
+				if (z < 1 || z > slices) continue;
+				PunctaCntrMarker m = new PunctaCntrMarker(x, y, z, (int)Math.round(p[4]));
+				int uid = markers.addOwnerMarker(m);
+				if (owner == -1) owner = uid;
+				else m.setOwner(owner);
+				m.resultNum = k+1;
+			}
+		}
+		Vector<PunctaCntrMarkerVector> typeVector = new Vector<PunctaCntrMarkerVector>();
+		typeVector.add(markers);
+		return typeVector;
+	}
+
+	public boolean writeGroundTruth(String path, String title, int dx, int dy, int dz) {
+		return new WriteXML(path).writeXML(title, getGroundTruth(dx, dy, dz), 1, 0);
+	}
+
+	public static void main(String[] args) {
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+		String fileSeparator = System.getProperty("file.separator");
+		String directory = "."+fileSeparator;
+		String name = "synth";
+		int size = 1024, slices = 40, days = 2;
+		long seed = 1;
+		int[] shift = new int[3];
+		Vector<String[]> settings = new Vector<String[]>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].startsWith("-") || i+1 == args.length) throw new IllegalArgumentException(args[i]);
+				String option = args[i], value = args[++i];
+				if (option.equals("-dir")) directory = value.endsWith(fileSeparator) ? value : value+fileSeparator;
+				else if (option.equals("-name")) name = value;
+				else if (option.equals("-size")) size = Integer.parseInt(value);
+				else if (option.equals("-slices")) slices = Integer.parseInt(value);
+				else if (option.equals("-days")) days = Integer.parseInt(value);
+				else if (option.equals("-seed")) seed = Long.parseLong(value);
+				else if (option.equals("-shift")) {
+					String[] s = value.split(",");
+					for (int j = 0; j < 3; j++) shift[j] = (j < s.length) ? Integer.parseInt(s[j].trim()) : 0;
+				} else settings.add(new String[] {option, value});
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Usage: PunctaCntrSyntheticStack [-dir folder] [-name synth] [-size 1024] [-slices 40] [-density 4] [-radius r] [-zextent 2-4] [-snr 30] [-background 20] [-noise 5] [-cellbodies 0] [-bits 8|16] [-days 2] [-shift dx,dy,dz] [-seed 1]");
+			System.exit(2);
+		}
+		PunctaCntrSyntheticStack synth = new PunctaCntrSyntheticStack(size, size, slices, seed);
+		try {
+			for (int i = 0; i < settings.size(); i++) synth.set(settings.get(i)[0], settings.get(i)[1]);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Bad option "+e.getMessage());
+			System.exit(2);
+		}
+		new File(directory).mkdirs();
+		System.out.println("PunctaCntrSyntheticStack: "+synth.getPunctaCount()+" puncta, "+days+" days of "+size+"x"+size+"x"+slices);
+		for (int d = 1; d <= days; d++) {
+			String title = name+"Day"+d+"abx.tif";
+			int dx = (d-1)*shift[0], dy = (d-1)*shift[1], dz = (d-1)*shift[2];
+			ImagePlus img = synth.makeStack(title, dx, dy, dz);
+			IJ.saveAsTiff(img, directory+title);
+			img.flush();
+			synth.writeGroundTruth(directory+title+"_truth.xml", title, dx, dy, dz);
+			System.out.println("    "+directory+title);
+		}
+		System.exit(0);
+	}
+
+	private void set(String option, String value) {
+		try {
+			if (option.equals("-density")) density = Double.parseDouble(value);
+			else if (option.equals("-radius")) radius = Double.parseDouble(value);
+			else if (option.equals("-snr")) snr = Double.parseDouble(value);
+			else if (option.equals("-background")) background = Double.parseDouble(value);
+			else if (option.equals("-noise")) noise = Double.parseDouble(value);
+			else if (option.equals("-cellbodies")) cellBodies = Integer.parseInt(value);
+			else if (option.equals("-bits") && (value.equals("8") || value.equals("16"))) bitDepth = Integer.parseInt(value);
+			else if (option.equals("-zextent")) {
+				String[] s = value.split("-");
+				minZExtent = Integer.parseInt(s[0].trim());
+				maxZExtent = Integer.parseInt(s[s.length-1].trim());
+				if (minZExtent < 1 || maxZExtent < minZExtent) throw new IllegalArgumentException(option+" "+value);
+			} else throw new IllegalArgumentException(option+" "+value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option+" "+value);
+		}
+	}
+}
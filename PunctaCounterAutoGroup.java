@@ -41,8 +41,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.Properties;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -71,7 +79,7 @@ import java.awt.event.MouseEvent;
 import ij.measure.ResultsTable;
 import java.lang.*;
 
-public class PunctaCounterAutoGroup extends JFrame implements ActionListener, ItemListener {
+public class PunctaCounterAutoGroup implements ActionListener, ItemListener {
 
     //DEVELOPMENT NOTES
     //This program contains a few redundant or inefficient paradigms developed
@@ -153,6 +161,12 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 	 private int nextCanvasID = 1;
     
     private boolean isJava14;
+    private JFrame frame; //null when the stage runs headless
+    private boolean chained; //markers come from and go to the neighbouring stages in memory
+    private PunctaCntrCheckpointWriter checkpoints; //writes the marker file of a chained run, if set
+    private PunctaCntrRunReport report; //times the steps of a batch run, if set
+    private Vector<PunctaCntrMarkerVector> chainedInput; //typeVector of the previous stage
+    private int chainedInputType;
     
     static PunctaCounterAutoGroup instance;
 	
@@ -164,6 +178,7 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
     private boolean showNumbers = true;
 	 private boolean results_initialized = false;
 	 ResultsTable rt = ResultsTable.getResultsTable();
+	 PunctaCntrResultsWriter resultsWriter = new PunctaCntrResultsWriter(rt); //takes the rows of measureMarker3D; rt only shows them
 	 public int[] wList = null;
 	 public boolean compareMode = true;
 	 public double[] bkgrnd_avg;
@@ -191,20 +206,49 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 	public int PunctaNeighborDensityCutoff;
 	public int RemovePixels, RemoveMaxPunctaSizeinZ, RemoveDensity, RemoveZCount;
 	public int ShiftEstimateCalculated=0;
+	public boolean ParallelMeasure = true;								//Measure groups concurrently in measure(); NoteForUser: set to false to measure one group at a time
     public String fileSeparator= System.getProperty("file.separator");   
     public String myDirectory= System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator;    // NoteForUser: default direcotry is the image1 folder, but you can sepcify your own here 
 
     GenericDialog gd; 
        
     public PunctaCounterAutoGroup(){
-        super("Puncta Counter");
+        frame = new JFrame("Puncta Counter");
 
         isJava14 = IJ.isJava14(); 
         if(!isJava14){
             IJ.showMessage("You are using a pre 1.4 version of java, exporting and loading marker data is disabled");
         }
-        setResizable(false);
-        
+        frame.setResizable(false);
+        autorun(WindowManager.getCurrentImage());
+    }
+
+    //Runs the stage on img without a frame or image windows, as PunctaCounterBatch does;
+    //the marker files are read from and written to directory instead of myDirectory
+    public PunctaCounterAutoGroup(ImagePlus img, String directory){
+        isJava14 = IJ.isJava14();
+        myDirectory = directory;
+        autorun(img);
+    }
+
+    //Chained run for PunctaCounterBatch: starts from the markers the previous stage left in
+    //input instead of its XML, and keeps its own for the next one; the marker file is
+    //only written, in the background, when checkpoints is not null. A report, if any, gets
+    //the time and counts of each step, and results, if any, the measured rows instead of
+    //the results table
+    public PunctaCounterAutoGroup(ImagePlus img, Vector<PunctaCntrMarkerVector> input, int inputType, PunctaCntrCheckpointWriter checkpoints, PunctaCntrRunReport report, PunctaCntrResultsWriter results){
+        isJava14 = IJ.isJava14();
+        chained = true;
+        chainedInput = input;
+        chainedInputType = inputType;
+        this.checkpoints = checkpoints;
+        this.report = report;
+        if (results != null) resultsWriter = results;
+        if (checkpoints != null) myDirectory = checkpoints.getDirectory();
+        autorun(img);
+    }
+
+    private void autorun(ImagePlus img){
         //Autorun code starts here
         MicronsX = 200; // NoteForUser: Please indicate image size in micrometers dimension X
         MicronsY = 200; // NoteForUser: Please indicate image size in micrometers dimension Y
@@ -217,15 +261,25 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
         markerVector = new PunctaCntrMarkerVector(1);
         typeVector.add(markerVector);
         
-        initializeImage();
+        initializeImage(img);
         
         currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(0);
         String filePath = myDirectory+activeImg.getTitle()+"_2.xml";       
-        loadMarkers2(filePath);
+        if (chained)
+            loadMarkers(chainedInput, chainedInputType);
+        else
+            loadMarkers2(filePath);
+        String title = activeImg.getTitle();
+        PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, title, "autogroup", "group", PunctaCntrRunReport.count(typeVector));
         autoGroupMarker();
+        stage.end(PunctaCntrRunReport.count(typeVector));
+        stage = PunctaCntrRunReport.start(report, title, "autogroup", "measure", PunctaCntrRunReport.count(typeVector));
         measure();    
+        stage.end(PunctaCntrRunReport.count(typeVector));
         String filePath2 = myDirectory+activeImg.getTitle()+"_3.xml";
-        exportMarkers2(filePath2);
+        stage = PunctaCntrRunReport.start(report, title, "autogroup", "export", PunctaCntrRunReport.count(typeVector));
+        saveMarkers(filePath2);
+        stage.end(PunctaCntrRunReport.count(typeVector));
         //End autorun code
         
     }
@@ -247,33 +301,20 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
         dynButtonPanel.validate();
         dynTxtPanel.validate();
         statButtonPanel.validate();
-        validate();
-        pack();
+        frame.validate();
+        frame.pack();
     }
     
 //-----------------------------INITIALIZE STACK(S)  
-    private void initializeImage() {
+    private void initializeImage(ImagePlus img) {
      	if (nextCanvasID == 1) reset();
 		if (nextCanvasID == 3) {
 		  IJ.log("PunctaCounter currently supports only one or two images.");
 		  return;
 		}
-      activeImg = WindowManager.getCurrentImage();
+      activeImg = img;
       if (activeImg==null){
             IJ.noImage();
-      } else if (activeImg.getStackSize() == 1) {
-            ImageProcessor ip = activeImg.getProcessor();
-            ip.resetRoi();
-            ip = ip.crop();
-            
-      } else {
-            ImageStack stack = activeImg.getStack();
-            int size = stack.getSize();
-            for (int i = 1; i <= size; i++){
-                ImageProcessor ip = stack.getProcessor(i);
-                ip.resetRoi();
-                ip = ip.crop();
-            }  
       }
 		Overlay displayList = activeImg.getOverlay();
 		activeIC = new PunctaCntrImageCanvasAutoGroup(activeImg,this,nextCanvasID,displayList);
@@ -293,22 +334,25 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 			bkgrnd_avg = new double[img1.getStackSize()+1];
 			bkgrnd_stddev = new double[img1.getStackSize()+1];
 			//Note: May break if stackSize == 1 (?)
-	      ImageStack stack = img1.getStack();
-			ImageProcessor ip;
+			PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img1.getTitle(), "autogroup", "background", 0);
+			PunctaCntrSlice ip;
 			for (int bz = 1; bz <= img1.getStackSize(); bz++) {
-			   ip = stack.getProcessor(bz);
-			   ip.resetRoi();
-			   ip = ip.crop();
+			   ip = getSlice(img1, bz);
 				MeasureData MD = findBackgroundLevel(ip);
 				bkgrnd_avg[bz] = MD.avg;
 				bkgrnd_stddev[bz] = MD.stddev;
 			}
+			stage.count(-1, (long)PixelsX*PixelsY*img1.getStackSize());
+			stage.end(0);
 			bkgrnd_initialized = 2;
 			//End set background level block 
 			
 		} 
 		nextCanvasID++;
 		
+		if (frame == null)
+			return; //headless: the canvas is kept for its canvasID, but no window
+
 		if (activeImg.getStackSize() == 1)
 			new ImageWindow(activeImg, activeIC);
 		else
@@ -366,7 +410,17 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
         }  
 	 }
   
-    public Vector getTypeVector() {
+	 //Counterpart of loadMarkers2 for markers handed on in memory by the previous stage
+	 public void loadMarkers(Vector<PunctaCntrMarkerVector> source, int currentType){
+        for (int i = 0; i < source.size(); i++) {
+            PunctaCntrMarkerVector mv = source.get(i);
+            ReadXML.getTargetVector(typeVector, mv.getType()-1, 1).addMarkersAsLoaded(mv, 1);
+        }
+        currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(currentType);
+        setCurrentMarkerVector(currentMarkerVector);
+	 }
+
+    public Vector<PunctaCntrMarkerVector> getTypeVector() {
         return typeVector;
     } 
     
@@ -377,6 +431,20 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
       WriteXML wxml = new WriteXML(filePath2);
 		wxml.writeXML(activeImg.getTitle(), typeVector, typeVector.indexOf(currentMarkerVector), 0);
     }   
+
+    //Writes the stage's marker file: at once when the stage runs on its own, in the
+    //background when chained with a checkpoint writer, and not at all otherwise
+    private void saveMarkers(String filePath) {
+        if (!chained)
+            exportMarkers2(filePath);
+        else if (checkpoints != null)
+            checkpoints.write(filePath, activeImg.getTitle(), typeVector, getCurrentType());
+    }
+
+    //The Current_Type exportMarkers2 writes
+    public int getCurrentType() {
+        return typeVector.indexOf(currentMarkerVector);
+    }
          
     public static final int SAVE=FileDialog.SAVE, OPEN=FileDialog.LOAD;
     
@@ -415,6 +483,26 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
         this.delmode = delmode;
     }
 
+//-----------------------------SLICE PIXEL CACHE
+	//Read-only views of the slices of img1 and img2, made once per run and shared by
+	//findBoundary, restrictBoundary and the measurements instead of ip.crop() copies
+	private PunctaCntrSliceCache sliceCache1 = null;
+	private PunctaCntrSliceCache sliceCache2 = null;
+
+	private PunctaCntrSlice getSlice(int z) {
+		return getSlice(activeImg, z);
+	}
+
+	//Also the view the canvases paint from, so they share its cached boundaries
+	public PunctaCntrSlice getSlice(ImagePlus img, int z) {
+		if (img != null && img == img2) {
+			if (sliceCache2 == null || !sliceCache2.isFor(img)) sliceCache2 = new PunctaCntrSliceCache(img);
+			return sliceCache2.getSlice(z);
+		}
+		if (sliceCache1 == null || !sliceCache1.isFor(img)) sliceCache1 = new PunctaCntrSliceCache(img);
+		return sliceCache1.getSlice(z);
+	}
+
 //-----------------------------MEASURE BACKGROUND		
 	private class MeasureData {
 		private int total;
@@ -437,56 +525,34 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 		MD.stddev = Math.sqrt(MD.stddev);
 	}
 	
-	private MeasureData findBackgroundLevel(ImageProcessor ip) {
+	private MeasureData findBackgroundLevel(PunctaCntrSlice ip) {
+		return findBackgroundLevel(new PunctaCntrIntegralImage(ip));
+	}
+	
+	private MeasureData findBackgroundLevel(PunctaCntrIntegralImage sat) {
 		MeasureData MD = new MeasureData();
 		int contribs = 0;
-		int v;
 		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSize)
 		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSize) {
-			int total = 0;
 			double avg = 0;
 			double stddev = 0;
-			for (int x = 0; x < BackgroundGridSize; x++)
-			for (int y = 0; y < BackgroundGridSize; y++) {
-				v = (int)ip.getPixelValue(ii+x,jj+y);
-				total += v;
-				if (v == 0){ //one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
-			   				//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
-                PixelZero = true;
-          	}
-			}
-			
-			if (!PixelZero) {
-				avg = ((double)total)/(BackgroundGridSize*BackgroundGridSize);
-				for (int x = 0; x < BackgroundGridSize; x++)
-				for (int y = 0; y < BackgroundGridSize; y++) {
-					v = (int)ip.getPixelValue(ii+x,jj+y);
-					stddev += (v-avg) * (v-avg);
-				}
-				stddev /= BackgroundGridSize*BackgroundGridSize;
-				stddev = Math.sqrt(stddev);
+			//a grid with a pixel = 0 is left out; one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
+			//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
+			if (sat.getZeroCount(ii, jj, BackgroundGridSize, BackgroundGridSize) == 0) {
+				avg = sat.getMean(ii, jj, BackgroundGridSize, BackgroundGridSize);
+				stddev = Math.sqrt(sat.getVariance(ii, jj, BackgroundGridSize, BackgroundGridSize));
 				if (contribs == 0 || avg <= MD.avg + MD.stddev) {
 					addSample(MD, avg, stddev, contribs);
 					contribs++;
 				}
 			}
-			
-			PixelZero = false;
 		}
 		return MD;
 	}
 	
 //-----------------------------CRITERIA FOR SELECTING 2-D PUNCTA
 	private PunctaCntrMarker findBoundary(int x, int y, int z) {
-		ImageProcessor ip;
-		if (activeImg.getStackSize() == 1) {
-			ip = activeImg.getProcessor();
-		} else {
-			ImageStack stack = activeImg.getStack();
-			ip = stack.getProcessor(z);
-		}
-		ip.resetRoi();
-		ip = ip.crop();
+		PunctaCntrSlice ip = getSlice(z);
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized");
 		}
@@ -506,16 +572,8 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 			rings_v[i] = 0;
 		}
 		      
-		float v, d2;
-		for (int i = -MaxRadius; i <= MaxRadius; i++) //critical parameter - MaxRadius ensure allocation above (30s) accomodate
-		for (int j = -MaxRadius; j <= MaxRadius; j++) {
-			v = ip.getPixelValue(x+i,y+j);
-			d2 = i*i+j*j;
-			int ring = (int)(Math.floor(Math.sqrt(d2)));
-			if (v > 2*threshold) rings_v[ring] += v;
-			else rings_v[ring] += 2*threshold;
-			rings_c[ring] ++;
-		}
+		float v;
+		ip.accumulateRings(x, y, MaxRadius, threshold, rings_v, rings_c); //critical parameter - MaxRadius ensure allocation above (30s) accomodate
 		int best_rng = 0;
 		double best_rat = 0;
 		int inr_v = rings_v[0];
@@ -578,15 +636,7 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 					rings_c[i] = 0;
 					rings_v[i] = 0;
 				}
-				for (int i = -MaxRadius; i <= MaxRadius; i++)
-				for (int j = -MaxRadius; j <= MaxRadius; j++) {
-					v = ip.getPixelValue(newX+i,newY+j);
-					d2 = i*i+j*j;
-					int ring = (int)(Math.floor(Math.sqrt(d2)));
-					if (v > 2*threshold) rings_v[ring] += v;
-					else rings_v[ring] += 2*threshold;
-					rings_c[ring] ++;
-				}
+				ip.accumulateRings(newX, newY, MaxRadius, threshold, rings_v, rings_c);
 				best_rng = 0;
 				best_rat = 0;
 				inr_v = rings_v[0];
@@ -627,12 +677,18 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 	private Point point;
 	
 	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, ImageProcessor ip) {
+		restrictBoundary(m, endpts, new PunctaCntrSlice(ip));
+	}
+
+	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, PunctaCntrSlice ip) {
 		int rad = m.getRad();
 		int z = m.getZ();
 		boolean brightFound;
 		int local_cutoff = (int)(bkgrnd_avg[z] + ArbitraryLocalBoundaryCutoff*bkgrnd_stddev[z]); //critical parameter for boundary of each punctum
 		int v;
         
+		if (ip.getBoundary(m, local_cutoff, endpts)) return;
+
 		//The endpts[] array stores values from 0 to 2*rad+1; values for [0] corresponds
 		//to the line getY-rad and values at [2*rad+1] correspond to getY+rad
 		for (int j = -rad; j <= rad; j++) {
@@ -648,7 +704,7 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 				if (v <= local_cutoff) break;
 			}
          if (i < 0) endpts[j+rad][0] = i;
-			for (i = 0; m.getX()+i < activeImg.getWidth() && i <= rad; i++) {
+			for (i = 0; m.getX()+i < ip.getWidth() && i <= rad; i++) {
 				v = (int) ip.getPixel(m.getX()+i, m.getY()+j);
 				if (v <= local_cutoff) break;
 			}
@@ -668,6 +724,7 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 				&& endpts[j+rad][1] > endpts[j+1+rad][1]+2)
 				endpts[j+rad][1] = (endpts[j-1+rad][1]+endpts[j+1+rad][1])/2+2;
 		}
+		ip.putBoundary(m, local_cutoff, endpts);
 	 }
 	
 //-----------------------------MANUAL DETECT PUNCTA IN 1 OR 2 STACKS
@@ -723,2267 +780,43 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 //-----------------------------CRITERIA FOR SELECTING 3-D PUNCTA - Groups together 2D circles into a 3D sphere, removes groups where z=1 or z>MaxPunctaSizeinZ
 	public void GroupAndRemoveRedundant() {
 		PunctaCntrMarker m1;
-		PunctaCntrMarker m2;
+		//Same result as comparing each marker with every marker after it in the list, but the
+		//grid index only hands over the later markers overlapping it on its own slice and the
+		//next one. Redundant markers are collected and taken out in one pass at the end;
+		//until then they are skipped as if already gone.
+		Set<PunctaCntrMarker> redundant = Collections.newSetFromMap(new IdentityHashMap<PunctaCntrMarker, Boolean>());
 		 
 		for (int n = 0; n < currentMarkerVector.size(); n++) {
 			m1 = (PunctaCntrMarker)currentMarkerVector.get(n);
-			for (int n2 = n+1; n2 < currentMarkerVector.size(); n2++) {
-				m2 = (PunctaCntrMarker)currentMarkerVector.get(n2);
-				//deletes redundant markers
-				if (m1.getZ() == m2.getZ() && m1.canvasID != 0 && m1.canvasID == m2.canvasID) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {
-						currentMarkerVector.removeSingle(n2);
-						n2--;
-					}
-				//groups markers that are on different slices, but whos x and y coordinates fall within the its
-				//2-dimensional radius
-				} else if (m2.getZ() == m1.getZ() + 1) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {	
-							
-						m2.setOwner(m1.getOwner());
-					}					
-				}
+			if (redundant.contains(m1)) continue;
+			int order = currentMarkerVector.getListOrder(m1);
+			//deletes redundant markers
+			if (m1.canvasID != 0) {
+				for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()))
+					if (m2.canvasID == m1.canvasID && currentMarkerVector.getListOrder(m2) > order)
+						redundant.add(m2);
 			}
-		}	
+			//groups markers that are on different slices, but whos x and y coordinates fall within the its
+			//2-dimensional radius
+			for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()+1))
+				if (currentMarkerVector.getListOrder(m2) > order)
+					m2.setOwner(m1.getOwner());
+		}
+		currentMarkerVector.removeSingles(redundant);
 	}	
 		 
 	 public void autoGroupMarker() {
-   	if (PSD95orSynt == 2) {
-   		if (compareMode) {
- 	     		PunctaCntrMarkerVector startingCMV = currentMarkerVector;
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-				PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					//what happens when there are none that maintain same resultnum? 
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				}
-									
-				activeImg = img2;
-				activeIC = ic2;
-				currentMarkerVector = typeVector.get(1);
-								
-				MaxMovementXNeg = 0;
-				MaxMovementYNeg = 0;
-				MaxMovementXPos = 0;
-				MaxMovementYPos = 0;
-				currentZ = 0;
-				count = 0;
-				temp1 = 0;
-				temp2 = 0;
-				temp3 = 0;
-				temp4 = 0;
-				BestMatch = 1000;
-				BestMatch2 = 1000;
-				ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVB.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVB.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVB.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVB.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVB.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVB.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVB.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVB.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVB.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVB.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVB.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVB.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVB.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVB.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVB.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(1);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				} 	
-			} else {
-				PunctaCntrMarkerVector startingCMV = currentMarkerVector;
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				}
-			} 			
-		} else {
-			if (compareMode) {
- 	     		PunctaCntrMarkerVector startingCMV = currentMarkerVector;
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-				PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					//what happens when there are none that maintain same resultnum? 
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				}
-									
-				activeImg = img2;
-				activeIC = ic2;
-				currentMarkerVector = typeVector.get(1);
-								
-				MaxMovementXNeg = 0;
-				MaxMovementYNeg = 0;
-				MaxMovementXPos = 0;
-				MaxMovementYPos = 0;
-				currentZ = 0;
-				count = 0;
-				temp1 = 0;
-				temp2 = 0;
-				temp3 = 0;
-				temp4 = 0;
-				BestMatch = 1000;
-				BestMatch2 = 1000;
-				ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVB.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVB.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVB.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVB.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVB.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVB.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVB.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVB.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVB.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVB.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVB.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVB.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVB.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVB.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVB.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(1);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				}
-		}	else {
-				PunctaCntrMarkerVector startingCMV = currentMarkerVector;
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = PCMVA.get(n7);
-	
-									int dxm1next1 = m4.getX() - m1next.getX();
-									int dxm1next2 = m4.getX() - m1next.getX();
-									if (dxm1next1 < 0) {								
-										dxm1next1 = dxm1next1 - MaxMovementXNeg;
-										dxm1next2 = dxm1next2 + MaxMovementXPos;
-									} else {
-										dxm1next1 = dxm1next1 + MaxMovementXNeg;
-										dxm1next2 = dxm1next2 - MaxMovementXPos;
-									}
-								
-									int dym1next1 = m4.getY() - m1next.getY();
-									int dym1next2 = m4.getY() - m1next.getY();
-									if (dym1next1 < 0) {								
-										dym1next1 = dym1next1 - MaxMovementYNeg;
-										dym1next2 = dym1next2 + MaxMovementYPos;
-									} else {
-										dym1next1 = dym1next1 + MaxMovementYNeg;
-										dym1next2 = dym1next2 - MaxMovementYPos;
-									}
-									
-									if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-										dxm1next1 = dxm1next2;
-									} 
-									
-									if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-										dym1next1 = dym1next2;
-									} 
-								
-									if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-										ignore = true;
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-						
-					currentZ = m1.getZ();
-					IJ.showStatus("Processing autogroup in slice "+currentZ+"/"+activeImg.getStackSize());
-				}
-			}
-		}	
+		//PSD95 and Synt markers are grouped by the same rules, one marker list at a time; see PunctaCntrGroupSweep
+		activeImg = img1;
+		activeIC = ic1;
+		currentMarkerVector = typeVector.get(0);
+		new PunctaCntrGroupSweep(currentMarkerVector).run(activeImg.getStackSize());
+		if (compareMode) {
+			activeImg = img2;
+			activeIC = ic2;
+			currentMarkerVector = typeVector.get(1);
+			new PunctaCntrGroupSweep(currentMarkerVector).run(activeImg.getStackSize());
+		}
 	}	
 	
 	int manualGroupStep = 1;
@@ -3084,23 +917,13 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
-			}
+			measureOwners(PCMVA, activeImg);
 			
 			activeImg = img2;
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
-				if (mB.isOwner()) {
-					measureMarker3D(mB);
-				}
-			}
+			measureOwners(PCMVB, activeImg);
 			
          	relinkBasedOnResultNums();			
 			
@@ -3153,136 +976,97 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 			currentMarkerVector = typeVector.get(0);
 
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVA.size(); n++) 
-				((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker m = PCMVA.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVA.renumber(1);
 			//end of renumbering puncta following any removal
 
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
+			measureOwners(PCMVA, activeImg);
+		}
+	}
+	
+	//Measures the group of every owner in markers on img and adds their rows to the results
+	//in list order. A group only reads the stack and its own markers, so with ParallelMeasure
+	//the groups are measured side by side first and the rows added once all are done
+	private void measureOwners(final PunctaCntrMarkerVector markers, final ImagePlus img) {
+		Vector<PunctaCntrMarker> owners = new Vector<PunctaCntrMarker>();
+		for (int n = 0; n < markers.size(); n++)
+			if (markers.get(n).isOwner()) owners.add(markers.get(n));
+		PunctaCntrGroupStats[] measured = new PunctaCntrGroupStats[owners.size()];
+		
+		if (ParallelMeasure && owners.size() > 1) {
+			getSlice(img, 1); //called once here so the workers share one cache
+			Vector<Callable<PunctaCntrGroupStats>> tasks = new Vector<Callable<PunctaCntrGroupStats>>();
+			for (int n = 0; n < owners.size(); n++) {
+				final PunctaCntrMarker owner = owners.get(n);
+				tasks.add(new Callable<PunctaCntrGroupStats>() {
+					public PunctaCntrGroupStats call() {
+						return measureGroup(owner, markers, img);
+					}
+				});
 			}
+			ForkJoinPool pool = new ForkJoinPool(Math.min(owners.size(), Runtime.getRuntime().availableProcessors()));
+			try {
+				List<Future<PunctaCntrGroupStats>> results = pool.invokeAll(tasks);
+				for (int n = 0; n < owners.size(); n++)
+					measured[n] = results.get(n).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IJ.log("Measure interrupted, no results were added");
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Measure failed on a punctum", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (int n = 0; n < owners.size(); n++)
+				measured[n] = measureGroup(owners.get(n), markers, img);
 		}
+		
+		for (int n = 0; n < owners.size(); n++)
+			measureMarker3D(owners.get(n), measured[n]);
 	}
 	
-	private void measureMarker3D(PunctaCntrMarker marker) {
+	//The 2D circles of marker's group on img, one pass over the pixels of each
+	private PunctaCntrGroupStats measureGroup(PunctaCntrMarker marker, PunctaCntrMarkerVector markers, ImagePlus img) {
 		int uid = marker.getOwner();
-		PunctaCntrMarker m;
-		ListIterator it = currentMarkerVector.listIterator();
+		PunctaCntrGroupStats g = new PunctaCntrGroupStats();
+		Vector<PunctaCntrMarker> group = markers.getGroup(uid);
 		
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m = group.get(n);
+			if (m.getOwner() != uid) continue;
+			if (m.isOwner()) {
+				g.resultNum = m.resultNum;
+				g.markerImage = m.canvasID;
+			}
+			int rad = m.getRad();
+			PunctaCntrSlice ip = getSlice(img, m.getZ());
+			int[][] endpts = new int[rad*2+1][2];
+			restrictBoundary(m, endpts, ip);
+			g.add(m, PunctaCntrGroupStats.ofRegion(ip, m.getX(), m.getY(), rad, endpts));
+		}
+		return g;
+	}
+	
+	//Adds the row of marker's group, as measureGroup measured it, to the results
+	private void measureMarker3D(PunctaCntrMarker marker, PunctaCntrGroupStats g) {
 		if (!results_initialized) {
-			rt.reset();
+			resultsWriter.reset();
 			results_initialized = true;
 		}
 		
-		double group_intensity = 0;
-		int group_pixels = 0;
-		double group_stddev = 0;
-		double group_max = 0;
-		int group_x = 0;
-		int group_y = 0;
-		int group_z = 0;
-		int zCount = 0;
-		int resultNum = 0;
-		int markerImage = 0;
-		
-		while (it.hasNext()) {
-			m = (PunctaCntrMarker)it.next();
-			if (m.getOwner() == uid) {
-				if (m.isOwner()) {
-					resultNum = m.resultNum;
-					markerImage = m.canvasID;
-				}
-				int rad = m.getRad();
-				int x = m.getX();
-				int y = m.getY();
-				int z = m.getZ();
-			   	group_x += x;
-				group_y += y;
-				group_z += z;
-				zCount++;
-				ImageProcessor ip;
-				if (activeImg.getStackSize() == 1) {
-					ip = activeImg.getProcessor();
-				} else {
-					ImageStack stack = activeImg.getStack();
-					ip = stack.getProcessor(z);
-				}
-				ip.resetRoi();
-				ip = ip.crop();
-				
-				int[][] endpts = new int[rad*2+1][2];
-				restrictBoundary(m, endpts, ip);
-				double intensity = 0;
-				int pixels = 0;
-				double max = 0;
-				int d2;
-				double v;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						intensity += v;
-						if (v > max) max = v;
-						pixels++;						
-					}
-				}
-				
-				double average = intensity/pixels;
-				double stddev = 0;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						stddev += ((v-average)*(v-average));
-					}
-				}
-				
-				stddev /= pixels;
-				stddev = Math.sqrt(stddev);
-				
-				//The new stddev must be calculated BEFORE intensity and pixels are absorbed
-				if (group_pixels == 0) {
-					group_stddev = stddev;
-				} else {
-					int total_pixels = group_pixels + pixels;
-					double newaverage = (group_intensity+intensity)/(group_pixels+pixels);
-					group_stddev = ((double)pixels/(double)total_pixels)*(average*average+stddev*stddev)
-						+ ((double)group_pixels/(double)total_pixels)*(group_intensity*group_intensity/(group_pixels*group_pixels)
-						+ group_stddev*group_stddev) - newaverage*newaverage;
-					group_stddev = Math.sqrt(group_stddev);
-				}
-				
-				group_intensity += intensity;
-				group_pixels += pixels;
-				
-				if (max > group_max) group_max = max;
-			}
-		}
+		double group_intensity = g.intensity;
+		int group_pixels = g.pixels;
+		double group_stddev = g.getStddev();
+		double group_max = g.max;
+		int group_x = g.sumX;
+		int group_y = g.sumY;
+		int group_z = g.sumZ;
+		int zCount = g.zCount;
+		int resultNum = g.resultNum;
+		int markerImage = g.markerImage;
 		
-		rt.incrementCounter();
+		resultsWriter.incrementCounter();
 
 		int z = (int)(group_z/zCount);
 		double z2 = (int)(z);
@@ -3291,24 +1075,24 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
 			z2 = z + 0.5;
 		}
 		
-		rt.addValue("ID",resultNum);
-		rt.addValue("Image",markerImage);
-		rt.addValue("X", group_x/zCount);
-		rt.addValue("Y", group_y/zCount);
-		rt.addValue("Z", z2);
-		rt.addValue("Max Intensity",group_max);
-		rt.addValue("Average Intensity",group_intensity/group_pixels);
-		rt.addValue("Stddev",group_stddev);
-		rt.addValue("Volume in Pixels",group_pixels);														
-		rt.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
-		rt.addValue("Background_Avg",bkgrnd_avg[z]);
-		rt.addValue("Background_Stddev",bkgrnd_stddev[z]);		
-		rt.addValue("Number of Slices",zCount);
+		resultsWriter.addValue("ID",resultNum);
+		resultsWriter.addValue("Image",markerImage);
+		resultsWriter.addValue("X", group_x/zCount);
+		resultsWriter.addValue("Y", group_y/zCount);
+		resultsWriter.addValue("Z", z2);
+		resultsWriter.addValue("Max Intensity",group_max);
+		resultsWriter.addValue("Average Intensity",group_intensity/group_pixels);
+		resultsWriter.addValue("Stddev",group_stddev);
+		resultsWriter.addValue("Volume in Pixels",group_pixels);														
+		resultsWriter.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
+		resultsWriter.addValue("Background_Avg",bkgrnd_avg[z]);
+		resultsWriter.addValue("Background_Stddev",bkgrnd_stddev[z]);		
+		resultsWriter.addValue("Number of Slices",zCount);
 		int changeCode = 0;
 		if (marker.linkedOwner > -1) changeCode = 0;
 		else if (marker.canvasID == 1) changeCode = -1;
 		else changeCode = 1;
-      	rt.addValue("Change",changeCode);
+      	resultsWriter.addValue("Change",changeCode);
 	}
 
 	public void relinkBasedOnResultNums() {
@@ -3396,8 +1180,9 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
     public void setGroupResultNum(PunctaCntrMarker m, int newNum) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.resultNum = newNum;
 	     }
@@ -3407,8 +1192,9 @@ public class PunctaCounterAutoGroup extends JFrame implements ActionListener, It
     public void setGroupLinkedOwner(PunctaCntrMarker m, int newLO) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.linkedOwner = newLO;
 	     }
@@ -41,8 +41,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.List;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.Properties;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -71,7 +79,7 @@ import java.awt.event.MouseEvent;
 import ij.measure.ResultsTable;
 import java.lang.*;
 
-public class PunctaCounterAutodetect extends JFrame implements ActionListener, ItemListener {
+public class PunctaCounterAutodetect implements ActionListener, ItemListener {
 
     //DEVELOPMENT NOTES
     //This program contains a few redundant or inefficient paradigms developed
@@ -153,6 +161,11 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 	 private int nextCanvasID = 1;
     
     private boolean isJava14;
+    private JFrame frame; //null when the stage runs headless
+    private boolean chained; //markers come from and go to the neighbouring stages in memory
+    private PunctaCntrCheckpointWriter checkpoints; //writes the marker file of a chained run, if set
+    private PunctaCntrRunReport report; //times the steps of a batch run, if set
+    private PunctaCntrRunReport.Stage detectStage; //counts what the slice scans of autoDetect read
     
     static PunctaCounterAutodetect instance;
 	
@@ -164,6 +177,7 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
     private boolean showNumbers = true;
 	 private boolean results_initialized = false;
 	 ResultsTable rt = ResultsTable.getResultsTable();
+	 PunctaCntrResultsWriter resultsWriter = new PunctaCntrResultsWriter(rt); //takes the rows of measureMarker3D; rt only shows them
 	 public int[] wList = null;
 	 public boolean compareMode = true;
 	 public double[] bkgrnd_avg;
@@ -191,26 +205,54 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 	public int PunctaNeighborDensityCutoff;
 	public int RemovePixels, RemoveMaxPunctaSizeinZ, RemoveDensity, RemoveZCount;
 	public int ShiftEstimateCalculated=0;
+	public boolean ParallelAutoDetect;									//Scan slices concurrently in autoDetect
+	public boolean ParallelMeasure = true;								//Measure groups concurrently in measure(); NoteForUser: set to false to measure one group at a time
     public String fileSeparator= System.getProperty("file.separator");   
     public String myDirectory= System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator;    // NoteForUser: default direcotry is the image1 folder, but you can sepcify your own here 
 
     GenericDialog gd; 
        
     public PunctaCounterAutodetect(){
-        super("Puncta Counter");
+        frame = new JFrame("Puncta Counter");
 
         isJava14 = IJ.isJava14(); 
         if(!isJava14){
             IJ.showMessage("You are using a pre 1.4 version of java, exporting and loading marker data is disabled");
         }
-        setResizable(false);
-        
+        frame.setResizable(false);
+        autorun(WindowManager.getCurrentImage());
+    }
+
+    //Runs the stage on img without a frame or image windows, as PunctaCounterBatch does;
+    //the marker files are read from and written to directory instead of myDirectory
+    public PunctaCounterAutodetect(ImagePlus img, String directory){
+        isJava14 = IJ.isJava14();
+        myDirectory = directory;
+        autorun(img);
+    }
+
+    //Chained run for PunctaCounterBatch: the markers are kept in memory for the next stage,
+    //and the marker file is only written, in the background, when checkpoints is not null.
+    //A report, if any, gets the time and counts of each step, and results, if any, the
+    //measured rows instead of the results table
+    public PunctaCounterAutodetect(ImagePlus img, PunctaCntrCheckpointWriter checkpoints, PunctaCntrRunReport report, PunctaCntrResultsWriter results){
+        isJava14 = IJ.isJava14();
+        chained = true;
+        this.checkpoints = checkpoints;
+        this.report = report;
+        if (results != null) resultsWriter = results;
+        if (checkpoints != null) myDirectory = checkpoints.getDirectory();
+        autorun(img);
+    }
+
+    private void autorun(ImagePlus img){
         //Autorun code starts here
 		  MicronsX = 200;  // NoteForUser: Please indicate image size in micrometers dimension X
 		  MicronsY = 200;  // NoteForUser: Please indicate image size in micrometers dimension Y
 		  MicronsZ = 1;    // NoteForUser: Please indicate image size in micrometers dimension Z		
           MinRingRatio = 2;  // NoteForUser: Minimum intensity ratio of the detected puncta, set lower (to 1.1 instead of 2) so to detect fainter puncta
           ArbitraryLocalBoundaryCutoff = 10; // NoteForUser: Minimum intensity ratio of background noise, set lower (to 2 instead of 10) to detect fainter puncta
+          ParallelAutoDetect = true; // NoteForUser: scans slices on all available cores; set to false to scan one slice at a time
 
           //MaxPunctaSizeinZ = 10;
 		  //Shiftx = 0;
@@ -219,12 +261,16 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
         typeVector = new Vector<PunctaCntrMarkerVector>();
         markerVector = new PunctaCntrMarkerVector(1);
         typeVector.add(markerVector);
-        initializeImage();
+        initializeImage(img);
         currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(0);
         autoDetect(1); //same as autoDetectButton() for one image
+        PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, activeImg.getTitle(), "autodetect", "measure", PunctaCntrRunReport.count(typeVector));
         measure();
+        stage.end(PunctaCntrRunReport.count(typeVector));
         String filePath = myDirectory +activeImg.getTitle()+"_1.xml";
-        exportMarkers2(filePath);
+        stage = PunctaCntrRunReport.start(report, activeImg.getTitle(), "autodetect", "export", PunctaCntrRunReport.count(typeVector));
+        saveMarkers(filePath);
+        stage.end(PunctaCntrRunReport.count(typeVector));
         //End autorun code
     }
            
@@ -245,33 +291,20 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
         dynButtonPanel.validate();
         dynTxtPanel.validate();
         statButtonPanel.validate();
-        validate();
-        pack();
+        frame.validate();
+        frame.pack();
     }
     
 //-----------------------------INITIALIZE STACK(S)  
-    private void initializeImage() {
+    private void initializeImage(ImagePlus img) {
      	if (nextCanvasID == 1) reset();
 		if (nextCanvasID == 3) {
 		  IJ.log("PunctaCounter currently supports only one or two images.");
 		  return;
 		}
-      activeImg = WindowManager.getCurrentImage();
+      activeImg = img;
       if (activeImg==null){
             IJ.noImage();
-      } else if (activeImg.getStackSize() == 1) {
-            ImageProcessor ip = activeImg.getProcessor();
-            ip.resetRoi();
-            ip = ip.crop();
-            
-      } else {
-            ImageStack stack = activeImg.getStack();
-            int size = stack.getSize();
-            for (int i = 1; i <= size; i++){
-                ImageProcessor ip = stack.getProcessor(i);
-                ip.resetRoi();
-                ip = ip.crop();
-            }  
       }
 		Overlay displayList = activeImg.getOverlay();
 		activeIC = new PunctaCntrImageCanvasAutodetect(activeImg,this,nextCanvasID,displayList);
@@ -294,16 +327,16 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			bkgrnd_avg = new double[img1.getStackSize()+1];
 			bkgrnd_stddev = new double[img1.getStackSize()+1];
 			//Note: May break if stackSize == 1 (?)
-	      ImageStack stack = img1.getStack();
-			ImageProcessor ip;
+			PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img1.getTitle(), "autodetect", "background", 0);
+			PunctaCntrSlice ip;
 			for (int bz = 1; bz <= img1.getStackSize(); bz++) {
-			   ip = stack.getProcessor(bz);
-			   ip.resetRoi();
-			   ip = ip.crop();
+			   ip = getSlice(img1, bz);
 				MeasureData MD = findBackgroundLevel(ip);
 				bkgrnd_avg[bz] = MD.avg;
 				bkgrnd_stddev[bz] = MD.stddev;
 			}
+			stage.count(-1, (long)PixelsX*PixelsY*img1.getStackSize());
+			stage.end(0);
 			bkgrnd_initialized = 2;
 			//End set background level block 
 			
@@ -322,6 +355,9 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 		}
 		nextCanvasID++;
 		
+		if (frame == null)
+			return; //headless: the canvas is kept for its canvasID, but no window
+
 		if (activeImg.getStackSize() == 1)
 			new ImageWindow(activeImg, activeIC);
 		else
@@ -463,7 +499,7 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 		} 
 	 }
   
-    public Vector getTypeVector() {
+    public Vector<PunctaCntrMarkerVector> getTypeVector() {
         return typeVector;
     }
   
@@ -473,6 +509,20 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
       WriteXML wxml = new WriteXML(filePath);
 		wxml.writeXML(activeImg.getTitle(), typeVector, typeVector.indexOf(currentMarkerVector), 0);
     }    
+
+    //Writes the stage's marker file: at once when the stage runs on its own, in the
+    //background when chained with a checkpoint writer, and not at all otherwise
+    private void saveMarkers(String filePath) {
+        if (!chained)
+            exportMarkers2(filePath);
+        else if (checkpoints != null)
+            checkpoints.write(filePath, activeImg.getTitle(), typeVector, getCurrentType());
+    }
+
+    //The Current_Type exportMarkers2 writes
+    public int getCurrentType() {
+        return typeVector.indexOf(currentMarkerVector);
+    }
             
     public static final int SAVE=FileDialog.SAVE, OPEN=FileDialog.LOAD;
     
@@ -511,6 +561,26 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
         this.delmode = delmode;
     }
 
+//-----------------------------SLICE PIXEL CACHE
+	//Read-only views of the slices of img1 and img2, made once per run and shared by
+	//findBoundary, restrictBoundary and the measurements instead of ip.crop() copies
+	private PunctaCntrSliceCache sliceCache1 = null;
+	private PunctaCntrSliceCache sliceCache2 = null;
+
+	private PunctaCntrSlice getSlice(int z) {
+		return getSlice(activeImg, z);
+	}
+
+	//Also the view the canvases paint from, so they share its cached boundaries
+	public PunctaCntrSlice getSlice(ImagePlus img, int z) {
+		if (img != null && img == img2) {
+			if (sliceCache2 == null || !sliceCache2.isFor(img)) sliceCache2 = new PunctaCntrSliceCache(img);
+			return sliceCache2.getSlice(z);
+		}
+		if (sliceCache1 == null || !sliceCache1.isFor(img)) sliceCache1 = new PunctaCntrSliceCache(img);
+		return sliceCache1.getSlice(z);
+	}
+
 //-----------------------------MEASURE BACKGROUND		
 	private class MeasureData {
 		private int total;
@@ -533,56 +603,37 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 		MD.stddev = Math.sqrt(MD.stddev);
 	}
 	
-	private MeasureData findBackgroundLevel(ImageProcessor ip) {
+	private MeasureData findBackgroundLevel(PunctaCntrSlice ip) {
+		return findBackgroundLevel(new PunctaCntrIntegralImage(ip));
+	}
+	
+	private MeasureData findBackgroundLevel(PunctaCntrIntegralImage sat) {
 		MeasureData MD = new MeasureData();
 		int contribs = 0;
-		int v;
 		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSize)
 		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSize) {
-			int total = 0;
 			double avg = 0;
 			double stddev = 0;
-			for (int x = 0; x < BackgroundGridSize; x++)
-			for (int y = 0; y < BackgroundGridSize; y++) {
-				v = (int)ip.getPixelValue(ii+x,jj+y);
-				total += v;
-				if (v == 0){ //one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
-			   				//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
-                PixelZero = true;
-          	}
-			}
-			
-			if (!PixelZero) {
-				avg = ((double)total)/(BackgroundGridSize*BackgroundGridSize);
-				for (int x = 0; x < BackgroundGridSize; x++)
-				for (int y = 0; y < BackgroundGridSize; y++) {
-					v = (int)ip.getPixelValue(ii+x,jj+y);
-					stddev += (v-avg) * (v-avg);
-				}
-				stddev /= BackgroundGridSize*BackgroundGridSize;
-				stddev = Math.sqrt(stddev);
+			//a grid with a pixel = 0 is left out; one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
+			//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
+			if (sat.getZeroCount(ii, jj, BackgroundGridSize, BackgroundGridSize) == 0) {
+				avg = sat.getMean(ii, jj, BackgroundGridSize, BackgroundGridSize);
+				stddev = Math.sqrt(sat.getVariance(ii, jj, BackgroundGridSize, BackgroundGridSize));
 				if (contribs == 0 || avg <= MD.avg + MD.stddev) {
 					addSample(MD, avg, stddev, contribs);
 					contribs++;
 				}
 			}
-			
-			PixelZero = false;
 		}
 		return MD;
 	}
 	
 //-----------------------------CRITERIA FOR SELECTING 2-D PUNCTA
 	private PunctaCntrMarker findBoundary(int x, int y, int z) {
-		ImageProcessor ip;
-		if (activeImg.getStackSize() == 1) {
-			ip = activeImg.getProcessor();
-		} else {
-			ImageStack stack = activeImg.getStack();
-			ip = stack.getProcessor(z);
-		}
-		ip.resetRoi();
-		ip = ip.crop();
+		return findBoundary(getSlice(z), x, y, z);
+	}
+
+	private PunctaCntrMarker findBoundary(PunctaCntrSlice ip, int x, int y, int z) {
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized");
 		}
@@ -603,16 +654,8 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			rings_v[i] = 0;
 		}
 		      
-		float v, d2;
-		for (int i = -MaxRadius; i <= MaxRadius; i++) //critical parameter - MaxRadius ensure allocation above (30s) accomodate
-		for (int j = -MaxRadius; j <= MaxRadius; j++) {
-			v = ip.getPixelValue(x+i,y+j);
-			d2 = i*i+j*j;
-			int ring = (int)(Math.floor(Math.sqrt(d2)));
-			if (v > 2*threshold) rings_v[ring] += v;
-			else rings_v[ring] += 2*threshold;
-			rings_c[ring] ++;
-		}
+		float v;
+		ip.accumulateRings(x, y, MaxRadius, threshold, rings_v, rings_c); //critical parameter - MaxRadius ensure allocation above (30s) accomodate
 		int best_rng = 0;
 		double best_rat = 0;
 		int inr_v = rings_v[0];
@@ -675,15 +718,7 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 					rings_c[i] = 0;
 					rings_v[i] = 0;
 				}
-				for (int i = -MaxRadius; i <= MaxRadius; i++)
-				for (int j = -MaxRadius; j <= MaxRadius; j++) {
-					v = ip.getPixelValue(newX+i,newY+j);
-					d2 = i*i+j*j;
-					int ring = (int)(Math.floor(Math.sqrt(d2)));
-					if (v > 2*threshold) rings_v[ring] += v;
-					else rings_v[ring] += 2*threshold;
-					rings_c[ring] ++;
-				}
+				ip.accumulateRings(newX, newY, MaxRadius, threshold, rings_v, rings_c);
 				best_rng = 0;
 				best_rat = 0;
 				inr_v = rings_v[0];
@@ -724,12 +759,18 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 	private Point point;
 	
 	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, ImageProcessor ip) {
+		restrictBoundary(m, endpts, new PunctaCntrSlice(ip));
+	}
+
+	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, PunctaCntrSlice ip) {
 		int rad = m.getRad();
 		int z = m.getZ();
 		boolean brightFound;
 		int local_cutoff = (int)(bkgrnd_avg[z] + ArbitraryLocalBoundaryCutoff*bkgrnd_stddev[z]); //critical parameter for boundary of each punctum
 		int v;
         
+		if (ip.getBoundary(m, local_cutoff, endpts)) return;
+
 		//The endpts[] array stores values from 0 to 2*rad+1; values for [0] corresponds
 		//to the line getY-rad and values at [2*rad+1] correspond to getY+rad
 		for (int j = -rad; j <= rad; j++) {
@@ -745,7 +786,7 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 				if (v <= local_cutoff) break;
 			}
          if (i < 0) endpts[j+rad][0] = i;
-			for (i = 0; m.getX()+i < activeImg.getWidth() && i <= rad; i++) {
+			for (i = 0; m.getX()+i < ip.getWidth() && i <= rad; i++) {
 				v = (int) ip.getPixel(m.getX()+i, m.getY()+j);
 				if (v <= local_cutoff) break;
 			}
@@ -765,6 +806,7 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 				&& endpts[j+rad][1] > endpts[j+1+rad][1]+2)
 				endpts[j+rad][1] = (endpts[j-1+rad][1]+endpts[j+1+rad][1])/2+2;
 		}
+		ip.putBoundary(m, local_cutoff, endpts);
 	 }
 	 
 //-----------------------------MANUAL DETECT PUNCTA IN 1 OR 2 STACKS
@@ -827,138 +869,187 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			activeIC = ic2;
 		}
 		
-		ImageProcessor ip;
-		ImageStack stack = activeImg.getStack();
-		
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized in autoDetect");
 		}
 		
-		for (int z = 1; z <= activeImg.getStackSize(); z++) {
-			IJ.showStatus("Processing slice "+z+"/"+activeImg.getStackSize());
-			IJ.showProgress((double)z/(double)activeImg.getStackSize());
-            
-            ip = stack.getProcessor(z);
-			ip.resetRoi();
-			ip = ip.crop();	
-			
-            MeasureData MD = findBackgroundLevel(ip);
-			bkgrnd_avg[z] = MD.avg;
-			bkgrnd_stddev[z] = MD.stddev;
-			
-            bkgrnd_initialized = 2;
-			int horiz[] = new int[BackgroundGridSizeAutoDetect]; //critical parameter, BackgroundGridSize
-			int vert[] = new int[BackgroundGridSizeAutoDetect];
-			double hereavg;
-			
-			for (int jj = 0; jj < PixelsY; jj += BackgroundGridSizeAutoDetect/2) //critical PixelsX,PixelsY
-			for (int ii = 0; ii < PixelsX; ii += BackgroundGridSizeAutoDetect/2) {
-				hereavg = 0;
-				for (int j = 0; j < BackgroundGridSizeAutoDetect; j++)
-				for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
-					hereavg += (int)ip.getPixelValue(ii+i,jj+j);
-				}
-				hereavg /= BackgroundGridSizeAutoDetect*BackgroundGridSizeAutoDetect;
-				if ((hereavg - bkgrnd_avg[z]) > bkgrnd_stddev[z]) {
-					//setCurrentMarkerVector((PunctaCntrMarkerVector)typeVector.get(1));
-					//PunctaCntrMarker mIdent = new PunctaCntrMarker(ii,jj,z,-1);
-					//currentMarkerVector.addSubjectMarker(mIdent);
-					//setCurrentMarkerVector((PunctaCntrMarkerVector)typeVector.get(0));
-					//Nonbackground spot found. Locate the local brightness maxima.
-					
-					for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
-						horiz[i] = 0;
-						vert[i] = 0;
-					}
-					for (int j = 0; j < BackgroundGridSizeAutoDetect; j++)
-					for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
-						int v2 = (int)ip.getPixelValue(ii+i,jj+j);
-						horiz[i] += v2;
-						vert[j] += v2;
-					}
-					int besti = 0;
-					int bestj = 0;
-					int maxH = 0;
-					int maxV = 0;
-					for (int i = 1; i < BackgroundGridSizeAutoDetect-1; i++)
-						if (horiz[i]+horiz[i-1]+horiz[i+1] > maxH) {
-						maxH = horiz[i]+horiz[i-1]+horiz[i+1];
-						besti = i;
-					}
-					for (int j = 1; j < BackgroundGridSizeAutoDetect-1; j++)
-						if (vert[j]+vert[j-1]+vert[j+1] > maxV) {
-						maxV = vert[j]+vert[j-1]+vert[j+1];
-						bestj = j;
-					}
-					
-					//If the spot is on the far right edge it'll be captured in the next half-increment
-					if (besti < BackgroundGridSizeAutoDetect-2 && bestj < BackgroundGridSizeAutoDetect-2) {
-						PunctaCntrMarker m = findBoundary(ii+besti, jj+bestj, z);
-						if (m.getRad() > 0) {
-							currentMarkerVector.addOwnerMarker(m);
-							if (m.getRad() >= BackgroundGridSizeAutoDetect/2)
-								ii += BackgroundGridSizeAutoDetect/2;
-							m.canvasID = activeIC.canvasID;
+		final ImagePlus img = activeImg;
+		final int stackSize = img.getStackSize();
+		final int slicesDone[] = new int[1];
+		detectStage = PunctaCntrRunReport.start(report, img.getTitle(), "autodetect", "detect", currentMarkerVector.size());
+		//found.get(z-1) holds the candidates of slice z in the order the scan met them
+		Vector<Vector<PunctaCntrMarker>> found = new Vector<Vector<PunctaCntrMarker>>();
+		
+		if (ParallelAutoDetect && stackSize > 1) {
+			//Slices are independent until GroupAndRemoveRedundant, so each one is scanned
+			//by its own task; getSlice is called once here so the workers share one cache
+			getSlice(img, 1);
+			Vector<Callable<Vector<PunctaCntrMarker>>> tasks = new Vector<Callable<Vector<PunctaCntrMarker>>>();
+			for (int z = 1; z <= stackSize; z++) {
+				final int sliceZ = z;
+				tasks.add(new Callable<Vector<PunctaCntrMarker>>() {
+					public Vector<PunctaCntrMarker> call() {
+						Vector<PunctaCntrMarker> candidates = detectSlice(img, sliceZ);
+						synchronized (slicesDone) {
+							slicesDone[0]++;
+							IJ.showStatus("Processing slice "+slicesDone[0]+"/"+stackSize);
+							IJ.showProgress((double)slicesDone[0]/(double)stackSize);
 						}
+						return candidates;
 					}
-					
-					for (int i = 0; i < BackgroundGridSizeAutoDetect; i+=2)
-					for (int j = 0; j < BackgroundGridSizeAutoDetect; j+=2) {
-						continue;
-					}
-					
-					//Reclaim stack since MeasureByClick mucks with it  (?) (unsure if this is necessary)
-					ip = stack.getProcessor(z);
-					ip.resetRoi();
-					ip = ip.crop();	
-				}
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(Math.min(stackSize, Runtime.getRuntime().availableProcessors()));
+			try {
+				List<Future<Vector<PunctaCntrMarker>>> results = pool.invokeAll(tasks);
+				for (int z = 1; z <= stackSize; z++)
+					found.add(results.get(z-1).get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IJ.log("Autodetect interrupted, no puncta were added");
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Autodetect failed on a slice", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (int z = 1; z <= stackSize; z++) {
+				IJ.showStatus("Processing slice "+z+"/"+stackSize);
+				IJ.showProgress((double)z/(double)stackSize);
+				found.add(detectSlice(img, z));
+			}
+		}
+		
+		//Merge in z order so UIDs and list order are the same as a slice-by-slice scan
+		for (int z = 1; z <= stackSize; z++) {
+			Vector<PunctaCntrMarker> candidates = found.get(z-1);
+			for (int n = 0; n < candidates.size(); n++) {
+				PunctaCntrMarker m = candidates.get(n);
+				currentMarkerVector.addOwnerMarker(m);
+				m.canvasID = activeIC.canvasID;
 			}
-		} //end for z
+		}
+
+		detectStage.end(currentMarkerVector.size());
+		detectStage = null;
 
 		//Now that all the markers have been added, properly group them and remove inadequate groups where z=1 or z>4
 		//NYI: Special exclusion for multiple distinct markers falling within the radius of one large one above
 		//boolean overlap_found = false;
+		PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img.getTitle(), "autodetect", "group", currentMarkerVector.size());
 		GroupAndRemoveRedundant();
+		stage.end(currentMarkerVector.size());
 		
 		//these two lines must be commented out for automated autodetect to export xml files 
 		//activeIC.repaint();
 		//populateTxtFields();
 	 }
 
+	//Scans one slice: background estimate, then the half-overlapping windows. Only
+	//touches bkgrnd_avg[z]/bkgrnd_stddev[z] and its own candidate list, so slices
+	//can be scanned concurrently
+	private Vector<PunctaCntrMarker> detectSlice(ImagePlus img, int z) {
+		PunctaCntrSlice ip = getSlice(img, z);
+		PunctaCntrIntegralImage sat = new PunctaCntrIntegralImage(ip); //serves both the background grid and the window scan
+		Vector<PunctaCntrMarker> candidates = new Vector<PunctaCntrMarker>();
+		
+		MeasureData MD = findBackgroundLevel(sat);
+		bkgrnd_avg[z] = MD.avg;
+		bkgrnd_stddev[z] = MD.stddev;
+		long tried = 0;
+		long pixels = (long)PixelsX*PixelsY; //the integral image
+		
+		bkgrnd_initialized = 2;
+		int horiz[] = new int[BackgroundGridSizeAutoDetect]; //critical parameter, BackgroundGridSize
+		int vert[] = new int[BackgroundGridSizeAutoDetect];
+		double hereavg;
+		
+		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSizeAutoDetect/2) //critical PixelsX,PixelsY
+		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSizeAutoDetect/2) {
+			hereavg = sat.getMean(ii, jj, BackgroundGridSizeAutoDetect, BackgroundGridSizeAutoDetect);
+			if ((hereavg - bkgrnd_avg[z]) > bkgrnd_stddev[z]) {
+				//setCurrentMarkerVector((PunctaCntrMarkerVector)typeVector.get(1));
+				//PunctaCntrMarker mIdent = new PunctaCntrMarker(ii,jj,z,-1);
+				//currentMarkerVector.addSubjectMarker(mIdent);
+				//setCurrentMarkerVector((PunctaCntrMarkerVector)typeVector.get(0));
+				//Nonbackground spot found. Locate the local brightness maxima.
+				
+				for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
+					horiz[i] = 0;
+					vert[i] = 0;
+				}
+				for (int j = 0; j < BackgroundGridSizeAutoDetect; j++)
+				for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
+					int v2 = (int)ip.getPixelValue(ii+i,jj+j);
+					horiz[i] += v2;
+					vert[j] += v2;
+				}
+				pixels += BackgroundGridSizeAutoDetect*BackgroundGridSizeAutoDetect;
+				int besti = 0;
+				int bestj = 0;
+				int maxH = 0;
+				int maxV = 0;
+				for (int i = 1; i < BackgroundGridSizeAutoDetect-1; i++)
+					if (horiz[i]+horiz[i-1]+horiz[i+1] > maxH) {
+					maxH = horiz[i]+horiz[i-1]+horiz[i+1];
+					besti = i;
+				}
+				for (int j = 1; j < BackgroundGridSizeAutoDetect-1; j++)
+					if (vert[j]+vert[j-1]+vert[j+1] > maxV) {
+					maxV = vert[j]+vert[j-1]+vert[j+1];
+					bestj = j;
+				}
+				
+				//If the spot is on the far right edge it'll be captured in the next half-increment
+				if (besti < BackgroundGridSizeAutoDetect-2 && bestj < BackgroundGridSizeAutoDetect-2) {
+					PunctaCntrMarker m = findBoundary(ip, ii+besti, jj+bestj, z);
+					tried++;
+					pixels += (2*MaxRadius+1)*(2*MaxRadius+1); //the ring window, not counting a second one after recentring
+					if (m.getRad() > 0) {
+						candidates.add(m);
+						if (m.getRad() >= BackgroundGridSizeAutoDetect/2)
+							ii += BackgroundGridSizeAutoDetect/2;
+					}
+				}
+				
+				for (int i = 0; i < BackgroundGridSizeAutoDetect; i+=2)
+				for (int j = 0; j < BackgroundGridSizeAutoDetect; j+=2) {
+					continue;
+				}
+			}
+		}
+		PunctaCntrRunReport.Stage stage = detectStage;
+		if (stage != null) stage.count(tried, pixels);
+		return candidates;
+	}
+
 //-----------------------------CRITERIA FOR SELECTING 3-D PUNCTA - Groups together 2D circles into a 3D sphere, removes groups where z=1 or z>MaxPunctaSizeinZ
 	public void GroupAndRemoveRedundant() {
 		PunctaCntrMarker m1;
-		PunctaCntrMarker m2;
+		//Same result as comparing each marker with every marker after it in the list, but the
+		//grid index only hands over the later markers overlapping it on its own slice and the
+		//next one. Redundant markers are collected and taken out in one pass at the end;
+		//until then they are skipped as if already gone.
+		Set<PunctaCntrMarker> redundant = Collections.newSetFromMap(new IdentityHashMap<PunctaCntrMarker, Boolean>());
 		 
 		for (int n = 0; n < currentMarkerVector.size(); n++) {
 			m1 = (PunctaCntrMarker)currentMarkerVector.get(n);
-			for (int n2 = n+1; n2 < currentMarkerVector.size(); n2++) {
-				m2 = (PunctaCntrMarker)currentMarkerVector.get(n2);
-				//deletes redundant markers
-				if (m1.getZ() == m2.getZ() && m1.canvasID != 0 && m1.canvasID == m2.canvasID) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {
-						currentMarkerVector.removeSingle(n2);
-						n2--;
-					}
-				//groups markers that are on different slices, but whos x and y coordinates fall within the its
-				//2-dimensional radius
-				} else if (m2.getZ() == m1.getZ() + 1) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {	
-							
-						m2.setOwner(m1.getOwner());
-					}					
-				}
+			if (redundant.contains(m1)) continue;
+			int order = currentMarkerVector.getListOrder(m1);
+			//deletes redundant markers
+			if (m1.canvasID != 0) {
+				for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()))
+					if (m2.canvasID == m1.canvasID && currentMarkerVector.getListOrder(m2) > order)
+						redundant.add(m2);
 			}
-		}	
+			//groups markers that are on different slices, but whos x and y coordinates fall within the its
+			//2-dimensional radius
+			for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()+1))
+				if (currentMarkerVector.getListOrder(m2) > order)
+					m2.setOwner(m1.getOwner());
+		}
+		currentMarkerVector.removeSingles(redundant);
 	}	
 				
 //-----------------------------GET PUNCTA MEASUREMENTS FOR 1 OR 2 STACKS   
@@ -972,23 +1063,13 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
-			}
+			measureOwners(PCMVA, activeImg);
 			
 			activeImg = img2;
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
-				if (mB.isOwner()) {
-					measureMarker3D(mB);
-				}
-			}
+			measureOwners(PCMVB, activeImg);
 			
          	relinkBasedOnResultNums();			
 			
@@ -1041,136 +1122,97 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			currentMarkerVector = typeVector.get(0);
 
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVA.size(); n++) 
-				((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker m = PCMVA.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVA.renumber(1);
 			//end of renumbering puncta following any removal
 
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
+			measureOwners(PCMVA, activeImg);
+		}
+	}
+	
+	//Measures the group of every owner in markers on img and adds their rows to the results
+	//in list order. A group only reads the stack and its own markers, so with ParallelMeasure
+	//the groups are measured side by side first and the rows added once all are done
+	private void measureOwners(final PunctaCntrMarkerVector markers, final ImagePlus img) {
+		Vector<PunctaCntrMarker> owners = new Vector<PunctaCntrMarker>();
+		for (int n = 0; n < markers.size(); n++)
+			if (markers.get(n).isOwner()) owners.add(markers.get(n));
+		PunctaCntrGroupStats[] measured = new PunctaCntrGroupStats[owners.size()];
+		
+		if (ParallelMeasure && owners.size() > 1) {
+			getSlice(img, 1); //called once here so the workers share one cache
+			Vector<Callable<PunctaCntrGroupStats>> tasks = new Vector<Callable<PunctaCntrGroupStats>>();
+			for (int n = 0; n < owners.size(); n++) {
+				final PunctaCntrMarker owner = owners.get(n);
+				tasks.add(new Callable<PunctaCntrGroupStats>() {
+					public PunctaCntrGroupStats call() {
+						return measureGroup(owner, markers, img);
+					}
+				});
 			}
+			ForkJoinPool pool = new ForkJoinPool(Math.min(owners.size(), Runtime.getRuntime().availableProcessors()));
+			try {
+				List<Future<PunctaCntrGroupStats>> results = pool.invokeAll(tasks);
+				for (int n = 0; n < owners.size(); n++)
+					measured[n] = results.get(n).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IJ.log("Measure interrupted, no results were added");
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Measure failed on a punctum", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (int n = 0; n < owners.size(); n++)
+				measured[n] = measureGroup(owners.get(n), markers, img);
 		}
+		
+		for (int n = 0; n < owners.size(); n++)
+			measureMarker3D(owners.get(n), measured[n]);
 	}
 	
-	private void measureMarker3D(PunctaCntrMarker marker) {
+	//The 2D circles of marker's group on img, one pass over the pixels of each
+	private PunctaCntrGroupStats measureGroup(PunctaCntrMarker marker, PunctaCntrMarkerVector markers, ImagePlus img) {
 		int uid = marker.getOwner();
-		PunctaCntrMarker m;
-		ListIterator it = currentMarkerVector.listIterator();
+		PunctaCntrGroupStats g = new PunctaCntrGroupStats();
+		Vector<PunctaCntrMarker> group = markers.getGroup(uid);
 		
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m = group.get(n);
+			if (m.getOwner() != uid) continue;
+			if (m.isOwner()) {
+				g.resultNum = m.resultNum;
+				g.markerImage = m.canvasID;
+			}
+			int rad = m.getRad();
+			PunctaCntrSlice ip = getSlice(img, m.getZ());
+			int[][] endpts = new int[rad*2+1][2];
+			restrictBoundary(m, endpts, ip);
+			g.add(m, PunctaCntrGroupStats.ofRegion(ip, m.getX(), m.getY(), rad, endpts));
+		}
+		return g;
+	}
+	
+	//Adds the row of marker's group, as measureGroup measured it, to the results
+	private void measureMarker3D(PunctaCntrMarker marker, PunctaCntrGroupStats g) {
 		if (!results_initialized) {
-			rt.reset();
+			resultsWriter.reset();
 			results_initialized = true;
 		}
 		
-		double group_intensity = 0;
-		int group_pixels = 0;
-		double group_stddev = 0;
-		double group_max = 0;
-		int group_x = 0;
-		int group_y = 0;
-		int group_z = 0;
-		int zCount = 0;
-		int resultNum = 0;
-		int markerImage = 0;
-		
-		while (it.hasNext()) {
-			m = (PunctaCntrMarker)it.next();
-			if (m.getOwner() == uid) {
-				if (m.isOwner()) {
-					resultNum = m.resultNum;
-					markerImage = m.canvasID;
-				}
-				int rad = m.getRad();
-				int x = m.getX();
-				int y = m.getY();
-				int z = m.getZ();
-			   	group_x += x;
-				group_y += y;
-				group_z += z;
-				zCount++;
-				ImageProcessor ip;
-				if (activeImg.getStackSize() == 1) {
-					ip = activeImg.getProcessor();
-				} else {
-					ImageStack stack = activeImg.getStack();
-					ip = stack.getProcessor(z);
-				}
-				ip.resetRoi();
-				ip = ip.crop();
-				
-				int[][] endpts = new int[rad*2+1][2];
-				restrictBoundary(m, endpts, ip);
-				double intensity = 0;
-				int pixels = 0;
-				double max = 0;
-				int d2;
-				double v;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						intensity += v;
-						if (v > max) max = v;
-						pixels++;						
-					}
-				}
-				
-				double average = intensity/pixels;
-				double stddev = 0;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						stddev += ((v-average)*(v-average));
-					}
-				}
-				
-				stddev /= pixels;
-				stddev = Math.sqrt(stddev);
-				
-				//The new stddev must be calculated BEFORE intensity and pixels are absorbed
-				if (group_pixels == 0) {
-					group_stddev = stddev;
-				} else {
-					int total_pixels = group_pixels + pixels;
-					double newaverage = (group_intensity+intensity)/(group_pixels+pixels);
-					group_stddev = ((double)pixels/(double)total_pixels)*(average*average+stddev*stddev)
-						+ ((double)group_pixels/(double)total_pixels)*(group_intensity*group_intensity/(group_pixels*group_pixels)
-						+ group_stddev*group_stddev) - newaverage*newaverage;
-					group_stddev = Math.sqrt(group_stddev);
-				}
-				
-				group_intensity += intensity;
-				group_pixels += pixels;
-				
-				if (max > group_max) group_max = max;
-			}
-		}
+		double group_intensity = g.intensity;
+		int group_pixels = g.pixels;
+		double group_stddev = g.getStddev();
+		double group_max = g.max;
+		int group_x = g.sumX;
+		int group_y = g.sumY;
+		int group_z = g.sumZ;
+		int zCount = g.zCount;
+		int resultNum = g.resultNum;
+		int markerImage = g.markerImage;
 		
-		rt.incrementCounter();
+		resultsWriter.incrementCounter();
 
 		int z = (int)(group_z/zCount);
 		double z2 = (int)(z);
@@ -1179,24 +1221,24 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
 			z2 = z + 0.5;
 		}
 		
-		rt.addValue("ID",resultNum);
-		rt.addValue("Image",markerImage);
-		rt.addValue("X", group_x/zCount);
-		rt.addValue("Y", group_y/zCount);
-		rt.addValue("Z", z2);
-		rt.addValue("Max Intensity",group_max);
-		rt.addValue("Average Intensity",group_intensity/group_pixels);
-		rt.addValue("Stddev",group_stddev);
-		rt.addValue("Volume in Pixels",group_pixels);														
-		rt.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
-		rt.addValue("Background_Avg",bkgrnd_avg[z]);
-		rt.addValue("Background_Stddev",bkgrnd_stddev[z]);		
-		rt.addValue("Number of Slices",zCount);
+		resultsWriter.addValue("ID",resultNum);
+		resultsWriter.addValue("Image",markerImage);
+		resultsWriter.addValue("X", group_x/zCount);
+		resultsWriter.addValue("Y", group_y/zCount);
+		resultsWriter.addValue("Z", z2);
+		resultsWriter.addValue("Max Intensity",group_max);
+		resultsWriter.addValue("Average Intensity",group_intensity/group_pixels);
+		resultsWriter.addValue("Stddev",group_stddev);
+		resultsWriter.addValue("Volume in Pixels",group_pixels);														
+		resultsWriter.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
+		resultsWriter.addValue("Background_Avg",bkgrnd_avg[z]);
+		resultsWriter.addValue("Background_Stddev",bkgrnd_stddev[z]);		
+		resultsWriter.addValue("Number of Slices",zCount);
 		int changeCode = 0;
 		if (marker.linkedOwner > -1) changeCode = 0;
 		else if (marker.canvasID == 1) changeCode = -1;
 		else changeCode = 1;
-      	rt.addValue("Change",changeCode);
+      	resultsWriter.addValue("Change",changeCode);
 	}
 
 	public void relinkBasedOnResultNums() {
@@ -1284,8 +1326,9 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
     public void setGroupResultNum(PunctaCntrMarker m, int newNum) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.resultNum = newNum;
 	     }
@@ -1295,8 +1338,9 @@ public class PunctaCounterAutodetect extends JFrame implements ActionListener, I
     public void setGroupLinkedOwner(PunctaCntrMarker m, int newLO) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.linkedOwner = newLO;
 	     }
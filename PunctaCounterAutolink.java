@@ -41,11 +41,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.HashMap;
 import java.util.ListIterator;
 import java.util.Arrays;
 import java.util.Properties;
 //import.java.util.ArrayList;
 import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
@@ -77,7 +83,7 @@ import java.io.IOException;
 import ij.io.SaveDialog;
 import java.lang.*;
 
-public class PunctaCounterAutolink extends JFrame implements ActionListener, ItemListener {
+public class PunctaCounterAutolink implements ActionListener, ItemListener {
 
     //DEVELOPMENT NOTES
     //This program contains a few redundant or inefficient paradigms developed
@@ -170,6 +176,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	private int nextCanvasID = 1;
     
     private boolean isJava14;
+    private JFrame frame; //null when the stage runs headless
+    private PunctaCntrLinkDay dayA, dayB; //shared with other pairs when run by PunctaCounterLinkBatch
+    private PunctaCntrRunReport report; //times the steps of a batch run, if set
+    private long boundaryCalls, stageBoundaryCalls; //findBoundary calls so far and when the step began, for the report
     
     static PunctaCounterAutolink instance;
 	
@@ -183,7 +193,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	public boolean manualgroupmode = false;
     private boolean showNumbers = true;
 	private boolean results_initialized = false;
+	private boolean streamResults = false; //rows go to .csv and .pcr files as measured, not to rt
 	ResultsTable rt = ResultsTable.getResultsTable();
+	PunctaCntrResultsWriter resultsWriter = new PunctaCntrResultsWriter(rt); //takes the rows of measureMarker3D; rt only shows them
 	public int[] wList = null;
 	public boolean compareMode = true;
 	public boolean measureImg2 = false;
@@ -237,24 +249,74 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	public int Group_Shiftx=0, Group_Shifty=0, Group_Shiftz=0;
 	public int ximg1=0, yimg1=0, zimg1=0, ximg2=0, yimg2=0, zimg2=0;	
 	public int xLinkTol=2,yLinkTol=2, zLinkTol=2;										//Tolerance for autolinking puncta
+	public int xShiftSearch=25, yShiftSearch=25, zShiftSearch=10;					//Range in microns searched around the shift by BestShiftEstimate
 	public int xDensityTol, yDensityTol, zDensityTol;
 	public int PunctaNeighborDensityCutoff;
 	public int RemovePixels, RemoveMaxPunctaSizeinZ, RemoveDensity, RemoveZCount;
 	public int ShiftEstimateCalculated=0;
+	public boolean ParallelMeasure = true;								//Measure groups concurrently in measure(); NoteForUser: set to false to measure one group at a time
     public String fileSeparator= System.getProperty("file.separator");   
     public String myDirectory= System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator;    // NoteForUser: default direcotry is the image1 folder, but you can sepcify your own here 
 
     GenericDialog gd; 
        
     public PunctaCounterAutolink(){
-   		super("Puncta Counter");
+        frame = new JFrame("Puncta Counter");
 
         isJava14 = IJ.isJava14(); 
         if(!isJava14){
             IJ.showMessage("You are using a pre 1.4 version of java, exporting and loading marker data is disabled");
         }
-        setResizable(false);
-        
+        frame.setResizable(false);
+        autorun(WindowManager.getImage(1), WindowManager.getImage(2));
+    }
+
+    //Links imgA and imgB without a frame or image windows, as PunctaCounterBatch does;
+    //the marker files are read from and written to directory instead of myDirectory
+    public PunctaCounterAutolink(ImagePlus imgA, ImagePlus imgB, String directory){
+        this(imgA, imgB, directory, null);
+    }
+
+    //Headless run that also adds the time and counts of each step to report
+    public PunctaCounterAutolink(ImagePlus imgA, ImagePlus imgB, String directory, PunctaCntrRunReport report){
+        this(imgA, imgB, directory, report, false);
+    }
+
+    //Headless run that, with streamResults, writes the measured rows to .csv and .pcr files
+    //in the Day folder as they come instead of keeping them for the .xls and .txt reports
+    public PunctaCounterAutolink(ImagePlus imgA, ImagePlus imgB, String directory, PunctaCntrRunReport report, boolean streamResults){
+        isJava14 = IJ.isJava14();
+        myDirectory = directory;
+        this.report = report;
+        this.streamResults = streamResults;
+        autorun(imgA, imgB);
+    }
+
+    //Links two days for PunctaCounterLinkBatch, taking the markers and background tables
+    //other pairs with the same days have read or measured already. Pairs may run side by
+    //side, so each keeps its own results table instead of the one ImageJ shows.
+    public PunctaCounterAutolink(PunctaCntrLinkDay dayA, PunctaCntrLinkDay dayB, String directory){
+        this(dayA, dayB, directory, null);
+    }
+
+    public PunctaCounterAutolink(PunctaCntrLinkDay dayA, PunctaCntrLinkDay dayB, String directory, PunctaCntrRunReport report){
+        this(dayA, dayB, directory, report, false);
+    }
+
+    public PunctaCounterAutolink(PunctaCntrLinkDay dayA, PunctaCntrLinkDay dayB, String directory, PunctaCntrRunReport report, boolean streamResults){
+        isJava14 = IJ.isJava14();
+        myDirectory = directory;
+        this.dayA = dayA;
+        this.dayB = dayB;
+        this.report = report;
+        this.streamResults = streamResults;
+        rt = new ResultsTable();
+        rt.showRowNumbers(true); //as the table ImageJ shows, so the reports read the same
+        resultsWriter = new PunctaCntrResultsWriter(rt);
+        autorun(dayA.getImage(), dayB.getImage());
+    }
+
+    private void autorun(ImagePlus imgA, ImagePlus imgB){
         //Autorun code starts here
 		  MicronsX = 200; // NoteForUser: Please indicate image size in micrometers dimension X  
 		  MicronsY = 200; // NoteForUser: Please indicate image size in micrometers dimension Y
@@ -289,14 +351,14 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         typeVector.add(markerVector);
 
         //IJ.showStatus("Initializing image 1");
-        initializeImage();
+        initializeImage(imgA);
 	    int ind1 = img1.getTitle().indexOf("Day");
 	    int ind2 = img1.getTitle().indexOf('x');
 	    DayXML1S = img1.getTitle().substring(ind1+3,ind2-2);
         IJ.showStatus("image Day"+DayXML1S);
 
 
-        initializeImage();
+        initializeImage(imgB);
         int ind3 = img2.getTitle().indexOf("Day");
 	    int ind4 = img2.getTitle().indexOf('x');
 	    DayXML2S =img2.getTitle().substring(ind3+3,ind4-2);
@@ -311,15 +373,33 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	IJ.showStatus("Loading markers image Day"+DayXML2S);
         currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(1);
 	String filePath2 = myDirectory+img2.getTitle()+"_3.xml"; 
-	loadMarkers2(filePath1, filePath2);
+	if (dayA != null)
+		loadMarkers(dayA, dayB);
+	else
+		loadMarkers2(filePath1, filePath2);
 
+	String pair = img1.getTitle()+"+"+img2.getTitle();
 	IJ.showStatus("Autolink Day"+DayXML1S+"Day"+DayXML2S);
+	PunctaCntrRunReport.Stage stage = startStage(pair, "autolink");
         autolink();
+	endStage(stage);
        IJ.showStatus("Autolink2 Day"+DayXML1S+"Day"+DayXML2S);
+	stage = startStage(pair, "autolink2");
        autolink2();
+	endStage(stage);
 	IJ.showStatus("Measure Day"+DayXML1S+"Day"+DayXML2S);
+	stage = startStage(pair, "measure");
+	if (streamResults) {
+		new File(myDirectory+"Day"+DayXML1S+"Day"+DayXML2S).mkdirs();
+		resultsWriter = new PunctaCntrResultsWriter(resultsPath(), null);
+	}
+	boolean reported = false;
+	try {
         measure();  
+	endStage(stage);
         IJ.showStatus("Exporting markers Day"+DayXML1S+"Day"+DayXML2S);
+	stage = startStage(pair, "export");
+        new File(myDirectory+"Day"+DayXML1S+"Day"+DayXML2S).mkdirs();
        String filePath3 = myDirectory+"Day"+DayXML1S+"Day"+DayXML2S+fileSeparator+img1.getTitle()+"_Day"+DayXML2S+".xml";
 
        exportMarkers2(filePath3,1);
@@ -328,8 +408,28 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         exportMarkers2(filePath4,2);
         IJ.showStatus("Report Day"+DayXML1S+"Day"+DayXML2S);
         report();
+        reported = true;
+	} finally {
+		//report() closes the streamed results; a pair that fails before it leaves no
+		//open files behind, and no partial ones
+		if (streamResults && !reported) resultsWriter.discard();
+	}
+	endStage(stage);
         //End autorun code
     }
+
+    //A step of the pair for the report, one at a time; the candidates are the findBoundary
+    //calls made relinking, each reading the ring window around its point
+    private PunctaCntrRunReport.Stage startStage(String stack, String name) {
+		stageBoundaryCalls = boundaryCalls;
+		return PunctaCntrRunReport.start(report, stack, "autolink", name, PunctaCntrRunReport.count(typeVector));
+    }
+
+    private void endStage(PunctaCntrRunReport.Stage stage) {
+		long calls = boundaryCalls-stageBoundaryCalls;
+		if (calls > 0) stage.count(calls, calls*(2*MaxRadius+1)*(2*MaxRadius+1));
+		stage.end(PunctaCntrRunReport.count(typeVector));
+    }
     
     /* Show the GUI threadsafe */
     private static class GUIShower implements Runnable {
@@ -346,9 +446,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
     
 //-----------------------------CREATES PANELS FOR COUNTER AND ACTION BUTTONS
 	private void createPunctaCounterGUI(){
-        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         GridBagLayout gb = new GridBagLayout();
-        getContentPane().setLayout(gb);
+        frame.getContentPane().setLayout(gb);
         
         radioGrp = new ButtonGroup(); //to group the radiobuttons
         
@@ -387,7 +487,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         gbc.fill = GridBagConstraints.NONE;
         gbc.ipadx=5;
         gb.setConstraints(dynPanel,gbc);
-        getContentPane().add(dynPanel);
+        frame.getContentPane().add(dynPanel);
         
         dynButtonPanel.add(makeDynRadioButton(1));
         dynButtonPanel.add(makeDynRadioButton(2));
@@ -651,9 +751,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         gbc.fill = GridBagConstraints.NONE;
         gbc.ipadx=5;
         gb.setConstraints(statButtonPanel,gbc);
-        getContentPane().add(statButtonPanel);  
+        frame.getContentPane().add(statButtonPanel);  
       
-        Runnable runner = new GUIShower(this);
+        Runnable runner = new GUIShower(frame);
         EventQueue.invokeLater(runner);
     }
 
@@ -915,6 +1015,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		gd.addNumericField("X Link Distance Tolerance (microns):", xLinkTol,0);
 		gd.addNumericField("Y Link Distance Tolerance (microns):", yLinkTol,0);
 		gd.addNumericField("Z Link Distance Tolerance (microns):", zLinkTol,0);
+		gd.addNumericField("X Shift Search Range (microns):", xShiftSearch,0);
+		gd.addNumericField("Y Shift Search Range (microns):", yShiftSearch,0);
+		gd.addNumericField("Z Shift Search Range (microns):", zShiftSearch,0);
 
 		gd.showDialog();
 		
@@ -937,6 +1040,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		xLinkTol = (int)gd.getNextNumber();
 		yLinkTol = (int)gd.getNextNumber();
 		zLinkTol = (int)gd.getNextNumber();
+		xShiftSearch = (int)gd.getNextNumber();
+		yShiftSearch = (int)gd.getNextNumber();
+		zShiftSearch = (int)gd.getNextNumber();
 	}
 	
 	private void createAutolink2GUI(){ 
@@ -1012,43 +1118,32 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         dynButtonPanel.validate();
         dynTxtPanel.validate();
         statButtonPanel.validate();
-        validate();
-        pack();
+        frame.validate();
+        frame.pack();
     }
     
 //-----------------------------INITIALIZE STACK(S)      
-    private void initializeImage() {	
+    private void initializeImage() {
+        initializeImage(WindowManager.getImage(nextCanvasID));
+    }
+
+    private void initializeImage(ImagePlus img) {
      	if (nextCanvasID == 1) reset();
 		if (nextCanvasID == 3) {
 		  IJ.log("PunctaCounter currently supports only one or two images.");
 		  return;
 		}
 
-		activeImg = WindowManager.getCurrentImage();
+		activeImg = img;
       
       if (activeImg==null){
             IJ.noImage();
-      } else if (activeImg.getStackSize() == 1) {
-            ImageProcessor ip = activeImg.getProcessor();
-            ip.resetRoi();
-            ip = ip.crop();
-            
-      } else {
-            ImageStack stack = activeImg.getStack();
-            int size = stack.getSize();
-            for (int i = 1; i <= size; i++){
-                ImageProcessor ip = stack.getProcessor(i);
-                ip.resetRoi();
-                ip = ip.crop();
-            }  
       }
       
 		Overlay displayList = activeImg.getOverlay();
 		activeIC = new PunctaCntrImageCanvasAutolink(activeImg,this,nextCanvasID,displayList);
 		
 		if (nextCanvasID == 1) {
-			activeImg = WindowManager.getImage(1);
-
 			img1 = activeImg;
 			ic1 = activeIC;
 		   PixelsX = img1.getWidth();
@@ -1067,62 +1162,23 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
          if (bkgrnd_initialized != 0)
            	IJ.error("Background is already initialized in initializeImage");
            	
-         int [] picknumber;
-         picknumber = new int[PixelsImg1Z+1]; //it is +1 because array starts at zero but we have bz starting at 1          		
-			bkgrnd_avg1 = new double[PixelsImg1Z+1];
-			bkgrnd_stddev1 = new double[PixelsImg1Z+1];
-			signal_avg1 = new double[PixelsImg1Z+1];
-			signal_stddev1 = new double[PixelsImg1Z+1];	
-			signal_signal1 = new double[PixelsImg1Z+1];
-			signal_max1 = new double[PixelsImg1Z+1];	
-			signal_min1 = new double[PixelsImg1Z+1];
-			signal_median1 = new double[PixelsImg1Z+1];	
-			signal_picknumber1 = new int[PixelsImg1Z+1];	
-
-			//Note: May break if stackSize == 1 (?)
-	      ImageStack stack = img1.getStack();
-			ImageProcessor ip;
-			
-			for (int bz = 1; bz <= PixelsImg1Z; bz++) {
-				ip = stack.getProcessor(bz);
-			   	ip.resetRoi();
-			   	ip = ip.crop();
-			   	
-				MeasureData MD = findBackgroundLevel(ip);
-				bkgrnd_avg1[bz] = MD.avg;
-				bkgrnd_stddev1[bz] = MD.stddev;
-
-				MeasureData MDsignal = findSignalLevel(ip, bz, picknumber);
-				signal_picknumber1[bz] = MDsignal.picknumber;
-				signal_signal1[bz] = MDsignal.signal;
-				signal_avg1[bz] = MDsignal.avg;
-				signal_stddev1[bz] = MDsignal.stddev;
-				signal_max1[bz] = MDsignal.max;
-				signal_min1[bz] = MDsignal.min;
-				signal_median1[bz] = MDsignal.median;
-
-				/*
-				if (!results_initialized) {
-					rt.reset();
-					results_initialized = true;
+			PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img1.getTitle(), "autolink", "background", 0);
+			if (!takeBackground(dayA, 1)) {
+				boolean measured = false;
+				try {
+					measureBackground1();
+					measured = true;
+				} finally {
+					keepBackground(dayA, 1, measured);
 				}
-			
-				rt.incrementCounter();
-		
-				rt.addValue("Img1 Background Noise per Slice Average",bkgrnd_avg1[bz]);
-				rt.addValue("Img1 Background Noise per Slice Stddev",bkgrnd_stddev1[bz]);
-
-				rt.addValue("Img1 Signal per Slice Average",signal_avg1[bz]);
-				rt.addValue("Img1 ignal per Slice Stddev",signal_stddev1[bz]);	
-				*/
+				stage.count(-1, (long)PixelsX*PixelsY*PixelsImg1Z);
 			}
+			stage.end(0);
 			bkgrnd_initialized = 1;
 			//End set background level block 
 		} else {
 		   //Can compare img2.getWidth() and img2.getHeight() and produce error
 		   //if no match
-		   activeImg = WindowManager.getImage(2);
-		   
 			img2 = activeImg;
 			ic2 = activeIC;
 	   	int x2 = img2.getWidth();
@@ -1135,45 +1191,25 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		  	}
 		  	
 			compareMode = true;
-			int [] picknumber;
-         picknumber = new int[PixelsImg2Z+1]; //it is +1 because array starts at zero but we have bz starting at 1 
-			//Begin set background level block 
-			bkgrnd_avg2 = new double[PixelsImg2Z+1];
-			bkgrnd_stddev2 = new double[PixelsImg2Z+1];
-			signal_avg2 = new double[PixelsImg2Z+1];
-			signal_stddev2 = new double[PixelsImg2Z+1];	
-			signal_signal2 = new double[PixelsImg2Z+1];
-			signal_max2 = new double[PixelsImg2Z+1];	
-			signal_min2 = new double[PixelsImg2Z+1];
-			signal_median2 = new double[PixelsImg2Z+1];	
-			signal_picknumber2 = new int[PixelsImg2Z+1];			
-						
-			//Note: May break if stackSize == 1 (?)
-	      ImageStack stack = img2.getStack();
-			ImageProcessor ip;
-			for (int bz = 1; bz <= PixelsImg2Z; bz++) {
-				ip = stack.getProcessor(bz);
-			   	ip.resetRoi();
-			   	//ip = ip.crop();
-			   	
-				MeasureData MD2 = findBackgroundLevel2(ip);
-				bkgrnd_avg2[bz] = MD2.avg;
-				bkgrnd_stddev2[bz] = MD2.stddev;
-				
-				MeasureData MDsignal2 = findSignalLevel2(ip, bz, picknumber);
-				signal_picknumber2[bz] = MDsignal2.picknumber;
-				signal_signal2[bz] = MDsignal2.signal;
-				signal_avg2[bz] = MDsignal2.avg;
-				signal_stddev2[bz] = MDsignal2.stddev;
-				signal_max2[bz] = MDsignal2.max;
-				signal_min2[bz] = MDsignal2.min;
-				signal_median2[bz] = MDsignal2.median;
+			PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img2.getTitle(), "autolink", "background", 0);
+			if (!takeBackground(dayB, 2)) {
+				boolean measured = false;
+				try {
+					measureBackground2();
+					measured = true;
+				} finally {
+					keepBackground(dayB, 2, measured);
+				}
+				stage.count(-1, (long)PixelsX*PixelsY*PixelsImg2Z);
 			}
-			//End set background level block 						
+			stage.end(0);
 		}
 		
 		nextCanvasID++;
-			
+		
+		if (frame == null)
+			return; //headless: the canvas is kept for its canvasID, but no window
+
 		if (activeImg.getStackSize() == 1)
 			new ImageWindow(activeImg, activeIC);
 		else
@@ -1181,6 +1217,134 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
     
       setType("1");
     }
+
+    //Background and signal level of every slice of img1 and img2
+    private void measureBackground1() {
+		int [] picknumber;
+		picknumber = new int[PixelsImg1Z+1]; //it is +1 because array starts at zero but we have bz starting at 1          		
+		bkgrnd_avg1 = new double[PixelsImg1Z+1];
+		bkgrnd_stddev1 = new double[PixelsImg1Z+1];
+		signal_avg1 = new double[PixelsImg1Z+1];
+		signal_stddev1 = new double[PixelsImg1Z+1];	
+		signal_signal1 = new double[PixelsImg1Z+1];
+		signal_max1 = new double[PixelsImg1Z+1];	
+		signal_min1 = new double[PixelsImg1Z+1];
+		signal_median1 = new double[PixelsImg1Z+1];	
+		signal_picknumber1 = new int[PixelsImg1Z+1];	
+
+		//Note: May break if stackSize == 1 (?)
+		PunctaCntrSlice ip;
+		
+		for (int bz = 1; bz <= PixelsImg1Z; bz++) {
+			ip = getSlice(img1, bz);
+		   	
+			MeasureData MD = findBackgroundLevel(ip);
+			bkgrnd_avg1[bz] = MD.avg;
+			bkgrnd_stddev1[bz] = MD.stddev;
+
+			MeasureData MDsignal = findSignalLevel(ip, bz, picknumber);
+			signal_picknumber1[bz] = MDsignal.picknumber;
+			signal_signal1[bz] = MDsignal.signal;
+			signal_avg1[bz] = MDsignal.avg;
+			signal_stddev1[bz] = MDsignal.stddev;
+			signal_max1[bz] = MDsignal.max;
+			signal_min1[bz] = MDsignal.min;
+			signal_median1[bz] = MDsignal.median;
+
+			/*
+			if (!results_initialized) {
+				rt.reset();
+				results_initialized = true;
+			}
+		
+			rt.incrementCounter();
+		
+			rt.addValue("Img1 Background Noise per Slice Average",bkgrnd_avg1[bz]);
+			rt.addValue("Img1 Background Noise per Slice Stddev",bkgrnd_stddev1[bz]);
+
+			rt.addValue("Img1 Signal per Slice Average",signal_avg1[bz]);
+			rt.addValue("Img1 ignal per Slice Stddev",signal_stddev1[bz]);	
+			*/
+		}
+    }
+
+    private void measureBackground2() {
+		int [] picknumber;
+		picknumber = new int[PixelsImg2Z+1]; //it is +1 because array starts at zero but we have bz starting at 1 
+		bkgrnd_avg2 = new double[PixelsImg2Z+1];
+		bkgrnd_stddev2 = new double[PixelsImg2Z+1];
+		signal_avg2 = new double[PixelsImg2Z+1];
+		signal_stddev2 = new double[PixelsImg2Z+1];	
+		signal_signal2 = new double[PixelsImg2Z+1];
+		signal_max2 = new double[PixelsImg2Z+1];	
+		signal_min2 = new double[PixelsImg2Z+1];
+		signal_median2 = new double[PixelsImg2Z+1];	
+		signal_picknumber2 = new int[PixelsImg2Z+1];			
+					
+		//Note: May break if stackSize == 1 (?)
+		PunctaCntrSlice ip;
+		for (int bz = 1; bz <= PixelsImg2Z; bz++) {
+			ip = getSlice(img2, bz);
+		   	
+			MeasureData MD2 = findBackgroundLevel2(ip);
+			bkgrnd_avg2[bz] = MD2.avg;
+			bkgrnd_stddev2[bz] = MD2.stddev;
+			
+			MeasureData MDsignal2 = findSignalLevel2(ip, bz, picknumber);
+			signal_picknumber2[bz] = MDsignal2.picknumber;
+			signal_signal2[bz] = MDsignal2.signal;
+			signal_avg2[bz] = MDsignal2.avg;
+			signal_stddev2[bz] = MDsignal2.stddev;
+			signal_max2[bz] = MDsignal2.max;
+			signal_min2[bz] = MDsignal2.min;
+			signal_median2[bz] = MDsignal2.median;
+		}
+    }
+
+    //The tables of a day another pair measured already, copied into those of canvasID; false
+    //when they have to be measured here and handed to the day with keepBackground
+    private boolean takeBackground(PunctaCntrLinkDay day, int canvasID) {
+		if (day == null)
+			return false;
+		double[][] t = day.claimBackground();
+		if (t == null)
+			return false;
+		if (canvasID == 1) {
+			bkgrnd_avg1 = t[0].clone();
+			bkgrnd_stddev1 = t[1].clone();
+			signal_avg1 = t[2].clone();
+			signal_stddev1 = t[3].clone();
+			signal_signal1 = t[4].clone();
+			signal_max1 = t[5].clone();
+			signal_min1 = t[6].clone();
+			signal_median1 = t[7].clone();
+			signal_picknumber1 = day.getPicknumber().clone();
+		} else {
+			bkgrnd_avg2 = t[0].clone();
+			bkgrnd_stddev2 = t[1].clone();
+			signal_avg2 = t[2].clone();
+			signal_stddev2 = t[3].clone();
+			signal_signal2 = t[4].clone();
+			signal_max2 = t[5].clone();
+			signal_min2 = t[6].clone();
+			signal_median2 = t[7].clone();
+			signal_picknumber2 = day.getPicknumber().clone();
+		}
+		return true;
+    }
+
+    private void keepBackground(PunctaCntrLinkDay day, int canvasID, boolean measured) {
+		if (day == null)
+			return;
+		if (!measured)
+			day.setBackground(null, null); //lets the next pair try
+		else if (canvasID == 1)
+			day.setBackground(new double[][] {bkgrnd_avg1.clone(), bkgrnd_stddev1.clone(), signal_avg1.clone(), signal_stddev1.clone(),
+					signal_signal1.clone(), signal_max1.clone(), signal_min1.clone(), signal_median1.clone()}, signal_picknumber1.clone());
+		else
+			day.setBackground(new double[][] {bkgrnd_avg2.clone(), bkgrnd_stddev2.clone(), signal_avg2.clone(), signal_stddev2.clone(),
+					signal_signal2.clone(), signal_max2.clone(), signal_min2.clone(), signal_median2.clone()}, signal_picknumber2.clone());
+    }
     
     public void actionPerformed(ActionEvent event) {
         String command = event.getActionCommand();
@@ -1382,6 +1546,24 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         }
 	 }
 
+	 //As loadMarkers2 with the _3 files of both days, from the markers the days keep
+	 private void loadMarkers(PunctaCntrLinkDay a, PunctaCntrLinkDay b){
+	 		copyMarkers(a, 1);
+	 		copyMarkers(b, 2);
+	 }
+
+	 private void copyMarkers(PunctaCntrLinkDay day, int canvasID){
+	 		Vector<PunctaCntrMarkerVector> markers = day.getMarkers(myDirectory);
+	 		if (markers == null)
+	 			return;
+	 		for (int i = 0; i < markers.size(); i++) {
+	 			PunctaCntrMarkerVector mv = markers.get(i);
+	 			ReadXML.getTargetVector(typeVector, mv.getType()-1, canvasID).addMarkersAsLoaded(mv, canvasID);
+	 		}
+	 		currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(day.getCurrentType());
+	 		setCurrentMarkerVector(currentMarkerVector);
+	 }
+
     public void loadMarkers(){
       if (!compareMode) {  //This code runs when working with one image
 		  String filePath = getFilePath(new JFrame(), "Marker File For "+activeImg.getTitle(), FileDialog.LOAD);
@@ -1601,6 +1783,26 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
         this.delmode = delmode;
     }
 
+//-----------------------------SLICE PIXEL CACHE
+	//Read-only views of the slices of img1 and img2, made once per run and shared by
+	//findBoundary, restrictBoundary and the measurements instead of ip.crop() copies
+	private PunctaCntrSliceCache sliceCache1 = null;
+	private PunctaCntrSliceCache sliceCache2 = null;
+
+	private PunctaCntrSlice getSlice(int z) {
+		return getSlice(activeImg, z);
+	}
+
+	//Also the view the canvases paint from, so they share its cached boundaries
+	public PunctaCntrSlice getSlice(ImagePlus img, int z) {
+		if (img != null && img == img2) {
+			if (sliceCache2 == null || !sliceCache2.isFor(img)) sliceCache2 = new PunctaCntrSliceCache(img);
+			return sliceCache2.getSlice(z);
+		}
+		if (sliceCache1 == null || !sliceCache1.isFor(img)) sliceCache1 = new PunctaCntrSliceCache(img);
+		return sliceCache1.getSlice(z);
+	}
+
 //-----------------------------MEASURE BACKGROUND		
 	private class MeasureData {
 		private int total;
@@ -1690,37 +1892,23 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		MDsignalAroundPunctum2.stddev = Math.sqrt(MDsignalAroundPunctum2.stddev);
 	}
 	
-	private MeasureData findBackgroundLevel(ImageProcessor ip) {
+	private MeasureData findBackgroundLevel(PunctaCntrSlice ip) {
+		return findBackgroundLevel(new PunctaCntrIntegralImage(ip));
+	}
+	
+	private MeasureData findBackgroundLevel(PunctaCntrIntegralImage sat) {
 		MeasureData MD = new MeasureData();
 		int contribs = 0;
-		int v;
 		
 		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSize)
 		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSize) {
-			int total = 0;
 			double avg = 0;
 			double stddev = 0;
-			for (int x = 0; x < BackgroundGridSize; x++) 
-			for (int y = 0; y < BackgroundGridSize; y++) {
-				v = (int)ip.getPixelValue(ii+x,jj+y);
-				total += v;
-			   if (v == 0){ //one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
-			   				//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
-                PixelZero = true;
-          	}
-			}
-					
-			if (!PixelZero) {
-				avg = ((double)total)/(BackgroundGridSize*BackgroundGridSize);
-		
-				for (int x = 0; x < BackgroundGridSize; x++)
-				for (int y = 0; y < BackgroundGridSize; y++) {
-					v = (int)ip.getPixelValue(ii+x,jj+y);
-					stddev += (v-avg) * (v-avg);
-				}
-			
-				stddev /= BackgroundGridSize*BackgroundGridSize;
-				stddev = Math.sqrt(stddev);
+			//a grid with a pixel = 0 is left out; one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
+			//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
+			if (sat.getZeroCount(ii, jj, BackgroundGridSize, BackgroundGridSize) == 0) {
+				avg = sat.getMean(ii, jj, BackgroundGridSize, BackgroundGridSize);
+				stddev = Math.sqrt(sat.getVariance(ii, jj, BackgroundGridSize, BackgroundGridSize));
 			   
 			   //takes average and stdev of all grids less than or equal to first grid with the exception of grids that have a pixel = 0
 			   //is this the best way to do it?  underestimates the background noise in many cases especially in the center since the edges
@@ -1730,43 +1918,27 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					contribs++;
 				}
 			}
-			
-			PixelZero = false;
 		}
 		return MD;
 	}
 	
-	private MeasureData findBackgroundLevel2(ImageProcessor ip) {
+	private MeasureData findBackgroundLevel2(PunctaCntrSlice ip) {
+		return findBackgroundLevel2(new PunctaCntrIntegralImage(ip));
+	}
+	
+	private MeasureData findBackgroundLevel2(PunctaCntrIntegralImage sat) {
 		MeasureData MD2 = new MeasureData();
 		int contribs = 0;
-		int v;
 		
 		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSize)
 		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSize) {
-			int total = 0;
 			double avg = 0;
 			double stddev = 0;
-			for (int x = 0; x < BackgroundGridSize; x++) 
-			for (int y = 0; y < BackgroundGridSize; y++) {
-				v = (int)ip.getPixelValue(ii+x,jj+y);
-				total += v;
-			   if (v == 0){ //one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
-			   				//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
-                PixelZero = true;
-          	}
-			}
-					
-			if (!PixelZero) {
-				avg = ((double)total)/(BackgroundGridSize*BackgroundGridSize);
-		
-				for (int x = 0; x < BackgroundGridSize; x++)
-				for (int y = 0; y < BackgroundGridSize; y++) {
-					v = (int)ip.getPixelValue(ii+x,jj+y);
-					stddev += (v-avg) * (v-avg);
-				}
-			
-				stddev /= BackgroundGridSize*BackgroundGridSize;
-				stddev = Math.sqrt(stddev);
+			//a grid with a pixel = 0 is left out; one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
+			//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
+			if (sat.getZeroCount(ii, jj, BackgroundGridSize, BackgroundGridSize) == 0) {
+				avg = sat.getMean(ii, jj, BackgroundGridSize, BackgroundGridSize);
+				stddev = Math.sqrt(sat.getVariance(ii, jj, BackgroundGridSize, BackgroundGridSize));
 			   
 			   //takes average and stdev of all grids less than or equal to first grid with the exception of grids that have a pixel = 0
 			   //is this the best way to do it?  underestimates the background noise in many cases especially in the center since the edges
@@ -1776,13 +1948,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					contribs++;
 				}
 			}
-			
-			PixelZero = false;
 		}
 		return MD2;
 	}
 	
-	private MeasureData findSignalLevel(ImageProcessor ip, int z, int [] picknumber) { //finds average signal level per slices excluding cell bodies 
+	private MeasureData findSignalLevel(PunctaCntrSlice ip, int z, int [] picknumber) { //finds average signal level per slices excluding cell bodies 
 		MeasureData MDsignal = new MeasureData();
 
 		int v;
@@ -1914,7 +2084,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		return MDsignal;
 	}
 	
-	private MeasureData findSignalLevel2(ImageProcessor ip, int z, int [] picknumber2) { //finds average signal level per slices excluding cell bodies 
+	private MeasureData findSignalLevel2(PunctaCntrSlice ip, int z, int [] picknumber2) { //finds average signal level per slices excluding cell bodies 
 		MeasureData MDsignal2 = new MeasureData();
 		
 		int v;
@@ -2049,7 +2219,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		return MDsignal2;
 	}
 	
-	private MeasureData findSignalLevelAroundPunctum(ImageProcessor ip, int PunctumCenterX, int PunctumCenterY) { //finds average signal level per slices excluding cell bodies 
+	private MeasureData findSignalLevelAroundPunctum(PunctaCntrSlice ip, int PunctumCenterX, int PunctumCenterY) { //finds average signal level per slices excluding cell bodies 
 		MeasureData MDsignalAroundPunctum = new MeasureData();
 		int contribs = 0;
 		int v;
@@ -2096,7 +2266,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		return MDsignalAroundPunctum;
 	}	
 
-	private MeasureData findSignalLevelAroundPunctum2(ImageProcessor ip, int PunctumCenterX, int PunctumCenterY) { //finds average signal level per slices excluding cell bodies 
+	private MeasureData findSignalLevelAroundPunctum2(PunctaCntrSlice ip, int PunctumCenterX, int PunctumCenterY) { //finds average signal level per slices excluding cell bodies 
 		MeasureData MDsignalAroundPunctum2 = new MeasureData();
 		int contribs = 0;
 		int v;
@@ -2145,17 +2315,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	
 //-----------------------------CRITERIA FOR SELECTING 2-D PUNCTA
 	private PunctaCntrMarker findBoundary(int x, int y, int z, int canvasID) {
+	boundaryCalls++;
 	if (z <= activeImg.getStackSize()) {
 	
-		ImageProcessor ip;
-		if (activeImg.getStackSize() == 1) {
-			ip = activeImg.getProcessor();
-		} else {
-			ImageStack stack = activeImg.getStack();
-			ip = stack.getProcessor(z);
-		}
-		ip.resetRoi();
-		ip = ip.crop();
+		PunctaCntrSlice ip = getSlice(z);
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized");
 		}
@@ -2182,16 +2345,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			rings_v[i] = 0;
 		}
 		      
-		float v, d2;
-		for (int i = -MaxRadius; i <= MaxRadius; i++) //critical parameter - MaxRadius ensure allocation above (30s) accomodate
-		for (int j = -MaxRadius; j <= MaxRadius; j++) {
-			v = ip.getPixelValue(x+i,y+j);
-			d2 = i*i+j*j;
-			int ring = (int)(Math.floor(Math.sqrt(d2)));
-			if (v > 2*threshold) rings_v[ring] += v;
-			else rings_v[ring] += 2*threshold;
-			rings_c[ring] ++;
-		}
+		float v;
+		ip.accumulateRings(x, y, MaxRadius, threshold, rings_v, rings_c); //critical parameter - MaxRadius ensure allocation above (30s) accomodate
 		int best_rng = 0;
 		double best_rat = 0;
 		int inr_v = rings_v[0];
@@ -2254,15 +2409,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					rings_c[i] = 0;
 					rings_v[i] = 0;
 				}
-				for (int i = -MaxRadius; i <= MaxRadius; i++)
-				for (int j = -MaxRadius; j <= MaxRadius; j++) {
-					v = ip.getPixelValue(newX+i,newY+j);
-					d2 = i*i+j*j;
-					int ring = (int)(Math.floor(Math.sqrt(d2)));
-					if (v > 2*threshold) rings_v[ring] += v;
-					else rings_v[ring] += 2*threshold;
-					rings_c[ring] ++;
-				}
+				ip.accumulateRings(newX, newY, MaxRadius, threshold, rings_v, rings_c);
 				best_rng = 0;
 				best_rat = 0;
 				inr_v = rings_v[0];
@@ -2309,6 +2456,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 	private Point point;
 	
 	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, ImageProcessor ip) {
+		restrictBoundary(m, endpts, new PunctaCntrSlice(ip));
+	}
+
+	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, PunctaCntrSlice ip) {
 		int rad = m.getRad();
 		int z = m.getZ();
 		boolean brightFound;
@@ -2322,6 +2473,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			local_cutoff = (int)(bkgrnd_avg2[z] + ArbitraryLocalBoundaryCutoff*bkgrnd_stddev2[z]);
 		}		
 
+		if (ip.getBoundary(m, local_cutoff, endpts)) return;
+
 		//The endpts[] array stores values from 0 to 2*rad+1; values for [0] corresponds
 		//to the line getY-rad and values at [2*rad+1] correspond to getY+rad
 		for (int j = -rad; j <= rad; j++) {
@@ -2337,7 +2490,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				if (v <= local_cutoff) break;
 			}
          if (i < 0) endpts[j+rad][0] = i;
-			for (i = 0; m.getX()+i < activeImg.getWidth() && i <= rad; i++) {
+			for (i = 0; m.getX()+i < ip.getWidth() && i <= rad; i++) {
 				v = (int) ip.getPixel(m.getX()+i, m.getY()+j);
 				if (v <= local_cutoff) break;
 			}
@@ -2357,6 +2510,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				&& endpts[j+rad][1] > endpts[j+1+rad][1]+2)
 				endpts[j+rad][1] = (endpts[j-1+rad][1]+endpts[j+1+rad][1])/2+2;
 		}
+		ip.putBoundary(m, local_cutoff, endpts);
 	 }
 
 //-----------------------------MANUAL DETECT PUNCTA IN 1 OR 2 STACKS
@@ -2377,20 +2531,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		
 		int donotadd = 1;
 		
-		for (int n = 0; n < currentMarkerVector.size(); n++) {
-			PunctaCntrMarker m1 = currentMarkerVector.get(n);
-		
-			if (m1.getZ() == z) {
-				int dx = m1.getX() - m.getX();
-				int dy = m1.getY() - m.getY();
-				int r1 = m1.getRad();
-				int r2 = m.getRad();
-
-				if (dx*dx+dy*dy < r1*r1 || dx*dx+dy*dy < r2*r2) {
-					donotadd = 0;
-					IJ.log("do not add");
-				}
-			}  
+		//only markers on slice z near m can overlap it, the grid index finds those
+		for (PunctaCntrMarker m1 : currentMarkerVector.getMarkersOverlapping(m, z)) {
+			donotadd = 0;
+			IJ.log("do not add");
 		}	
 		
 		if (m.getRad() > MinRingRatio && donotadd == 1) {	//min radius applies for 1x 1024x1024 image... does it apply for others? 
@@ -2461,20 +2605,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		
 		int donotadd = 1;
 		
-		for (int n = 0; n < currentMarkerVector.size(); n++) {
-			PunctaCntrMarker m1 = currentMarkerVector.get(n);
-		
-			if (m1.getZ() == z) {
-				int dx = m1.getX() - m.getX();
-				int dy = m1.getY() - m.getY();
-				int r1 = m1.getRad();
-				int r2 = m.getRad();
-				//IJ.log("2183");
-				if (dx*dx+dy*dy < r1*r1 || dx*dx+dy*dy < r2*r2) {
-					donotadd = 0;
-					//IJ.log("do not add");
-				}
-			}  
+		//only markers on slice z near m can overlap it, the grid index finds those
+		for (PunctaCntrMarker m1 : currentMarkerVector.getMarkersOverlapping(m, z)) {
+			donotadd = 0;
+			//IJ.log("do not add");
 		}	
 		
 		if (m.getRad() > 2 && donotadd == 1) {	//min radius applies for 1x 1024x1024 image... does it apply for others? 
@@ -2555,8 +2689,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic2;
 		}
 		
-		ImageProcessor ip;
-		ImageStack stack = activeImg.getStack();
+		PunctaCntrSlice ip;
 		
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized in autoDetect");
@@ -2566,18 +2699,17 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			IJ.showStatus("Processing slice "+z+"/"+activeImg.getStackSize());
 			IJ.showProgress((double)z/(double)activeImg.getStackSize());
 			
-			ip = stack.getProcessor(z);
-			ip.resetRoi();
-			ip = ip.crop();
+			ip = getSlice(z);
+			PunctaCntrIntegralImage sat = new PunctaCntrIntegralImage(ip); //serves both the background grid and the window scan
 			
 			if (canvasID == 1) {
-				MeasureData MD = findBackgroundLevel(ip);
+				MeasureData MD = findBackgroundLevel(sat);
 				bkgrnd_avg1[z] = MD.avg;
 				bkgrnd_stddev1[z] = MD.stddev;
 				bkgrnd_avg[z] = bkgrnd_avg1[z];
 				bkgrnd_stddev[z] = bkgrnd_stddev1[z];
 			} else {
-				MeasureData MD2 = findBackgroundLevel2(ip);
+				MeasureData MD2 = findBackgroundLevel2(sat);
 				bkgrnd_avg2[z] = MD2.avg;
 				bkgrnd_stddev2[z] = MD2.stddev;
 				bkgrnd_avg[z] = bkgrnd_avg2[z];
@@ -2591,12 +2723,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			
 			for (int jj = 0; jj < PixelsY; jj += BackgroundGridSizeAutoDetect/2) //critical PixelsX,PixelsY
 			for (int ii = 0; ii < PixelsX; ii += BackgroundGridSizeAutoDetect/2) {
-				hereavg = 0;
-				for (int j = 0; j < BackgroundGridSizeAutoDetect; j++)
-				for (int i = 0; i < BackgroundGridSizeAutoDetect; i++) {
-					hereavg += (int)ip.getPixelValue(ii+i,jj+j);
-				}
-				hereavg /= BackgroundGridSizeAutoDetect*BackgroundGridSizeAutoDetect;
+				hereavg = sat.getMean(ii, jj, BackgroundGridSizeAutoDetect, BackgroundGridSizeAutoDetect);
 				if ((hereavg - bkgrnd_avg[z]) > bkgrnd_stddev[z]) {
 					//setCurrentMarkerVector((PunctaCntrMarkerVector)typeVector.get(1));
 					//PunctaCntrMarker mIdent = new PunctaCntrMarker(ii,jj,z,-1);
@@ -2644,11 +2771,6 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					for (int j = 0; j < BackgroundGridSizeAutoDetect; j+=2) {
 						continue;
 					}
-					
-					//Reclaim stack since MeasureByClick mucks with it  (?) (unsure if this is necessary)
-					ip = stack.getProcessor(z);
-					ip.resetRoi();
-					ip = ip.crop();	
 				}
 			}
 		} //end for z
@@ -2824,7 +2946,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int group_pixels = 0;
 					int zCount = 0;
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -2837,17 +2959,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							zCount++;
 							
 							if (m.getZ() > 0) {
-								ImageProcessor ip;
-					
-								if (activeImg.getStackSize() == 1) {
-									ip = activeImg.getProcessor();
-								} else {
-									ImageStack stack = activeImg.getStack();
-									ip = stack.getProcessor(z);
-								}
-					
-								ip.resetRoi();
-								ip = ip.crop();
+								PunctaCntrSlice ip = getSlice(z);
 					
 								int[][] endpts = new int[rad*2+1][2];
 								restrictBoundary(m, endpts, ip);
@@ -2899,7 +3011,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int zCount = 0;
 					int group_pixels = 0;
 					
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -2912,17 +3024,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							zCount++;
 							
 							if (m.getZ() > 0) {
-								ImageProcessor ip;
-					
-								if (activeImg.getStackSize() == 1) {
-									ip = activeImg.getProcessor();
-								} else {
-									ImageStack stack = activeImg.getStack();
-									ip = stack.getProcessor(z);
-								}
-					
-								ip.resetRoi();
-								ip = ip.crop();
+								PunctaCntrSlice ip = getSlice(z);
 					
 								int[][] endpts = new int[rad*2+1][2];
 								restrictBoundary(m, endpts, ip);
@@ -2985,8 +3087,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					}
 					if (!pairing_found) { //found unlinked punctum in canvas A
 						int zCount = 0;
-						for (int n3 = n; n3 < PCMVA.size(); n3++) { 
-			  				PunctaCntrMarker m = (PunctaCntrMarker)PCMVA.get(n3);			  				
+						for (PunctaCntrMarker m : PCMVA.getGroup(mA.getOwner())) {
+			  				if (PCMVA.getListOrder(m) < PCMVA.getListOrder(mA)) continue; //members from mA's position on, as before
 							if (m.getOwner() == mA.getOwner()) {
 								zCount++;	
 							}
@@ -3008,8 +3110,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			  	if (mB.isOwner()) {
 			    	if (mB.flags != 1) { //found unliked punctum in canvas B
 			    		int zCount = 0;
-						for (int n2 = n; n2 < PCMVB.size(); n2++) { 
-			  				PunctaCntrMarker m = (PunctaCntrMarker)PCMVB.get(n2);
+						for (PunctaCntrMarker m : PCMVB.getGroup(mB.getOwner())) {
+			  				if (PCMVB.getListOrder(m) < PCMVB.getListOrder(mB)) continue; //members from mB's position on, as before
 							if (m.getOwner() == mB.getOwner()) {
 								zCount++;
 							}
@@ -3039,6 +3141,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
+			PunctaCntrDensityGrid densityA = new PunctaCntrDensityGrid(PCMVA, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVA.size(); n++) {
 				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
 				if (mA.isOwner()) {
@@ -3054,36 +3157,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nA = 0; nA < PCMVA.size(); nA++) { 
-							PunctaCntrMarker Neighbor = (PunctaCntrMarker)PCMVA.get(nA);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-					
-								int xmA = mA.getX();
-								int ymA = mA.getY();
-								int zmA = mA.getZ();
-					
-								float dx = (xmA - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymA - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmA - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing remove inadequate density in image one in slice "+zmA+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityA.count(mA);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityA.count(mA);
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3101,19 +3178,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate in image one in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -3145,35 +3214,35 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					//removes punctum that are on top edge or bottom edge or that do not overlap with second canvas or that are too small or too big
 					//is z-shiftz < 1 correct? used to be zA
 					if (z <= RemoveSurface || (z2 - MaxPunctaSizeinZ/2) < 1 || (z - Group_Shiftz) < 1 || (z2 - Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg1Z || (z - Group_Shiftz) > PixelsImg1Z || (z2 + MaxPunctaSizeinZ/2 - Group_Shiftz) > PixelsImg1Z) {
-  						PCMVA.removeMarker(n);
+  						removeGroup(PCMVA, densityA, n);
 						n--;
 		 				//IJ.log("removesurface="+RemoveSurface+" ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount + Group_Shiftx - MaxPunctaSizeinX/2) < 0 || (group_x/zCount + Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	  			 	} else if ((group_y/zCount + Group_Shifty - MaxPunctaSizeinX/2) < 0  || (group_y/zCount + Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {
-					 	PCMVA.removeMarker(n);
+					 	removeGroup(PCMVA, densityA, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" group_pixelsA="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PSD95NeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+SyntNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -3186,6 +3255,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 
+			PunctaCntrDensityGrid densityB = new PunctaCntrDensityGrid(PCMVB, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVB.size(); n++) {
 				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
 				if (mB.isOwner()) {
@@ -3201,36 +3271,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 					
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nB = 0; nB < PCMVB.size(); nB++) { 
-							PunctaCntrMarker Neighbor = (PunctaCntrMarker)PCMVB.get(nB);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-						
-								int xmB = mB.getX();
-								int ymB = mB.getY();
-								int zmB = mB.getZ();
-					
-								float dx = (xmB - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymB - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmB - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing density in image two in slice "+zmB+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityB.count(mB);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityB.count(mB);
 					
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3248,19 +3292,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate image two in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -3291,35 +3327,35 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					
 					//removes punctum that are on top edge or bottom edge or that do not overlap with first canvas or that are too small or too big
 					if (z <= (RemoveSurface + Group_Shiftz) || (z2 - MaxPunctaSizeinZ/2) < 1 || (z + Group_Shiftz) < 1 || (z2 + Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg2Z || (z + Group_Shiftz) > PixelsImg2Z || (z2 + MaxPunctaSizeinZ/2 + Group_Shiftz) > PixelsImg2Z) {
-  						PCMVB.removeMarker(n);
+  						removeGroup(PCMVB, densityB, n);
   						n--;
 		 				//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mA_z="+z2+" mB_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount - Group_Shiftx - MaxPunctaSizeinX/2) < 0 || (group_x/zCount - Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	   			} else if ((group_y/zCount - Group_Shifty - MaxPunctaSizeinX/2) < 0 || (group_y/zCount - Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {
-					 	PCMVB.removeMarker(n);
+					 	removeGroup(PCMVB, densityB, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" group_pixelsB="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -3336,6 +3372,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 
+			PunctaCntrDensityGrid densityA = new PunctaCntrDensityGrid(PCMVA, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVA.size(); n++) {
 				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
 				if (mA.isOwner()) {
@@ -3351,38 +3388,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nA = 0; nA < PCMVA.size(); nA++) { 
-							PunctaCntrMarker Neighbor = (PunctaCntrMarker)PCMVA.get(nA);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-					
-								int xmA = mA.getX();
-								int ymA = mA.getY();
-								int zmA = mA.getZ();
-					
-								float dx = (xmA - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymA - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmA - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing remove inadequate density in slice "+zmA+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-									//IJ.log("ID= "+resultNum+"dx= "+dx+"dy= "+dy+"dz= "+dz+"punctaneighbordensity= "+PunctaNeighboringDensity);
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-									//IJ.log("ID= "+resultNum+"dx= "+dx+"dy= "+dy+"dz= "+dz+"punctaneighbordensity= "+PunctaNeighboringDensity);
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityA.count(mA);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityA.count(mA);
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3400,19 +3409,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -3444,35 +3445,35 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					//removes punctum that are on top edge or bottom edge or that are too small or too big, shift values are irrelevant b/c they should be set to zero.
 					//is z-shiftz < 1 correct? used to be zA
 					if (z <= RemoveSurface || (z2 - MaxPunctaSizeinZ/2) < 1 || (z - Group_Shiftz) < 1 || (z2 - Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg1Z || (z - Group_Shiftz) > PixelsImg1Z || (z2 + MaxPunctaSizeinZ/2 - Group_Shiftz) > PixelsImg1Z) {
-  						PCMVA.removeMarker(n);
+  						removeGroup(PCMVA, densityA, n);
 						n--;
 		 				//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount - Group_Shiftx) < MaxPunctaSizeinX/2 || (group_x/zCount - Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	  			 	} else if ((group_y/zCount - Group_Shifty) < MaxPunctaSizeinY/2 || (group_y/zCount - Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {
-					 	PCMVA.removeMarker(n);
+					 	removeGroup(PCMVA, densityA, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" group_pixelsA="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -3483,6 +3484,12 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			renumber();
 		}
 	}
+
+	//Removes the group of the owner at n, and its owners from the density grid
+	private void removeGroup(PunctaCntrMarkerVector markers, PunctaCntrDensityGrid density, int n) {
+		density.removeGroup(markers.getGroup(markers.get(n).getOwner()));
+		markers.removeMarker(n);
+	}
 	
 	
 //-----------------------------Remove Markers on Edges
@@ -3508,7 +3515,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int markerImage = 0;
 					int rad = 0;
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3526,19 +3533,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove edges in image one in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 						}	
 					}
 
@@ -3574,7 +3573,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int markerImage = 0;
 					int rad = 0;
 					
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3592,19 +3591,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove edges in image two in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 						}	
 					}
 					
@@ -3644,7 +3635,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 					int markerImage = 0;
 					int rad = 0;
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -3662,19 +3653,11 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove edges in image one in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 						}	
 					}
 
@@ -3699,95 +3682,21 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 
 //-----------------------------COMPARE AND MATCH SELECTED 3D PUNCTA BETWEEN TWO STACKS
 	public void BestShiftEstimate(){
-		
-		PunctaCntrMarkerVector startingCMV = currentMarkerVector;
+		//Displacement votes over the shift search range around the typed-in shift, so stacks
+		//misregistered by more than the link tolerance are aligned without entering a shift;
+		//see PunctaCntrShiftEstimator
 		PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
 		PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);
 		
-		int EstimateB = 0;
-		PunctaCntrMarker bestEstimateB = null;
-		
-		int Shiftx2 = 0;
-		int Shifty2 = 0;
-		int Shiftz2 = 0;
-		int Count = 0;
-		
-		for (int nA = 0; nA < PCMVA.size(); nA++) {
-			PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(nA);
-		
-		   double bestShiftEstimateSqrd = (xLinkTol*xLinkTol) + (yLinkTol*yLinkTol) + (zLinkTol*zLinkTol) + 0.04;
-		   
-		   for (int nB = 0; nB < PCMVB.size(); nB++) { 
-				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(nB);
-				int xA = mA.getX();
-				int yA = mA.getY();
-				int zA = mA.getZ();
-				int xB = mB.getX();
-				int yB = mB.getY();
-				int zB = mB.getZ();
-				float dx = (xB - (xA + Shiftx))*(MicronsX/PixelsX); 	//in microns
-				float dy = (yB - (yA + Shifty))*(MicronsY/PixelsY); 	//in microns
-				float dz = (zB - (zA + Shiftz))*(MicronsZ);				//in microns
-
-				if (Math.abs(dx) <= xLinkTol && Math.abs(dy) <= yLinkTol && Math.abs(dz) <= zLinkTol) { //has to meet the minimum distance criteria
-					float dSqrd = (dx*dx) + (dy*dy) + (dz*dz); //in microns
-					if (dSqrd < bestShiftEstimateSqrd) { 
-						bestEstimateB = mB;
-						EstimateB = 1;
-						bestShiftEstimateSqrd = dSqrd; //keeps resetting the criteria to be more strict to narrow down the closest punctum
-					}
-				}
-			}
-			
-			int EstimateB2 = 0;
-			
-			if (bestEstimateB != null) {
-				for (int nA2 = 0; nA2 < PCMVA.size(); nA2++) { //make sure there isn't a punctum in canvas 1 that isn't closer to the selected bestMatchB
-					PunctaCntrMarker mA2 = (PunctaCntrMarker)PCMVA.get(nA2);			
-					int xA2 = mA2.getX();
-					int yA2 = mA2.getY();
-					int zA2 = mA2.getZ();
-					int xbestEstimateB = bestEstimateB.getX();
-					int ybestEstimateB = bestEstimateB.getY();
-					int zbestEstimateB = bestEstimateB.getZ();
-					float dx2 = (xbestEstimateB - (xA2 + Shiftx))*(MicronsX/PixelsX);	//in microns
-					float dy2 = (ybestEstimateB - (yA2 + Shifty))*(MicronsY/PixelsY);	//in microns
-					float dz2 = (zbestEstimateB - (zA2 + Shiftz))*(MicronsZ);			//in microns	
-					
-					if (Math.abs(dx2) <= xLinkTol && Math.abs(dy2) <= yLinkTol && Math.abs(dz2) <= zLinkTol) { //has to meet the minimum distance criteria
-						float dSqrd2 = (dx2*dx2) + (dy2*dy2) + (dz2*dz2); //in microns					
-						if (dSqrd2 < bestShiftEstimateSqrd) { 
-							//bestEstimateB2 = null; //there is another mA that is closer to BestMatchB
-							EstimateB2 = 1;
-						}
-					}
-				}
-			}
-			
-			if (EstimateB == 1 && EstimateB2 == 0) { //if a matching punctum was found it links them
-					Shiftx2 = bestEstimateB.getX() - mA.getX();
-					Shifty2 = bestEstimateB.getY() - mA.getY();
-					Shiftz2 = bestEstimateB.getZ() - mA.getZ();	
-					Group_Shiftx += Shiftx2;
-					Group_Shifty += Shifty2;
-					Group_Shiftz += Shiftz2;
-					Count++;
-					//IJ.log("Shiftx = "+Shiftx2+" Shifty = "+Shifty2+" Shiftz = "+Shiftz2);
-					//IJ.log("Group_Shiftx = "+Group_Shiftx+" Group_Shifty = "+Group_Shifty+" Group_Shiftz = "+Group_Shiftz);
-					//IJ.log("Count = "+Count);					
-					//IJ.log("mA_x = "+mA.getX()+" mA_y = "+mA.getY()+" mA_z = "+mA.getZ()+" mB_x = "+bestEstimateB.getX()+" mB_y = "+bestEstimateB.getY()+" mB_z = "+bestEstimateB.getZ());
-			}
-		}
-		if (Count > 0) {
-			Group_Shiftx = Group_Shiftx/Count;
-			Group_Shifty = Group_Shifty/Count;
-			Group_Shiftz = Group_Shiftz/Count;
-		} else {
-			Group_Shiftx = Shiftx;
-			Group_Shifty = Shifty;
-			Group_Shiftz = Shiftz;
-		}
-		//IJ.log("Avg Shiftx = "+Group_Shiftx+" Avg Shifty = "+Group_Shifty+" Avg Shiftz = "+Group_Shiftz);
+		PunctaCntrRunReport.Stage stage = startStage(img1.getTitle()+"+"+img2.getTitle(), "shift");
+		PunctaCntrShiftEstimator estimator = new PunctaCntrShiftEstimator(MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ);
+		int[] shift = estimator.estimate(PCMVA, PCMVB, new int[] {Shiftx, Shifty, Shiftz},
+				new float[] {xShiftSearch, yShiftSearch, zShiftSearch}, new float[] {xLinkTol, yLinkTol, zLinkTol});
+		endStage(stage);
+		Group_Shiftx = shift[0];
+		Group_Shifty = shift[1];
+		Group_Shiftz = shift[2];
+		//IJ.log("Avg Shiftx = "+Group_Shiftx+" Avg Shifty = "+Group_Shifty+" Avg Shiftz = "+Group_Shiftz+" from "+estimator.getVotes()+" votes");
 		
 		ShiftEstimateCalculated = 1;
 	}
@@ -3807,6 +3716,16 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			int MatchB = 0;
 			PunctaCntrMarker bestMatchB = null;
 			
+			//Both searches only visit markers inside the tolerance box, taken from k-d trees
+			//over pixel coordinates. linkRadius gives the pixel offsets that pass the float
+			//micron test on each axis, and the test itself is still applied to every
+			//candidate, so the matches are the ones the full scans found
+			PunctaCntrKdTree treeA = new PunctaCntrKdTree(PCMVA);
+			PunctaCntrKdTree treeB = new PunctaCntrKdTree(PCMVB);
+			int rx = PunctaCntrKdTree.linkRadius(MicronsX/PixelsX, xLinkTol);
+			int ry = PunctaCntrKdTree.linkRadius(MicronsY/PixelsY, yLinkTol);
+			int rz = PunctaCntrKdTree.linkRadius(MicronsZ, zLinkTol);
+			
 			for (int nA = 0; nA < PCMVA.size(); nA++) {
 
 		
@@ -3817,7 +3736,13 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			   //IJ.log("3722");
 				if (PCMVA.getMarkerByUID(mA.getOwner()).linkedOwner != -1) continue;
 				//IJ.log("3724");
-				for (int nB = 0; nB < PCMVB.size(); nB++) { //finds the closest grabbed punctum in canvas 2
+				int cx = mA.getX() + Group_Shiftx;
+				int cy = mA.getY() + Group_Shifty;
+				int cz = mA.getZ() + Group_Shiftz;
+				int candidates = treeB.query(cx-rx, cx+rx, cy-ry, cy+ry, cz-rz, cz+rz);
+				int bestIndexB = -1; //list index of this mA's best match, the first of equals in list order
+				for (int k = 0; k < candidates; k++) { //finds the closest grabbed punctum in canvas 2
+					int nB = treeB.getResult(k);
 					PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(nB);
 	
 					int xA = mA.getX();
@@ -3833,8 +3758,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 
 					if (Math.abs(dx) <= xLinkTol && Math.abs(dy) <= yLinkTol && Math.abs(dz) <= zLinkTol) { //has to meet the minimum distance criteria
 						float dSqrd = (dx*dx) + (dy*dy) + (dz*dz); //in microns
-						if (dSqrd < bestMatchDSqrd) { 
+						if (dSqrd < bestMatchDSqrd || (dSqrd == bestMatchDSqrd && bestIndexB != -1 && nB < bestIndexB)) { 
 							bestMatchB = mB;
+							bestIndexB = nB;
 							MatchB = 1;
 							bestMatchDSqrd = dSqrd; //keeps resetting the criteria to be more strict to narrow down the closest punctum
 						}
@@ -3844,8 +3770,12 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				int MatchB2 = 0;
 				
 				if (bestMatchB != null) {
-					for (int nA2 = 0; nA2 < PCMVA.size(); nA2++) { //make sure there isn't a punctum in canvas 1 that isn't closer to the selected bestMatchB
-						PunctaCntrMarker mA2 = (PunctaCntrMarker)PCMVA.get(nA2);
+					cx = bestMatchB.getX() - Group_Shiftx;
+					cy = bestMatchB.getY() - Group_Shifty;
+					cz = bestMatchB.getZ() - Group_Shiftz;
+					candidates = treeA.query(cx-rx, cx+rx, cy-ry, cy+ry, cz-rz, cz+rz);
+					for (int k = 0; k < candidates && MatchB2 == 0; k++) { //make sure there isn't a punctum in canvas 1 that isn't closer to the selected bestMatchB
+						PunctaCntrMarker mA2 = (PunctaCntrMarker)PCMVA.get(treeA.getResult(k));
 						int xA2 = mA2.getX();
 						int yA2 = mA2.getY();
 						int zA2 = mA2.getZ();
@@ -3910,25 +3840,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				}
 			}	
 			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker)PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker)PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			PCMVA.propagateResultNums();
 			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker)PCMVB.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVB.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker)PCMVB.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			PCMVB.propagateResultNums();
 		} else if (LinkedXML == 2) {
 			IJ.log("cannot autolink because of manual linking");
 		}
@@ -3970,8 +3884,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				}
 				
 				if (!pairing_found) { //found unlinked punctum in canvas A
-					for (int n3 = n; n3 < PCMVA.size(); n3++) { //compares unlinked punctum in canvas B to undetected puncta in canvas A 
-		  				PunctaCntrMarker m = (PunctaCntrMarker)PCMVA.get(n3);
+					for (PunctaCntrMarker m : PCMVA.getGroup(mA.getOwner())) { //compares unlinked punctum in canvas B to undetected puncta in canvas A 
+		  				if (PCMVA.getListOrder(m) < PCMVA.getListOrder(mA)) continue; //members from mA's position on, as before
 						if (m.getOwner() == mA.getOwner()) {
 							int xA = m.getX();
 							int yA = m.getY();
@@ -4004,8 +3918,8 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		  	PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
 		  	if (mB.isOwner()) {
 		    	if (mB.flags != 1) { //found unliked punctum in canvas B
-					for (int n2 = n; n2 < PCMVB.size(); n2++) { //compares unlinked punctum in canvas B to undetected puncta in canvas A 
-		  				PunctaCntrMarker m = (PunctaCntrMarker)PCMVB.get(n2);
+					for (PunctaCntrMarker m : PCMVB.getGroup(mB.getOwner())) { //compares unlinked punctum in canvas B to undetected puncta in canvas A 
+		  				if (PCMVB.getListOrder(m) < PCMVB.getListOrder(mB)) continue; //members from mB's position on, as before
 						if (m.getOwner() == mB.getOwner()) {
 							int xB = m.getX();
 							int yB = m.getY();
@@ -4056,27 +3970,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				activeIC = ic1;
 				
 				//start of numbering puncta 
-				nextResultNum = 1;
-	
-				for (int n = 0; n < PCMVA.size(); n++) 
-					((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-				
-				for (int n = 0; n < PCMVA.size(); n++) {
-					PunctaCntrMarker m = (PunctaCntrMarker)PCMVA.get(n);
-					if (!m.isOwner()) continue;
-					m.resultNum = nextResultNum;
-					nextResultNum++;
-				}
-				
-				for (int n = 0; n < PCMVA.size(); n++) {
-					PunctaCntrMarker mOwn = (PunctaCntrMarker)PCMVA.get(n);
-					if (!mOwn.isOwner()) continue;
-					for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker mSubj = (PunctaCntrMarker)PCMVA.get(n2);
-						if (mSubj.getOwner() == mOwn.getOwner())
-							mSubj.resultNum = mOwn.resultNum;
-					}
-				}
+				nextResultNum = PCMVA.renumber(1);
 				//end of numbering puncta
 				
 				PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);
@@ -4085,27 +3979,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				activeIC = ic2;
 				
 				//start of numbering puncta 
-				nextResultNum = 1;
-	
-				for (int n = 0; n < PCMVB.size(); n++) 
-					((PunctaCntrMarker)PCMVB.get(n)).resultNum = 0;
-				
-				for (int n = 0; n < PCMVB.size(); n++) {
-					PunctaCntrMarker m = (PunctaCntrMarker)PCMVB.get(n);
-					if (!m.isOwner()) continue;
-					m.resultNum = nextResultNum;
-					nextResultNum++;
-				}
-								
-				for (int n = 0; n < PCMVB.size(); n++) {
-					PunctaCntrMarker mOwn = (PunctaCntrMarker)PCMVB.get(n);
-					if (!mOwn.isOwner()) continue;
-					for (int n2 = 0; n2 < PCMVB.size(); n2++) {
-						PunctaCntrMarker mSubj = (PunctaCntrMarker)PCMVB.get(n2);
-						if (mSubj.getOwner() == mOwn.getOwner())
-							mSubj.resultNum = mOwn.resultNum;
-					}
-				}
+				nextResultNum = PCMVB.renumber(1);
 				//end of numbering puncta		
 			} else {
 				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
@@ -4114,27 +3988,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 				activeIC = ic1;
 	
 				//start of numbering puncta 
-				nextResultNum = 1;
-	
-				for (int n = 0; n < PCMVA.size(); n++) 
-					((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-				
-				for (int n = 0; n < PCMVA.size(); n++) {
-					PunctaCntrMarker m = (PunctaCntrMarker)PCMVA.get(n);
-					if (!m.isOwner()) continue;
-					m.resultNum = nextResultNum;
-					nextResultNum++;
-				}
-				
-				for (int n = 0; n < PCMVA.size(); n++) {
-					PunctaCntrMarker mOwn = (PunctaCntrMarker)PCMVA.get(n);
-					if (!mOwn.isOwner()) continue;
-					for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker mSubj = (PunctaCntrMarker)PCMVA.get(n2);
-						if (mSubj.getOwner() == mOwn.getOwner())
-							mSubj.resultNum = mOwn.resultNum;
-					}
-				}
+				nextResultNum = PCMVA.renumber(1);
 				//end of numbering puncta
 			}
 		}
@@ -4155,23 +4009,13 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
-			}
+			measureOwners(PCMVA, activeImg);
 			
 			activeImg = img2;
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
-				if (mB.isOwner()) {
-					measureMarker3D(mB);
-				}
-			}
+			measureOwners(PCMVB, activeImg);
 			
 			if (LinkedXML == 1 || LinkedXML == 2) {
 	         relinkBasedOnResultNums();			
@@ -4227,135 +4071,103 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
+			measureOwners(PCMVA, activeImg);
+		}
+	}
+	
+	//Measures the group of every owner in markers on img and adds their rows to the results
+	//in list order. A group only reads the stack and its own markers, so with ParallelMeasure
+	//the groups are measured side by side first and the rows added once all are done
+	private void measureOwners(final PunctaCntrMarkerVector markers, final ImagePlus img) {
+		Vector<PunctaCntrMarker> owners = new Vector<PunctaCntrMarker>();
+		for (int n = 0; n < markers.size(); n++)
+			if (markers.get(n).isOwner()) owners.add(markers.get(n));
+		PunctaCntrGroupStats[] measured = new PunctaCntrGroupStats[owners.size()];
+		
+		if (ParallelMeasure && owners.size() > 1) {
+			getSlice(img, 1); //called once here so the workers share one cache
+			Vector<Callable<PunctaCntrGroupStats>> tasks = new Vector<Callable<PunctaCntrGroupStats>>();
+			for (int n = 0; n < owners.size(); n++) {
+				final PunctaCntrMarker owner = owners.get(n);
+				tasks.add(new Callable<PunctaCntrGroupStats>() {
+					public PunctaCntrGroupStats call() {
+						return measureGroup(owner, markers, img);
+					}
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(Math.min(owners.size(), Runtime.getRuntime().availableProcessors()));
+			try {
+				List<Future<PunctaCntrGroupStats>> results = pool.invokeAll(tasks);
+				for (int n = 0; n < owners.size(); n++)
+					measured[n] = results.get(n).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IJ.log("Measure interrupted, no results were added");
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Measure failed on a punctum", e.getCause());
+			} finally {
+				pool.shutdown();
 			}
+		} else {
+			for (int n = 0; n < owners.size(); n++)
+				measured[n] = measureGroup(owners.get(n), markers, img);
 		}
+		
+		for (int n = 0; n < owners.size(); n++)
+			measureMarker3D(owners.get(n), measured[n]);
 	}
 	
-	private void measureMarker3D(PunctaCntrMarker marker) {
+	//The 2D circles of marker's group on img, one pass over the pixels of each
+	private PunctaCntrGroupStats measureGroup(PunctaCntrMarker marker, PunctaCntrMarkerVector markers, ImagePlus img) {
 		int uid = marker.getOwner();
-		PunctaCntrMarker m;
-		ListIterator it = currentMarkerVector.listIterator();
+		PunctaCntrGroupStats g = new PunctaCntrGroupStats();
+		Vector<PunctaCntrMarker> group = markers.getGroup(uid);
 		
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m = group.get(n);
+			if (m.getOwner() != uid) continue;
+			if (m.isOwner()) {
+				g.resultNum = m.resultNum;
+				g.markerImage = m.canvasID;
+			}
+			int rad = m.getRad();
+			PunctaCntrSlice ip = getSlice(img, m.getZ());
+			int[][] endpts = new int[rad*2+1][2];
+			restrictBoundary(m, endpts, ip);
+			PunctaCntrGroupStats circle = PunctaCntrGroupStats.ofRegion(ip, m.getX(), m.getY(), rad, endpts);
+			if (circle.pixels > 0) //this can happen if you load markers with a different arbitraryboundarycutoff. also measurebyclick seems to add sections that have pixels = 0 because they are not circles, but rather lines of rad>2
+				g.add(m, circle);
+		}
+		return g;
+	}
+	
+	//Adds the row of marker's group, as measureGroup measured it, to the results
+	private void measureMarker3D(PunctaCntrMarker marker, PunctaCntrGroupStats g) {
 		if (!results_initialized) {
-			rt.reset();
+			resultsWriter.reset();
 			results_initialized = true;
 		}
 		
-		double group_intensity = 0;
-		int group_pixels = 0;
-		double group_stddev = 0;
-		double group_max = 0;
-		int group_rad = 0;
-		int group_x = 0;
-		int group_y = 0;
-		int group_z = 0;
-		int zCount = 0;
-		int resultNum = 0;
-		int markerImage = 0;
-		int maxpixelarea = 0;
-		
-		while (it.hasNext()) {
-			m = (PunctaCntrMarker)it.next();
-			if (m.getOwner() == uid) {
-				if (m.isOwner()) {
-					resultNum = m.resultNum;
-					markerImage = m.canvasID;
-				}
-				int rad = m.getRad();
-				int x = m.getX();
-				int y = m.getY();
-				int z = m.getZ();
-				
-				ImageProcessor ip;
-				
-				if (activeImg.getStackSize() == 1) {
-					ip = activeImg.getProcessor();
-				} else {
-					ImageStack stack = activeImg.getStack();
-					ip = stack.getProcessor(z);
-				}
-				ip.resetRoi();
-				ip = ip.crop();	
-								
-				int[][] endpts = new int[rad*2+1][2];
-				restrictBoundary(m, endpts, ip);
-				double intensity = 0;
-				int pixels = 0;
-				double max = 0;
-				int d2;
-				double v;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						intensity += v;
-						if (v > max) {
-							max = v;
-						}
-						pixels++;						
-					}
-				}
-				
-				if (pixels > 0 && pixels > maxpixelarea) {
-					maxpixelarea = pixels;
-				}				
-				
-				if (pixels > 0) { //this can happen if you load markers with a different arbitraryboundarycutoff. also measurebyclick seems to add sections that have pixels = 0 because they are not circles, but rather lines of rad>2
-					group_rad += rad;
-			   	group_x += x;
-					group_y += y;
-					group_z += z;
-					
-					zCount++;
-							
-					double average = intensity/pixels;
-					double stddev = 0;
-					
-					for (int j = -rad; j <= rad; j++) {
-						if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-						for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-							v = ip.getPixelValue(x+i, y+j);
-							stddev += ((v-average)*(v-average));
-						}
-					}
-					
-					stddev /= pixels;
-					stddev = Math.sqrt(stddev);
-					
-					//The new stddev must be calculated BEFORE intensity and pixels are absorbed
-					if (group_pixels == 0) {
-						group_stddev = stddev;
-					} else {
-						int total_pixels = group_pixels + pixels;
-						double newaverage = (group_intensity+intensity)/(group_pixels+pixels);
-						group_stddev = ((double)pixels/(double)total_pixels)*(average*average+stddev*stddev)
-							+ ((double)group_pixels/(double)total_pixels)*(group_intensity*group_intensity/(group_pixels*group_pixels)
-							+ group_stddev*group_stddev) - newaverage*newaverage;
-						group_stddev = Math.sqrt(group_stddev);
-					}
-					
-					group_intensity += intensity;
-					group_pixels += pixels;
-					
-					if (max > group_max) {
-						group_max = max;
-					}
-				}
-			}
-		}
+		double group_intensity = g.intensity;
+		int group_pixels = g.pixels;
+		double group_stddev = g.getStddev();
+		double group_max = g.max;
+		int group_rad = g.sumRad;
+		int group_x = g.sumX;
+		int group_y = g.sumY;
+		int group_z = g.sumZ;
+		int zCount = g.zCount;
+		int resultNum = g.resultNum;
+		int markerImage = g.markerImage;
+		int maxpixelarea = g.maxArea;
 		
 		//get average signal intensity around punctum for all the slices it resides or 3 slices if it resides in < 3 slices
 		//assumption is that grid around punctum is large enough to not be affected by the changes in red signal intensity where the punctum is located 
 		
 		/*
 		if (activeImg == img1) {
-			ImageProcessor ip;
+			PunctaCntrSlice ip;
 				
 			signalAroundPunctum_avg1 = new double[activeImg.getStackSize()+1];
 			signalAroundPunctum_stddev1 = new double[activeImg.getStackSize()+1];			
@@ -4373,10 +4185,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			}
 	
 			for (int bz = z; bz <= z+zCount2; bz++) {	
-				ImageStack stack = activeImg.getStack();
-				ip = stack.getProcessor(bz);
-			   ip.resetRoi();
-			   ip = ip.crop();
+				ip = getSlice(bz);
 				MeasureData MDsignalAroundPunctum = findSignalLevelAroundPunctum(ip,x,y);
 				signalAroundPunctum_avg1[bz] = MDsignalAroundPunctum.avg;
 				signalAroundPunctum_stddev1[bz] = MDsignalAroundPunctum.stddev;	
@@ -4388,7 +4197,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			signalAroundPunctum_avg1[z] = (total_avg)/(count);
 			signalAroundPunctum_stddev1[z] = (total_stddev)/(count);
 		} else {
-			ImageProcessor ip;
+			PunctaCntrSlice ip;
 				
 			signalAroundPunctum_avg2 = new double[activeImg.getStackSize()+1];
 			signalAroundPunctum_stddev2 = new double[activeImg.getStackSize()+1];			
@@ -4406,10 +4215,7 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			}
 	
 			for (int bz = z; bz <= z+zCount2; bz++) {	
-				ImageStack stack = activeImg.getStack();
-				ip = stack.getProcessor(bz);
-			   ip.resetRoi();
-			   ip = ip.crop();
+				ip = getSlice(bz);
 				MeasureData MDsignalAroundPunctum2 = findSignalLevelAroundPunctum2(ip,x,y);
 				signalAroundPunctum_avg2[bz] = MDsignalAroundPunctum2.avg;
 				signalAroundPunctum_stddev2[bz] = MDsignalAroundPunctum2.stddev;	
@@ -4425,10 +4231,10 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		}						
 			*/	
 			
-		rt.incrementCounter();
+		resultsWriter.incrementCounter();
 
-		rt.addValue("ID",resultNum);
-		rt.addValue("Image",markerImage);
+		resultsWriter.addValue("ID",resultNum);
+		resultsWriter.addValue("Image",markerImage);
 			
 		if (zCount > 0) {
 			int z = (int)(group_z/zCount);
@@ -4442,60 +4248,60 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			double avgpixelintensity = group_intensity/group_pixels;
 			double avgpixelarea = group_pixels/zCount;			
 			
-			rt.addValue("X", group_x/zCount);
-			rt.addValue("Y", group_y/zCount);
-			rt.addValue("Z", z2);
-			rt.addValue("Radius", radius);
-			rt.addValue("Intensity Max",group_max); //in pixels, conduct gaussian blur at radius 0.8 microns
-			rt.addValue("Intensity Total",group_intensity); //in pixels
-			rt.addValue("Intensity Avg",avgpixelintensity); //in pixels, this can be a problem since for an identical punctum you might select an extra z-section which has more very faint pixels thus bringing down the average pixel intensity signifcantly
-			rt.addValue("Intensity Stddev",group_stddev);
-			rt.addValue("Max Area",maxpixelarea); //in pixels
-			rt.addValue("Avg Area",avgpixelarea); //in pixels, again this can be affected by the number of z-sections the boundary covers
-			rt.addValue("Volume",group_pixels); //in pixels, again this can be affected by the number of z-sections the boundary covers											
-			//rt.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
-			rt.addValue("# of Slices",zCount);
+			resultsWriter.addValue("X", group_x/zCount);
+			resultsWriter.addValue("Y", group_y/zCount);
+			resultsWriter.addValue("Z", z2);
+			resultsWriter.addValue("Radius", radius);
+			resultsWriter.addValue("Intensity Max",group_max); //in pixels, conduct gaussian blur at radius 0.8 microns
+			resultsWriter.addValue("Intensity Total",group_intensity); //in pixels
+			resultsWriter.addValue("Intensity Avg",avgpixelintensity); //in pixels, this can be a problem since for an identical punctum you might select an extra z-section which has more very faint pixels thus bringing down the average pixel intensity signifcantly
+			resultsWriter.addValue("Intensity Stddev",group_stddev);
+			resultsWriter.addValue("Max Area",maxpixelarea); //in pixels
+			resultsWriter.addValue("Avg Area",avgpixelarea); //in pixels, again this can be affected by the number of z-sections the boundary covers
+			resultsWriter.addValue("Volume",group_pixels); //in pixels, again this can be affected by the number of z-sections the boundary covers											
+			//resultsWriter.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
+			resultsWriter.addValue("# of Slices",zCount);
 			if (z <= img1.getStackSize()) {
-			rt.addValue("Noise Avg v0"+GorRXML,bkgrnd_avg1[z]); //avg background noise per slice
-			rt.addValue("Noise Stddev v0"+GorRXML,bkgrnd_stddev1[z]);
+			resultsWriter.addValue("Noise Avg v0"+GorRXML,bkgrnd_avg1[z]); //avg background noise per slice
+			resultsWriter.addValue("Noise Stddev v0"+GorRXML,bkgrnd_stddev1[z]);
 			}
 			if (measureImg2) {	
 			if (z <= img2.getStackSize()) {
-				rt.addValue("Noise Avg v0"+GorRXML,bkgrnd_avg2[z]);  //avg background noise per slice
-				rt.addValue("Noise Stddev v0"+GorRXML,bkgrnd_stddev2[z]);	
+				resultsWriter.addValue("Noise Avg v0"+GorRXML,bkgrnd_avg2[z]);  //avg background noise per slice
+				resultsWriter.addValue("Noise Stddev v0"+GorRXML,bkgrnd_stddev2[z]);	
 				}
 			}
 			if (z <= img1.getStackSize()) {
-			rt.addValue("Signal Value v0"+GorRXML,signal_signal1[z]);
-			rt.addValue("Signal Median v0"+GorRXML,signal_median1[z]);
-			rt.addValue("Signal Max v0"+GorRXML,signal_max1[z]);
-			rt.addValue("Signal Min v0"+GorRXML,signal_min1[z]);
-			rt.addValue("Signal Avg v0"+GorRXML,signal_avg1[z]);
-			rt.addValue("Signal Stddev v0"+GorRXML,signal_stddev1[z]);
+			resultsWriter.addValue("Signal Value v0"+GorRXML,signal_signal1[z]);
+			resultsWriter.addValue("Signal Median v0"+GorRXML,signal_median1[z]);
+			resultsWriter.addValue("Signal Max v0"+GorRXML,signal_max1[z]);
+			resultsWriter.addValue("Signal Min v0"+GorRXML,signal_min1[z]);
+			resultsWriter.addValue("Signal Avg v0"+GorRXML,signal_avg1[z]);
+			resultsWriter.addValue("Signal Stddev v0"+GorRXML,signal_stddev1[z]);
 			}
 			if (measureImg2) {	
 			if (z <= img2.getStackSize()) {
-				rt.addValue("Signal Value v0"+GorRXML,signal_signal2[z]);
-				rt.addValue("Signal Median v0"+GorRXML,signal_median2[z]);
-				rt.addValue("Signal Max v0"+GorRXML,signal_max2[z]);
-				rt.addValue("Signal Min v0"+GorRXML,signal_min2[z]);
-				rt.addValue("Signal Avg v0"+GorRXML,signal_avg2[z]);
-				rt.addValue("Signal Stddev v0"+GorRXML,signal_stddev2[z]);
+				resultsWriter.addValue("Signal Value v0"+GorRXML,signal_signal2[z]);
+				resultsWriter.addValue("Signal Median v0"+GorRXML,signal_median2[z]);
+				resultsWriter.addValue("Signal Max v0"+GorRXML,signal_max2[z]);
+				resultsWriter.addValue("Signal Min v0"+GorRXML,signal_min2[z]);
+				resultsWriter.addValue("Signal Avg v0"+GorRXML,signal_avg2[z]);
+				resultsWriter.addValue("Signal Stddev v0"+GorRXML,signal_stddev2[z]);
 				}
 			}
 			/*		
-			rt.addValue("Img1 Signal Around Punctum Average",signalAroundPunctum_avg1[z]);
-			rt.addValue("Img1 Signal Around Punctum Stddev",signalAroundPunctum_stddev1[z]);
+			resultsWriter.addValue("Img1 Signal Around Punctum Average",signalAroundPunctum_avg1[z]);
+			resultsWriter.addValue("Img1 Signal Around Punctum Stddev",signalAroundPunctum_stddev1[z]);
 			if (measureImg2) {	
-				rt.addValue("Img2 Signal Around Punctum Average",signalAroundPunctum_avg2[z]);
-				rt.addValue("Img2 Signal Around Punctum Stddev",signalAroundPunctum_stddev2[z]);	
+				resultsWriter.addValue("Img2 Signal Around Punctum Average",signalAroundPunctum_avg2[z]);
+				resultsWriter.addValue("Img2 Signal Around Punctum Stddev",signalAroundPunctum_stddev2[z]);	
 			}		
 			*/
 			int changeCode = 0;
 			if (marker.linkedOwner > -1) changeCode = 0;
 			else if (marker.canvasID == 1) changeCode = -1;
 			else changeCode = 1;
-	      	rt.addValue("Change",changeCode);
+	      	resultsWriter.addValue("Change",changeCode);
       }	
 	}
 	
@@ -4509,36 +4315,41 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 		PunctaCntrMarker m;
 		PunctaCntrMarker m2;
 		
-		int owner1;
-		int owner2;
-		
+		//Every marker gets the owner of the last marker on the other list with its resultNum,
+		//as the pairwise comparison of both lists gave, looked up by resultNum instead
+		HashMap<Integer,Integer> lastOwnerA = new HashMap<Integer,Integer>();
+		HashMap<Integer,Integer> lastOwnerB = new HashMap<Integer,Integer>();
+		for (int n = 0; n < PCMVA.size(); n++) {
+		  m = PCMVA.get(n);
+		  if (m.resultNum > 0) lastOwnerA.put(m.resultNum, m.getOwner());
+		}
 		for (int n2 = 0; n2 < PCMVB.size(); n2++) {
 		  m2 = PCMVB.get(n2);
-		  m2.linkedOwner = -1;
+		  if (m2.resultNum > 0) lastOwnerB.put(m2.resultNum, m2.getOwner());
 		}
       	
       	for (int n = 0; n < PCMVA.size(); n++) {
         	m = PCMVA.get(n);
-        	m.linkedOwner = -1;
-        	owner1 = m.getOwner();
-        	for (int n2 = 0; n2 < PCMVB.size(); n2++) {
-          		m2 = PCMVB.get(n2);
-          		if (m2.resultNum == m.resultNum && m2.resultNum > 0) {
-            		owner2 = m2.getOwner();
-            		//Both of these may be called redundantly several times,
-            		//probably not really worth worrying about
-            		m.linkedOwner = owner2;
-            		m2.linkedOwner = owner1;
-          		}
-        	}
+        	Integer owner2 = (m.resultNum > 0) ? lastOwnerB.get(m.resultNum) : null;
+        	m.linkedOwner = (owner2 != null) ? owner2 : -1;
       	}
+		for (int n2 = 0; n2 < PCMVB.size(); n2++) {
+		  m2 = PCMVB.get(n2);
+		  Integer owner1 = (m2.resultNum > 0) ? lastOwnerA.get(m2.resultNum) : null;
+		  m2.linkedOwner = (owner1 != null) ? owner1 : -1;
+		}
 		
 		currentMarkerVector = startingCMV;
 	}   
 	
 //-----------------------------SHOW RESULTS TABLE
 	 public void report(){
-		if (results_initialized)
+		if (streamResults) {
+			if (!resultsWriter.close())
+				IJ.log("Could not write all of the results to "+resultsPath()+".csv and .pcr");
+			return;
+		}
+		if (results_initialized && frame != null)
 			rt.show("Results");
 			String path = myDirectory +"Day"+DayXML1S+"Day"+DayXML2S+fileSeparator+img2.getTitle()+"_Day"+DayXML1S+".xls";
             String path2 = myDirectory +"Day"+DayXML1S+"Day"+DayXML2S+fileSeparator+img2.getTitle()+"_Day"+DayXML1S+".txt";
@@ -4548,9 +4359,15 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
 			} catch (IOException e) {
 				IJ.error(""+e);
 			}
-			WindowManager.closeAllWindows();
+			if (frame != null)
+				WindowManager.closeAllWindows();
     }
 	
+	//The results of the pair without an extension, named as the reports are
+	private String resultsPath() {
+		return myDirectory+"Day"+DayXML1S+"Day"+DayXML2S+fileSeparator+img2.getTitle()+"_Day"+DayXML1S;
+	}
+
 		/* Updates the Results window. */
 	/*public void updateResults() {
 		TextPanel textPanel = IJ.getTextPanel();
@@ -4615,8 +4432,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
     public void setGroupResultNum(PunctaCntrMarker m, int newNum) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.resultNum = newNum;
 	     }
@@ -4626,8 +4444,9 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
     public void setGroupLinkedOwner(PunctaCntrMarker m, int newLO) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.linkedOwner = newLO;
 	     }
@@ -4635,1504 +4454,19 @@ public class PunctaCounterAutolink extends JFrame implements ActionListener, Ite
     }    
     
    public void autoGroupMarker(int canvasID) {
-   //currently autogroupmarker is the same for psd95 and synt 10/19/2011 
-		if (PSD95orSynt == 1) {
-   		if (canvasID == 1) { 
-			   IJ.showStatus("Processing autogroup in image "+canvasID);
-			   
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = (PunctaCntrMarker)PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					//what happens when there are none that maintain same resultnum? 
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = (PunctaCntrMarker)PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = (PunctaCntrMarker)PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = (PunctaCntrMarker)PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = (PunctaCntrMarker)PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVA.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = (PunctaCntrMarker)PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVA.get(n7);
-	
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVA.get(n7);
-	
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										}
-									} 
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-				}
-			} else {
-				IJ.showStatus("Processing autogroup in image "+canvasID);
-				PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);
-									
-				activeImg = img2;
-				activeIC = ic2;
-				currentMarkerVector = typeVector.get(1);
-			 
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;			 
-			 
-				for (int n1 = 0; n1 < PCMVB.size(); n1++) {
-					PunctaCntrMarker m1 = (PunctaCntrMarker)PCMVB.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVB.size(); n2++) {
-						PunctaCntrMarker m2 = (PunctaCntrMarker)PCMVB.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVB.size(); n3++) {
-								PunctaCntrMarker m3 = (PunctaCntrMarker)PCMVB.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVB.size(); n10++) {
-							PunctaCntrMarker m10 = (PunctaCntrMarker)PCMVB.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVB.size(); n4++) { //it can probably be n1+1 
-						PunctaCntrMarker m4 = (PunctaCntrMarker)PCMVB.get(n4);			
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVB.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true; 
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																				
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-						
-								PunctaCntrMarker m9 = (PunctaCntrMarker)PCMVB.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVB.get(n7);
-									
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-							
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVB.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices																
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVB.get(n7);
-									
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;					
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(1);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-				} 	
-			} 			
-		} else { 
-			if (canvasID == 1) {
-				IJ.showStatus("Processing autogroup in image "+canvasID);
-				PunctaCntrMarkerVector PCMVA = (PunctaCntrMarkerVector)typeVector.get(0);
-		
-				activeImg = img1;
-				activeIC = ic1;
-				currentMarkerVector = typeVector.get(0);
-		
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVA.size(); n1++) {
-					PunctaCntrMarker m1 = (PunctaCntrMarker)PCMVA.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					//what happens when there are none that maintain same resultnum? 
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVA.size(); n2++) {
-						PunctaCntrMarker m2 = (PunctaCntrMarker)PCMVA.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVA.size(); n3++) {
-								PunctaCntrMarker m3 = (PunctaCntrMarker)PCMVA.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVA.size(); n10++) {
-							PunctaCntrMarker m10 = (PunctaCntrMarker)PCMVA.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVA.size(); n4++) {
-						PunctaCntrMarker m4 = (PunctaCntrMarker)PCMVA.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVA.get(n5);
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;	
-									//IJ.log("m5 = "+m5.resultNum+" m4 = "+m4.resultNum);																				
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = (PunctaCntrMarker)PCMVA.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-									//IJ.log("m9 = "+m9.resultNum+" m1 = "+m1.resultNum);
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVA.get(n7);
-	
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVA.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVA.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVA.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVA.get(n7);
-	
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(0);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(0); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-				}
-			} else {
-				IJ.showStatus("Processing autogroup in image "+canvasID);
-				PunctaCntrMarkerVector PCMVB = (PunctaCntrMarkerVector)typeVector.get(1);	
-				
-				activeImg = img2;
-				activeIC = ic2;
-				currentMarkerVector = typeVector.get(1);
-								
-				int MaxMovementXNeg = 0;
-				int MaxMovementYNeg = 0;
-				int MaxMovementXPos = 0;
-				int MaxMovementYPos = 0;
-				int currentZ = 0;
-				int count = 0;
-				int temp1 = 0;
-				int temp2 = 0;
-				int temp3 = 0;
-				int temp4 = 0;
-				int BestMatch = 1000;
-				int BestMatch2 = 1000;
-				boolean ignore = false;
-			 
-				for (int n1 = 0; n1 < PCMVB.size(); n1++) {
-					PunctaCntrMarker m1 = (PunctaCntrMarker)PCMVB.get(n1);
-			
-					if (currentZ != m1.getZ()) {
-						MaxMovementXNeg = 0;
-						MaxMovementYNeg = 0;
-						MaxMovementXPos = 0;
-						MaxMovementYPos = 0;
-					}
-					
-					//find MaxMovementX and MaxMovementY among all punctum across two consecutive z planes
-					for (int n2 = n1; n2 < PCMVB.size(); n2++) {
-						PunctaCntrMarker m2 = (PunctaCntrMarker)PCMVB.get(n2);
-
-						if (m2.getZ() == m1.getZ()) { 
-							for (int n3 = n2; n3 < PCMVB.size(); n3++) {
-								PunctaCntrMarker m3 = (PunctaCntrMarker)PCMVB.get(n3);
-								
-								if (m3.resultNum == m2.resultNum && m3.getZ() == (m2.getZ() + 1)) {
-									int dx = m3.getX() - m2.getX();
-									int dy = m3.getY() - m2.getY();		
-									
-									if (dx < MaxMovementXNeg) {
-										MaxMovementXNeg = dx;
-									} else if (dx > MaxMovementXPos) {
-										MaxMovementXPos = dx;
-									}
-									
-									if (dy < MaxMovementYNeg) {
-										MaxMovementYNeg = dy;
-									} else if (dy > MaxMovementYPos){
-										MaxMovementYPos = dy;
-									}				
-								}	
-							}
-						}
-					}
-				
-					if (MaxMovementXPos == 0 && MaxMovementXNeg == 0 && MaxMovementYPos == 0 && MaxMovementYNeg == 0) { //this is for when the movement is so great that all puncta are displaced from one slice to the next								
-						for (int n10 = n1; n10 < PCMVB.size(); n10++) {
-							PunctaCntrMarker m10 = (PunctaCntrMarker)PCMVB.get(n10);
-							
-							if (m10.getZ() == (m1.getZ() + 1)) {
-								int dx = m10.getX() - m1.getX();
-								int dy = m10.getY() - m1.getY();
-								count++;
-										
-								if (dx < 0 && MaxMovementXNeg == 0) {
-									MaxMovementXNeg = dx;
-								} else if (dx < 0 && dx > MaxMovementXNeg) {
-									MaxMovementXNeg = dx;
-								} 
-													
-								if (dx > 0 && MaxMovementXPos == 0) {
-									MaxMovementXPos = dx;
-								} else if (dx > 0 && dx < MaxMovementXPos) {
-									MaxMovementXPos = dx;
-								}
-									
-								if (dy < 0 && MaxMovementYNeg == 0) {
-									MaxMovementYNeg = dy;
-								} else if (dy < 0 && dy > MaxMovementYNeg) {
-									MaxMovementYNeg = dy;
-								} 
-										
-								if (dy > 0 && MaxMovementYPos == 0) {
-									MaxMovementYPos = dy;
-								} else if (dy > 0 && dy < MaxMovementYPos) {
-									MaxMovementYPos = dy;
-								}					
-							}	
-						}
-						
-						if ((MaxMovementXPos + MaxMovementYPos) > (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXPos = Math.abs(MaxMovementXNeg);
-							MaxMovementYPos = Math.abs(MaxMovementYNeg);
-						} else if ((MaxMovementXPos + MaxMovementYPos) < (Math.abs(MaxMovementXNeg) + Math.abs(MaxMovementYNeg))) {
-							MaxMovementXNeg = MaxMovementXPos;
-							MaxMovementYNeg = MaxMovementYPos;
-						}
-						
-						if (((MaxMovementXPos + MaxMovementYPos) > 20) && count > 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						} else if (((MaxMovementXPos + MaxMovementYPos) > 10) && count <= 10){
-							MaxMovementXNeg = 0;
-							MaxMovementYNeg = 0;
-							MaxMovementXPos = 0;
-							MaxMovementYPos = 0;
-						}
-						
-						count = 0;												
-					}
-					
-					PunctaCntrMarker BestMatchNum = null;
-					PunctaCntrMarker BestMatchNum2 = null;
-										
-					for (int n4 = n1; n4 < PCMVB.size(); n4++) {
-						PunctaCntrMarker m4 = (PunctaCntrMarker)PCMVB.get(n4);
-						
-						//for those 2D punctum that are considered separate, evaluate again following movement calculation
-						if (m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 1) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 1) 
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVB.get(n5);
-
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}						
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) {
-									temp1 = 1;																					
-								}
-							}
-							
-							for (int n9 = 0; n9 < n1; n9++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane (distance 2)
-								PunctaCntrMarker m9 = (PunctaCntrMarker)PCMVB.get(n9);
-								if (m9.resultNum == m1.resultNum && m9.getZ() == (m1.getZ() - 1)) {
-									temp2 = 1; 
-								}	
-							}
-							
-							if (ignore != true && temp1 == 1 && temp2 == 1) {
-								ignore = true;
-							}	
-														
-							if (ignore != true) {
-								for (int n6 = n1; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-								}
-							}			
-																				
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVB.get(n7);
-	
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										}
-									} 
-								}
-																
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();
-									
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch)) {	//before assigning make sure that there isn't another puncta that meets this criteria and where it is closer											
-									BestMatch = dx1*dx1+dy1*dy1;
-									BestMatchNum = m4;									
-								}	
-							}				
-						} 
-					
-						if (BestMatchNum == null && m4.resultNum != m1.resultNum && m4.getZ() == (m1.getZ() + 2) && (MaxMovementXPos != 0 || MaxMovementYPos != 0 || MaxMovementXNeg != 0 || MaxMovementYNeg != 0)) {
-							
-							for (int n5 = 0; n5 < n4; n5++) { //makes sure that the potential grouping is not with a puncta that already spans the same z plane
-								PunctaCntrMarker m5 = (PunctaCntrMarker)PCMVB.get(n5);
-							
-								if (m5.resultNum == m4.resultNum && m5.getZ() == m1.getZ()) {
-									ignore = true;
-								}
-								
-								if (m5.resultNum == m4.resultNum && m5.getZ() == (m1.getZ() - 1)) { //was used to prevent multiple of same number 
-									temp3 = 1;
-								}	
-							}
-							
-							if (ignore != true) {
-								for (int n6 = 0; n6 < PCMVB.size(); n6++) { //makes sure that the potential grouping is not done if puncta already spans z plane
-									PunctaCntrMarker m6 = (PunctaCntrMarker)PCMVB.get(n6);
-									if (m6.resultNum == m1.resultNum && m6.getZ() == m4.getZ()) {
-										ignore = true;
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m4.getZ() - 1)) { //m4.getZ() - 1 = m1.getZ() + 1 
-										ignore = true; //wait to group in next slice when distance between grouping puncta is only 1 slice and not 2 slices								
-									}
-									
-									if (m6.resultNum == m1.resultNum && m6.getZ() == (m1.getZ() - 1)) {
-										temp4 = 1;
-									}
-								}
-							}
-							
-							if (ignore != true && temp3 == 1 && temp4 == 1) { 
-								ignore = true;
-							}
-												
-													
-							if (ignore != true) {
-								int dx1 = m4.getX() - m1.getX();
-								int dx2 = m4.getX() - m1.getX();
-								if (dx1 < 0) {
-									dx1 = dx1 - MaxMovementXNeg;
-									dx2 = dx2 + MaxMovementXPos;
-								} else {
-									dx1 = dx1 + MaxMovementXNeg;
-									dx2 = dx2 - MaxMovementXPos;
-								}
-					
-								int dy1 = m4.getY() - m1.getY();
-								int dy2 = m4.getY() - m1.getY();
-								if (dy1 < 0) {								
-									dy1 = dy1 - MaxMovementYNeg;
-									dy2 = dy2 + MaxMovementYPos;
-								} else {
-									dy1 = dy1 + MaxMovementYNeg;
-									dy2 = dy2 - MaxMovementYPos;
-								}
-								
-								if (Math.abs(dx2) < Math.abs(dx1)) {
-									dx1 = dx2;
-								} 
-								
-								if (Math.abs(dy2) < Math.abs(dy1)) {
-									dy1 = dy2;
-								} 
-								
-								//makes sure that the next two puncta in the same slice as m1 is not closer to m4
-								for (int n7 = n1+1; n7 < n1+3; n7++) {
-									PunctaCntrMarker m1next = (PunctaCntrMarker)PCMVB.get(n7);
-									
-									if (m1next.resultNum != m4.resultNum) {
-										int dxm1next1 = m4.getX() - m1next.getX();
-										int dxm1next2 = m4.getX() - m1next.getX();
-										if (dxm1next1 < 0) {								
-											dxm1next1 = dxm1next1 - MaxMovementXNeg;
-											dxm1next2 = dxm1next2 + MaxMovementXPos;
-										} else {
-											dxm1next1 = dxm1next1 + MaxMovementXNeg;
-											dxm1next2 = dxm1next2 - MaxMovementXPos;
-										}
-									
-										int dym1next1 = m4.getY() - m1next.getY();
-										int dym1next2 = m4.getY() - m1next.getY();
-										if (dym1next1 < 0) {								
-											dym1next1 = dym1next1 - MaxMovementYNeg;
-											dym1next2 = dym1next2 + MaxMovementYPos;
-										} else {
-											dym1next1 = dym1next1 + MaxMovementYNeg;
-											dym1next2 = dym1next2 - MaxMovementYPos;
-										}
-										
-										if (Math.abs(dxm1next2) < Math.abs(dxm1next1)) {
-											dxm1next1 = dxm1next2;
-										} 
-										
-										if (Math.abs(dym1next2) < Math.abs(dym1next1)) {
-											dym1next1 = dym1next2;
-										} 
-									
-										if ((Math.abs(dxm1next1) + Math.abs(dym1next1)) < (Math.abs(dx1) + Math.abs(dy1))){
-											ignore = true;
-										} 
-									}
-								}
-							
-								int r1 = m1.getRad();
-								int r4 = m4.getRad();	
-							
-								if (ignore != true && (dx1*dx1+dy1*dy1 <= r1*r1 || dx1*dx1+dy1*dy1 <= r4*r4) && (dx1*dx1+dy1*dy1 <= BestMatch2)) {
-									BestMatch2 = dx1*dx1+dy1*dy1;
-									BestMatchNum2 = m4;						
-								}	
-							}	
-						} 
-						
-						ignore = false;
-						temp1 = 0;
-						temp2 = 0;
-						temp3 = 0;
-						temp4 = 0;
-					}
-
-					if (BestMatchNum != null || BestMatchNum2 != null) {	
-						if ((BestMatchNum != null) && (BestMatchNum2 == null)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						} else if ((BestMatchNum == null) && (BestMatchNum2 != null)) {
-							setGroupResultNum(BestMatchNum2, m1.resultNum); 
-							GroupOwnerByResultNum(1);
-						} else if ((BestMatchNum != null) && (BestMatchNum2 != null) && (BestMatchNum != BestMatchNum2) && (BestMatch < BestMatch2)) {
-							setGroupResultNum(BestMatchNum, m1.resultNum);
-							GroupOwnerByResultNum(1); 
-						}	
-					}
-					
-					BestMatch = 1000;
-					BestMatch2 = 1000;
-				}
-			}
-		}	
-	}	
+		//the same for psd95 and synt, one canvas at a time; see PunctaCntrGroupSweep
+		IJ.showStatus("Processing autogroup in image "+canvasID);
+		if (canvasID == 1) {
+			activeImg = img1;
+			activeIC = ic1;
+			currentMarkerVector = typeVector.get(0);
+		} else {
+			activeImg = img2;
+			activeIC = ic2;
+			currentMarkerVector = typeVector.get(1);
+		}
+		new PunctaCntrGroupSweep(currentMarkerVector, true).run(activeImg.getStackSize());
+	}
 	
 	int manualGroupStep = 1;
 	int lastCanvasClickedForGroupLink = -1;
@@ -0,0 +1,182 @@
+/*
+ * PunctaCounterBatch.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Vector;
+
+public class PunctaCounterBatch {
+	//Runs the autorun pipeline of the four stage plugins on stack files without a display:
+	//  Autodetect -> RemoveInadequate -> AutoGroup   writes <title>_3.xml (and _1, _2 with -checkpoints)
+	//  Autolink (-link)                              writes Day<a>Day<b>/ like the plugin
+	//Each stage is the same class the plugin menu runs, constructed with its image instead
+	//of taking it from WindowManager. The first three are chained in memory, each starting
+	//from the markers of the one before rather than re-reading its XML; the marker files
+	//are written on a background thread while the next stage runs. With -link the stacks are
+	//linked in pairs in the order given, first with second, third with fourth, and so on;
+	//their titles need the Day...x form Autolink reads the day numbers from. -report writes
+	//the time and counts of every step (PunctaCntrRunReport) to the xml folder at the end.
+	//-results writes the measured puncta as they come (PunctaCntrResultsWriter), to
+	//<title>_3.csv and .pcr for AutoGroup and in place of the .xls and .txt reports for
+	//Autolink, and keeps no results table; the first two stages' rows are dropped.
+	//
+	//  java -cp ij.jar:plugins PunctaCounterBatch [-dir xmlfolder] [-checkpoints] [-link] [-report] [-results] stack1 stack2 ...
+	private String directory;
+	private boolean link;
+	private boolean checkpoints; //also write the _1 and _2 files of the first two stages
+	private PunctaCntrCheckpointWriter writer;
+	private PunctaCntrRunReport report; //null unless -report
+	private boolean results;
+	private Vector<String> stacks = new Vector<String>();
+	private int failures;
+
+	public static void main(String[] args) {
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+		PunctaCounterBatch batch = new PunctaCounterBatch();
+		if (!batch.parseArgs(args)) {
+			System.out.println("Usage: PunctaCounterBatch [-dir xmlfolder] [-checkpoints] [-link] [-report] [-results] stack1 stack2 ...");
+			System.exit(2);
+		}
+		batch.run();
+		System.exit((batch.failures == 0) ? 0 : 1);
+	}
+
+	private boolean parseArgs(String[] args) {
+		String fileSeparator = System.getProperty("file.separator");
+		directory = System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator; //same default as the plugins
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-dir") && i+1 < args.length) {
+				directory = args[++i];
+				if (!directory.endsWith(fileSeparator)) directory += fileSeparator;
+			} else if (args[i].equals("-checkpoints")) {
+				checkpoints = true;
+			} else if (args[i].equals("-link")) {
+				link = true;
+			} else if (args[i].equals("-report")) {
+				report = new PunctaCntrRunReport();
+			} else if (args[i].equals("-results")) {
+				results = true;
+			} else if (args[i].startsWith("-")) {
+				return false;
+			} else {
+				stacks.add(args[i]);
+			}
+		}
+		if (link && stacks.size()%2 != 0) {
+			System.out.println("-link needs an even number of stacks");
+			return false;
+		}
+		return stacks.size() > 0;
+	}
+
+	public void run() {
+		new File(directory).mkdirs();
+		writer = new PunctaCntrCheckpointWriter(directory);
+		for (int i = 0; i < stacks.size(); i++)
+			processStack(stacks.get(i), i+1);
+		failures += writer.finish(); //Autolink reads the _3 files
+		if (link)
+			for (int i = 0; i+1 < stacks.size(); i += 2)
+				linkPair(stacks.get(i), stacks.get(i+1));
+		writer.close();
+		if (report != null) writeReport(report, directory, "PunctaCounterBatch");
+		System.out.println("PunctaCounterBatch: "+stacks.size()+" stacks, "+failures+" failed");
+	}
+
+	private void processStack(String path, int n) {
+		ImagePlus img = open(path);
+		if (img == null) return;
+		long start = System.currentTimeMillis();
+		try {
+			System.out.println("["+n+"/"+stacks.size()+"] "+img.getTitle());
+			PunctaCntrCheckpointWriter stageWriter = checkpoints ? writer : null;
+			PunctaCntrResultsWriter dropped = results ? new PunctaCntrResultsWriter(null) : null;
+			PunctaCounterAutodetect detect = new PunctaCounterAutodetect(img, stageWriter, report, dropped);
+			PunctaCounterRemoveInadequate remove = new PunctaCounterRemoveInadequate(img,
+					detect.getTypeVector(), detect.getCurrentType(), stageWriter, report, dropped);
+			PunctaCntrResultsWriter rows = results ? new PunctaCntrResultsWriter(directory+img.getTitle()+"_3", null) : null;
+			boolean done = false;
+			try {
+				new PunctaCounterAutoGroup(img, remove.getTypeVector(), remove.getCurrentType(), writer, report, rows);
+				done = true;
+			} finally {
+				//a stack that fails leaves no results behind rather than a part that looks whole
+				if (rows != null && !done) {
+					rows.discard();
+				} else if (rows != null && !rows.close()) {
+					System.out.println("    could not write "+directory+img.getTitle()+"_3.csv and .pcr");
+					failures++;
+				}
+			}
+			System.out.println("    done in "+(System.currentTimeMillis()-start)+" ms");
+		} catch (RuntimeException e) {
+			failed(path, e);
+		} finally {
+			img.flush();
+		}
+	}
+
+	private void linkPair(String pathA, String pathB) {
+		ImagePlus imgA = open(pathA);
+		ImagePlus imgB = (imgA == null) ? null : open(pathB);
+		if (imgB == null) {
+			if (imgA != null) imgA.flush();
+			return;
+		}
+		try {
+			System.out.println("Linking "+imgA.getTitle()+" with "+imgB.getTitle());
+			new PunctaCounterAutolink(imgA, imgB, directory, report, results);
+		} catch (RuntimeException e) {
+			failed(pathA+" + "+pathB, e);
+		} finally {
+			imgA.flush();
+			imgB.flush();
+		}
+	}
+
+	//Writes <directory><tool>_<time>.json and .csv
+	static void writeReport(PunctaCntrRunReport report, String directory, String tool) {
+		String name = tool+"_"+new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		if (report.write(directory, name))
+			System.out.println("Report of "+report.size()+" steps in "+directory+name+".json and .csv");
+		else
+			System.out.println("Could not write the report "+directory+name);
+	}
+
+	private ImagePlus open(String path) {
+		ImagePlus img = IJ.openImage(path);
+		if (img == null) {
+			System.out.println("Could not open "+path);
+			failures++;
+		}
+		return img;
+	}
+
+	private void failed(String what, RuntimeException e) {
+		System.out.println("Failed on "+what+": "+e);
+		e.printStackTrace();
+		failures++;
+	}
+}
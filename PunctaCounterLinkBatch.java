@@ -0,0 +1,258 @@
+/*
+ * PunctaCounterLinkBatch.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PunctaCounterLinkBatch {
+	//Links the stacks of several days in every requested pair, without a display, from the
+	//_3 marker files PunctaCounterBatch (or the plugins) left in the xml folder:
+	//  -pairs adjacent   each day with the next one (the default)
+	//  -pairs all        each day with every later one
+	//  -pairs 1-3,2-5    the days given, the first of a pair linked as image 1
+	//Days are read from the stack titles as Autolink does (stackDay<n>..x..) and sorted by
+	//number. Each pair is the same Autolink run the plugin does and writes the same
+	//Day<a>Day<b>/ folder; pairs run on -threads threads side by side. A day's markers and
+	//background tables are read and measured once and shared by all its pairs
+	//(PunctaCntrLinkDay); its stack stays open while pairs with the day are left, but at
+	//most -maxdays stacks are open at once, the ones no running pair uses being closed first.
+	//As each running pair needs its two stacks, no more than -maxdays/2 pairs run at once,
+	//whatever -threads says; a single pair still opens both of its stacks with -maxdays 1.
+	//-report writes the time and counts of every step to the xml folder at the end.
+	//-results writes each pair's measured puncta to .csv and .pcr files as they come
+	//(PunctaCntrResultsWriter) instead of the .xls and .txt reports, with no results table.
+	//
+	//  java -cp ij.jar:plugins PunctaCounterLinkBatch [-dir xmlfolder] [-pairs adjacent|all|a-b,...] [-threads n] [-maxdays n] [-report] [-results] stack|folder ...
+	private String directory;
+	private String pairSpec = "adjacent";
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxDays = -1;
+	private Vector<PunctaCntrLinkDay> days = new Vector<PunctaCntrLinkDay>();
+	private Vector<PunctaCntrLinkDay[]> pairs = new Vector<PunctaCntrLinkDay[]>();
+	private LinkedList<PunctaCntrLinkDay> open = new LinkedList<PunctaCntrLinkDay>(); //least recently used first
+	private PunctaCntrRunReport report; //null unless -report
+	private boolean results;
+	private int failures;
+
+	public static void main(String[] args) {
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+		PunctaCounterLinkBatch batch = new PunctaCounterLinkBatch();
+		if (!batch.parseArgs(args) || !batch.plan()) {
+			System.out.println("Usage: PunctaCounterLinkBatch [-dir xmlfolder] [-pairs adjacent|all|a-b,...] [-threads n] [-maxdays n] [-report] [-results] stack|folder ...");
+			System.exit(2);
+		}
+		batch.run();
+		System.exit((batch.failures == 0) ? 0 : 1);
+	}
+
+	private boolean parseArgs(String[] args) {
+		String fileSeparator = System.getProperty("file.separator");
+		directory = System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator; //same default as the plugins
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-dir") && i+1 < args.length) {
+					directory = args[++i];
+					if (!directory.endsWith(fileSeparator)) directory += fileSeparator;
+				} else if (args[i].equals("-pairs") && i+1 < args.length) {
+					pairSpec = args[++i];
+				} else if (args[i].equals("-threads") && i+1 < args.length) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-maxdays") && i+1 < args.length) {
+					maxDays = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-report")) {
+					report = new PunctaCntrRunReport();
+				} else if (args[i].equals("-results")) {
+					results = true;
+				} else if (args[i].startsWith("-")) {
+					return false;
+				} else {
+					addStacks(new File(args[i]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return days.size() > 0 && threads > 0;
+	}
+
+	//A stack, or every stack with a day in its name in a folder
+	private void addStacks(File f) {
+		if (!f.isDirectory()) {
+			days.add(new PunctaCntrLinkDay(f.getPath()));
+			return;
+		}
+		String[] names = f.list();
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			File stack = new File(f, names[i]);
+			if (stack.isFile() && !names[i].endsWith(".xml") && PunctaCntrLinkDay.dayOf(names[i]) != null)
+				days.add(new PunctaCntrLinkDay(stack.getPath()));
+		}
+	}
+
+	private boolean plan() {
+		Hashtable<String, PunctaCntrLinkDay> byDay = new Hashtable<String, PunctaCntrLinkDay>();
+		for (int i = 0; i < days.size(); i++) {
+			PunctaCntrLinkDay day = days.get(i);
+			if (day.getDay() == null) {
+				System.out.println("No Day<n>..x in the name of "+day.getPath());
+				return false;
+			}
+			if (byDay.put(day.getDay(), day) != null) {
+				System.out.println("Two stacks for Day"+day.getDay());
+				return false;
+			}
+		}
+		Collections.sort(days, new Comparator<PunctaCntrLinkDay>() {
+			public int compare(PunctaCntrLinkDay a, PunctaCntrLinkDay b) {
+				return compareDays(a.getDay(), b.getDay());
+			}
+		});
+
+		if (pairSpec.equals("adjacent")) {
+			for (int i = 0; i+1 < days.size(); i++)
+				addPair(days.get(i), days.get(i+1));
+		} else if (pairSpec.equals("all")) {
+			for (int i = 0; i < days.size(); i++)
+				for (int j = i+1; j < days.size(); j++)
+					addPair(days.get(i), days.get(j));
+		} else {
+			String[] list = pairSpec.split(",");
+			for (int i = 0; i < list.length; i++) {
+				String[] ab = list[i].trim().split("-");
+				PunctaCntrLinkDay a = (ab.length == 2) ? byDay.get(ab[0].trim()) : null;
+				PunctaCntrLinkDay b = (ab.length == 2) ? byDay.get(ab[1].trim()) : null;
+				if (a == null || b == null || a == b) {
+					System.out.println("No pair of stacks for "+list[i]);
+					return false;
+				}
+				addPair(a, b);
+			}
+		}
+		if (pairs.size() == 0) {
+			System.out.println("No pairs to link");
+			return false;
+		}
+		threads = Math.min(threads, pairs.size());
+		if (maxDays < 0)
+			maxDays = 2*threads; //room for the two days of every running pair
+		else
+			threads = Math.min(threads, Math.max(1, maxDays/2)); //-maxdays is the limit, fewer pairs run at once to fit
+		return true;
+	}
+
+	//By day number where both are numbers, else by name
+	private static int compareDays(String a, String b) {
+		try {
+			return Long.valueOf(a).compareTo(Long.valueOf(b));
+		} catch (NumberFormatException e) {
+			return a.compareTo(b);
+		}
+	}
+
+	private void addPair(PunctaCntrLinkDay a, PunctaCntrLinkDay b) {
+		pairs.add(new PunctaCntrLinkDay[] {a, b});
+		a.pending++;
+		b.pending++;
+	}
+
+	public void run() {
+		new File(directory).mkdirs();
+		System.out.println("PunctaCounterLinkBatch: "+pairs.size()+" pairs of "+days.size()+" days on "+threads+" threads");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < pairs.size(); i++) {
+			final PunctaCntrLinkDay[] pair = pairs.get(i);
+			final int n = i+1;
+			pool.execute(new Runnable() {
+				public void run() {
+					linkPair(pair[0], pair[1], n);
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (report != null) PunctaCounterBatch.writeReport(report, directory, "PunctaCounterLinkBatch");
+		System.out.println("PunctaCounterLinkBatch: "+pairs.size()+" pairs, "+failures+" failed");
+	}
+
+	private void linkPair(PunctaCntrLinkDay a, PunctaCntrLinkDay b, int n) {
+		long start = System.currentTimeMillis();
+		try {
+			acquire(a);
+			acquire(b);
+			System.out.println("["+n+"/"+pairs.size()+"] Linking Day"+a.getDay()+" with Day"+b.getDay());
+			new PunctaCounterAutolink(a, b, directory, report, results);
+			System.out.println("    Day"+a.getDay()+"Day"+b.getDay()+" done in "+(System.currentTimeMillis()-start)+" ms");
+		} catch (RuntimeException e) {
+			failed("Day"+a.getDay()+"Day"+b.getDay(), e);
+		} finally {
+			release(a);
+			release(b);
+		}
+	}
+
+	//Marks the day as used by one more pair and makes room for its stack, which the pair
+	//opens, by closing the stacks no running pair uses, least recently used first
+	private synchronized void acquire(PunctaCntrLinkDay day) {
+		day.users++;
+		if (open.remove(day)) {
+			open.addLast(day);
+			return;
+		}
+		for (int i = 0; i < open.size() && open.size() >= maxDays; i++) {
+			PunctaCntrLinkDay idle = open.get(i);
+			if (idle.users > 0) continue;
+			idle.flushImage();
+			open.remove(i);
+			i--;
+		}
+		open.addLast(day);
+	}
+
+	//Drops all of the day once its last pair is done
+	private synchronized void release(PunctaCntrLinkDay day) {
+		day.users--;
+		day.pending--;
+		if (day.pending == 0) {
+			day.release();
+			open.remove(day);
+		}
+	}
+
+	private synchronized void failed(String what, RuntimeException e) {
+		System.out.println("Failed on "+what+": "+e);
+		e.printStackTrace();
+		failures++;
+	}
+}
@@ -41,8 +41,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.Properties;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -71,7 +79,7 @@ import java.awt.event.MouseEvent;
 import ij.measure.ResultsTable;
 import java.lang.*;
 
-public class PunctaCounterRemoveInadequate extends JFrame implements ActionListener, ItemListener {
+public class PunctaCounterRemoveInadequate implements ActionListener, ItemListener {
 
     //DEVELOPMENT NOTES
     //This program contains a few redundant or inefficient paradigms developed
@@ -153,6 +161,12 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 	 private int nextCanvasID = 1;
     
     private boolean isJava14;
+    private JFrame frame; //null when the stage runs headless
+    private boolean chained; //markers come from and go to the neighbouring stages in memory
+    private PunctaCntrCheckpointWriter checkpoints; //writes the marker file of a chained run, if set
+    private PunctaCntrRunReport report; //times the steps of a batch run, if set
+    private Vector<PunctaCntrMarkerVector> chainedInput; //typeVector of the previous stage
+    private int chainedInputType;
     
     static PunctaCounterRemoveInadequate instance;
 	
@@ -164,6 +178,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
     private boolean showNumbers = true;
 	 private boolean results_initialized = false;
 	 ResultsTable rt = ResultsTable.getResultsTable();
+	 PunctaCntrResultsWriter resultsWriter = new PunctaCntrResultsWriter(rt); //takes the rows of measureMarker3D; rt only shows them
 	 public int[] wList = null;
 	 public boolean compareMode = true;
 	 public double[] bkgrnd_avg;
@@ -193,20 +208,49 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 	public int PunctaNeighborDensityCutoff;
 	public int RemovePixels, RemoveMaxPunctaSizeinZ, RemoveDensity, RemoveZCount;
 	public int ShiftEstimateCalculated=0;
+	public boolean ParallelMeasure = true;								//Measure groups concurrently in measure(); NoteForUser: set to false to measure one group at a time
     public String fileSeparator= System.getProperty("file.separator");   
     public String myDirectory= System.getProperty("user.home")+fileSeparator+"xml"+fileSeparator;    // NoteForUser: default direcotry is the image1 folder, but you can sepcify your own here 
 
     GenericDialog gd; 
        
     public PunctaCounterRemoveInadequate(){
-        super("Puncta Counter");
+        frame = new JFrame("Puncta Counter");
 
         isJava14 = IJ.isJava14(); 
         if(!isJava14){
             IJ.showMessage("You are using a pre 1.4 version of java, exporting and loading marker data is disabled");
         }
-        setResizable(false);
-        
+        frame.setResizable(false);
+        autorun(WindowManager.getCurrentImage());
+    }
+
+    //Runs the stage on img without a frame or image windows, as PunctaCounterBatch does;
+    //the marker files are read from and written to directory instead of myDirectory
+    public PunctaCounterRemoveInadequate(ImagePlus img, String directory){
+        isJava14 = IJ.isJava14();
+        myDirectory = directory;
+        autorun(img);
+    }
+
+    //Chained run for PunctaCounterBatch: starts from the markers the previous stage left in
+    //input instead of its XML, and keeps its own for the next one; the marker file is
+    //only written, in the background, when checkpoints is not null. A report, if any, gets
+    //the time and counts of each step, and results, if any, the measured rows instead of
+    //the results table
+    public PunctaCounterRemoveInadequate(ImagePlus img, Vector<PunctaCntrMarkerVector> input, int inputType, PunctaCntrCheckpointWriter checkpoints, PunctaCntrRunReport report, PunctaCntrResultsWriter results){
+        isJava14 = IJ.isJava14();
+        chained = true;
+        chainedInput = input;
+        chainedInputType = inputType;
+        this.checkpoints = checkpoints;
+        this.report = report;
+        if (results != null) resultsWriter = results;
+        if (checkpoints != null) myDirectory = checkpoints.getDirectory();
+        autorun(img);
+    }
+
+    private void autorun(ImagePlus img){
         //Autorun code starts here
 		  MicronsX = 200; // NoteForUser: Please indicate image size in micrometers dimension Z
 		  MicronsY = 200; // NoteForUser: Please indicate image size in micrometers dimension Z
@@ -241,14 +285,24 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
         typeVector = new Vector<PunctaCntrMarkerVector>();
         markerVector = new PunctaCntrMarkerVector(1);
         typeVector.add(markerVector);
-        initializeImage();
+        initializeImage(img);
         currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(0);
         String filePath = myDirectory+activeImg.getTitle()+"_1.xml";
-        loadMarkers2(filePath);
+        if (chained)
+            loadMarkers(chainedInput, chainedInputType);
+        else
+            loadMarkers2(filePath);
+        String title = activeImg.getTitle();
+        PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, title, "removeinadequate", "remove", PunctaCntrRunReport.count(typeVector));
         removeinadequate();
+        stage.end(PunctaCntrRunReport.count(typeVector));
+        stage = PunctaCntrRunReport.start(report, title, "removeinadequate", "measure", PunctaCntrRunReport.count(typeVector));
         measure();    
+        stage.end(PunctaCntrRunReport.count(typeVector));
         String filePath2 = myDirectory+activeImg.getTitle()+"_2.xml";
-        exportMarkers2(filePath2);
+        stage = PunctaCntrRunReport.start(report, title, "removeinadequate", "export", PunctaCntrRunReport.count(typeVector));
+        saveMarkers(filePath2);
+        stage.end(PunctaCntrRunReport.count(typeVector));
         //End autorun code
     }
     
@@ -269,33 +323,20 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
         dynButtonPanel.validate();
         dynTxtPanel.validate();
         statButtonPanel.validate();
-        validate();
-        pack();
+        frame.validate();
+        frame.pack();
     }
     
 //-----------------------------INITIALIZE STACK(S)  
-    private void initializeImage() {
+    private void initializeImage(ImagePlus img) {
      	if (nextCanvasID == 1) reset();
 		if (nextCanvasID == 3) {
 		  IJ.log("PunctaCounter currently supports only one or two images.");
 		  return;
 		}
-      activeImg = WindowManager.getCurrentImage();
+      activeImg = img;
       if (activeImg==null){
             IJ.noImage();
-      } else if (activeImg.getStackSize() == 1) {
-            ImageProcessor ip = activeImg.getProcessor();
-            ip.resetRoi();
-            ip = ip.crop();
-            
-      } else {
-            ImageStack stack = activeImg.getStack();
-            int size = stack.getSize();
-            for (int i = 1; i <= size; i++){
-                ImageProcessor ip = stack.getProcessor(i);
-                ip.resetRoi();
-                ip = ip.crop();
-            }  
       }
 		Overlay displayList = activeImg.getOverlay();
 		activeIC = new PunctaCntrImageCanvasRemoveInadequate(activeImg,this,nextCanvasID,displayList);
@@ -320,16 +361,16 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			bkgrnd_avg = new double[img1.getStackSize()+1];
 			bkgrnd_stddev = new double[img1.getStackSize()+1];
 			//Note: May break if stackSize == 1 (?)
-	      ImageStack stack = img1.getStack();
-			ImageProcessor ip;
+			PunctaCntrRunReport.Stage stage = PunctaCntrRunReport.start(report, img1.getTitle(), "removeinadequate", "background", 0);
+			PunctaCntrSlice ip;
 			for (int bz = 1; bz <= img1.getStackSize(); bz++) {
-			   ip = stack.getProcessor(bz);
-			   ip.resetRoi();
-			   ip = ip.crop();
+			   ip = getSlice(img1, bz);
 				MeasureData MD = findBackgroundLevel(ip);
 				bkgrnd_avg[bz] = MD.avg;
 				bkgrnd_stddev[bz] = MD.stddev;
 			}
+			stage.count(-1, (long)PixelsX*PixelsY*img1.getStackSize());
+			stage.end(0);
 			bkgrnd_initialized = 2;
 			//End set background level block 
 			
@@ -348,6 +389,9 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 		}
 		nextCanvasID++;
 		
+		if (frame == null)
+			return; //headless: the canvas is kept for its canvasID, but no window
+
 		if (activeImg.getStackSize() == 1)
 			new ImageWindow(activeImg, activeIC);
 		else
@@ -422,7 +466,17 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
         }  
 	 }
   
-    public Vector getTypeVector() {
+	 //Counterpart of loadMarkers2 for markers handed on in memory by the previous stage
+	 public void loadMarkers(Vector<PunctaCntrMarkerVector> source, int currentType){
+        for (int i = 0; i < source.size(); i++) {
+            PunctaCntrMarkerVector mv = source.get(i);
+            ReadXML.getTargetVector(typeVector, mv.getType()-1, 1).addMarkersAsLoaded(mv, 1);
+        }
+        currentMarkerVector = (PunctaCntrMarkerVector)typeVector.get(currentType);
+        setCurrentMarkerVector(currentMarkerVector);
+	 }
+
+    public Vector<PunctaCntrMarkerVector> getTypeVector() {
         return typeVector;
     }
     
@@ -432,6 +486,20 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
       WriteXML wxml = new WriteXML(filePath2);
 		wxml.writeXML(activeImg.getTitle(), typeVector, typeVector.indexOf(currentMarkerVector), 0);
     }    
+
+    //Writes the stage's marker file: at once when the stage runs on its own, in the
+    //background when chained with a checkpoint writer, and not at all otherwise
+    private void saveMarkers(String filePath) {
+        if (!chained)
+            exportMarkers2(filePath);
+        else if (checkpoints != null)
+            checkpoints.write(filePath, activeImg.getTitle(), typeVector, getCurrentType());
+    }
+
+    //The Current_Type exportMarkers2 writes
+    public int getCurrentType() {
+        return typeVector.indexOf(currentMarkerVector);
+    }
      
     public static final int SAVE=FileDialog.SAVE, OPEN=FileDialog.LOAD;
     
@@ -470,6 +538,26 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
         this.delmode = delmode;
     }
 
+//-----------------------------SLICE PIXEL CACHE
+	//Read-only views of the slices of img1 and img2, made once per run and shared by
+	//findBoundary, restrictBoundary and the measurements instead of ip.crop() copies
+	private PunctaCntrSliceCache sliceCache1 = null;
+	private PunctaCntrSliceCache sliceCache2 = null;
+
+	private PunctaCntrSlice getSlice(int z) {
+		return getSlice(activeImg, z);
+	}
+
+	//Also the view the canvases paint from, so they share its cached boundaries
+	public PunctaCntrSlice getSlice(ImagePlus img, int z) {
+		if (img != null && img == img2) {
+			if (sliceCache2 == null || !sliceCache2.isFor(img)) sliceCache2 = new PunctaCntrSliceCache(img);
+			return sliceCache2.getSlice(z);
+		}
+		if (sliceCache1 == null || !sliceCache1.isFor(img)) sliceCache1 = new PunctaCntrSliceCache(img);
+		return sliceCache1.getSlice(z);
+	}
+
 //-----------------------------MEASURE BACKGROUND		
 	private class MeasureData {
 		private int total;
@@ -492,55 +580,34 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 		MD.stddev = Math.sqrt(MD.stddev);
 	}
 	
-	private MeasureData findBackgroundLevel(ImageProcessor ip) {
+	private MeasureData findBackgroundLevel(PunctaCntrSlice ip) {
+		return findBackgroundLevel(new PunctaCntrIntegralImage(ip));
+	}
+	
+	private MeasureData findBackgroundLevel(PunctaCntrIntegralImage sat) {
 		MeasureData MD = new MeasureData();
 		int contribs = 0;
-		int v;
 		for (int ii = 0; ii < PixelsX; ii += BackgroundGridSize)
 		for (int jj = 0; jj < PixelsY; jj += BackgroundGridSize) {
-			int total = 0;
 			double avg = 0;
 			double stddev = 0;
-			for (int x = 0; x < BackgroundGridSize; x++)
-			for (int y = 0; y < BackgroundGridSize; y++) {
-				v = (int)ip.getPixelValue(ii+x,jj+y);
-				total += v;
-				if (v == 0){ //one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
-			   				//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
-                PixelZero = true;
-          	}
-			}
-			if (!PixelZero) {
-				avg = ((double)total)/(BackgroundGridSize*BackgroundGridSize);
-				for (int x = 0; x < BackgroundGridSize; x++)
-				for (int y = 0; y < BackgroundGridSize; y++) {
-					v = (int)ip.getPixelValue(ii+x,jj+y);
-					stddev += (v-avg) * (v-avg);
-				}
-				stddev /= BackgroundGridSize*BackgroundGridSize;
-				stddev = Math.sqrt(stddev);
+			//a grid with a pixel = 0 is left out; one could put total instead of zero, but for warped images i think this is more accurate because there are cases where
+			//the grid falls at the edge of real signal and black signal and no point to count this; difference between total or v is minor
+			if (sat.getZeroCount(ii, jj, BackgroundGridSize, BackgroundGridSize) == 0) {
+				avg = sat.getMean(ii, jj, BackgroundGridSize, BackgroundGridSize);
+				stddev = Math.sqrt(sat.getVariance(ii, jj, BackgroundGridSize, BackgroundGridSize));
 				if (contribs == 0 || avg <= MD.avg + MD.stddev) {
 					addSample(MD, avg, stddev, contribs);
 					contribs++;
 				}
 			}
-			
-			PixelZero = false;
 		}
 		return MD;
 	}
 	
 //-----------------------------CRITERIA FOR SELECTING 2-D PUNCTA
 	private PunctaCntrMarker findBoundary(int x, int y, int z) {
-		ImageProcessor ip;
-		if (activeImg.getStackSize() == 1) {
-			ip = activeImg.getProcessor();
-		} else {
-			ImageStack stack = activeImg.getStack();
-			ip = stack.getProcessor(z);
-		}
-		ip.resetRoi();
-		ip = ip.crop();
+		PunctaCntrSlice ip = getSlice(z);
 		if (bkgrnd_initialized == 0) {
 			IJ.error("Background not initialized");
 		}
@@ -561,16 +628,8 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			rings_v[i] = 0;
 		}
 		      
-		float v, d2;
-		for (int i = -MaxRadius; i <= MaxRadius; i++) //critical parameter - MaxRadius ensure allocation above (30s) accomodate
-		for (int j = -MaxRadius; j <= MaxRadius; j++) {
-			v = ip.getPixelValue(x+i,y+j);
-			d2 = i*i+j*j;
-			int ring = (int)(Math.floor(Math.sqrt(d2)));
-			if (v > 2*threshold) rings_v[ring] += v;
-			else rings_v[ring] += 2*threshold;
-			rings_c[ring] ++;
-		}
+		float v;
+		ip.accumulateRings(x, y, MaxRadius, threshold, rings_v, rings_c); //critical parameter - MaxRadius ensure allocation above (30s) accomodate
 		int best_rng = 0;
 		double best_rat = 0;
 		int inr_v = rings_v[0];
@@ -633,15 +692,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					rings_c[i] = 0;
 					rings_v[i] = 0;
 				}
-				for (int i = -MaxRadius; i <= MaxRadius; i++)
-				for (int j = -MaxRadius; j <= MaxRadius; j++) {
-					v = ip.getPixelValue(newX+i,newY+j);
-					d2 = i*i+j*j;
-					int ring = (int)(Math.floor(Math.sqrt(d2)));
-					if (v > 2*threshold) rings_v[ring] += v;
-					else rings_v[ring] += 2*threshold;
-					rings_c[ring] ++;
-				}
+				ip.accumulateRings(newX, newY, MaxRadius, threshold, rings_v, rings_c);
 				best_rng = 0;
 				best_rat = 0;
 				inr_v = rings_v[0];
@@ -682,12 +733,18 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 	private Point point;
 	
 	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, ImageProcessor ip) {
+		restrictBoundary(m, endpts, new PunctaCntrSlice(ip));
+	}
+
+	public void restrictBoundary(PunctaCntrMarker m, int[][] endpts, PunctaCntrSlice ip) {
 		int rad = m.getRad();
 		int z = m.getZ();
 		boolean brightFound;
 		int local_cutoff = (int)(bkgrnd_avg[z] + ArbitraryLocalBoundaryCutoff*bkgrnd_stddev[z]); //critical parameter for boundary of each punctum
 		int v;
         
+		if (ip.getBoundary(m, local_cutoff, endpts)) return;
+
 		//The endpts[] array stores values from 0 to 2*rad+1; values for [0] corresponds
 		//to the line getY-rad and values at [2*rad+1] correspond to getY+rad
 		for (int j = -rad; j <= rad; j++) {
@@ -703,7 +760,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 				if (v <= local_cutoff) break;
 			}
          if (i < 0) endpts[j+rad][0] = i;
-			for (i = 0; m.getX()+i < activeImg.getWidth() && i <= rad; i++) {
+			for (i = 0; m.getX()+i < ip.getWidth() && i <= rad; i++) {
 				v = (int) ip.getPixel(m.getX()+i, m.getY()+j);
 				if (v <= local_cutoff) break;
 			}
@@ -723,42 +780,35 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 				&& endpts[j+rad][1] > endpts[j+1+rad][1]+2)
 				endpts[j+rad][1] = (endpts[j-1+rad][1]+endpts[j+1+rad][1])/2+2;
 		}
+		ip.putBoundary(m, local_cutoff, endpts);
 	 }
 	
 //-----------------------------CRITERIA FOR SELECTING 3-D PUNCTA - Groups together 2D circles into a 3D sphere, removes groups where z=1 or z>4
 	 public void GroupAndRemoveRedundant() {
 		PunctaCntrMarker m1;
-		PunctaCntrMarker m2;
+		//Same result as comparing each marker with every marker after it in the list, but the
+		//grid index only hands over the later markers overlapping it on its own slice and the
+		//next one. Redundant markers are collected and taken out in one pass at the end;
+		//until then they are skipped as if already gone.
+		Set<PunctaCntrMarker> redundant = Collections.newSetFromMap(new IdentityHashMap<PunctaCntrMarker, Boolean>());
 		 
 		for (int n = 0; n < currentMarkerVector.size(); n++) {
 			m1 = (PunctaCntrMarker)currentMarkerVector.get(n);
-			for (int n2 = n+1; n2 < currentMarkerVector.size(); n2++) {
-				m2 = (PunctaCntrMarker)currentMarkerVector.get(n2);
-				//deletes redundant markers
-				if (m1.getZ() == m2.getZ() && m1.canvasID != 0 && m1.canvasID == m2.canvasID) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {
-						currentMarkerVector.removeSingle(n2);
-						n2--;
-					}
-				//groups markers that are on different slices, but whos x and y coordinates fall within the its
-				//2-dimensional radius
-				} else if (m2.getZ() == m1.getZ() + 1) {
-					int x = m1.getX() - m2.getX();
-					int y = m1.getY() - m2.getY();
-					int r1 = m1.getRad();
-					int r2 = m2.getRad();
-					
-					if (x*x+y*y < r1*r1 || x*x+y*y < r2*r2) {	
-							
-						m2.setOwner(m1.getOwner());
-					}					
-				}
+			if (redundant.contains(m1)) continue;
+			int order = currentMarkerVector.getListOrder(m1);
+			//deletes redundant markers
+			if (m1.canvasID != 0) {
+				for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()))
+					if (m2.canvasID == m1.canvasID && currentMarkerVector.getListOrder(m2) > order)
+						redundant.add(m2);
 			}
-		}	
+			//groups markers that are on different slices, but whos x and y coordinates fall within the its
+			//2-dimensional radius
+			for (PunctaCntrMarker m2 : currentMarkerVector.getMarkersOverlapping(m1, m1.getZ()+1))
+				if (currentMarkerVector.getListOrder(m2) > order)
+					m2.setOwner(m1.getOwner());
+		}
+		currentMarkerVector.removeSingles(redundant);
 	}	
 
 //-----------------------------MANUAL DETECT PUNCTA IN 1 OR 2 STACKS
@@ -822,6 +872,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
+			PunctaCntrDensityGrid densityA = new PunctaCntrDensityGrid(PCMVA, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVA.size(); n++) {
 				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
 				if (mA.isOwner()) {
@@ -837,36 +888,10 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nA = 0; nA < PCMVA.size(); nA++) { 
-							PunctaCntrMarker Neighbor = PCMVA.get(nA);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-					
-								int xmA = mA.getX();
-								int ymA = mA.getY();
-								int zmA = mA.getZ();
-					
-								float dx = (xmA - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymA - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmA - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing remove inadequate density in image one in slice "+zmA+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityA.count(mA);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityA.count(mA);
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -884,19 +909,11 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate in image one in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -928,35 +945,35 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					//removes punctum that are on top edge or bottom edge or that do not overlap with second canvas or that are too small or too big
 					//is z-shiftz < 1 correct? used to be zA
 					if (z <= RemoveSurface || (z2 - MaxPunctaSizeinZ/2) < 1 || (z - Group_Shiftz) < 1 || (z2 - Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg1Z || (z - Group_Shiftz) > PixelsImg1Z || (z2 + MaxPunctaSizeinZ/2 - Group_Shiftz) > PixelsImg1Z) {
-  						PCMVA.removeMarker(n);
+  						removeGroup(PCMVA, densityA, n);
 						n--;
 		 				//IJ.log("removesurface="+RemoveSurface+" ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount + Group_Shiftx - MaxPunctaSizeinX/2) < 0 || (group_x/zCount + Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	  			 	} else if ((group_y/zCount + Group_Shifty - MaxPunctaSizeinX/2) < 0  || (group_y/zCount + Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {  //this would break down for higher pixel/micron images (e.g., 4x at 512) 
-					 	PCMVA.removeMarker(n);
+					 	removeGroup(PCMVA, densityA, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" group_pixelsA="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+SyntNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -966,33 +983,14 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			}
 			
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVA.size(); n++) 
-				((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker m = PCMVA.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVA.renumber(1);
 			//end of renumbering puncta following any removal
 			
 			activeImg = img2;
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 
+			PunctaCntrDensityGrid densityB = new PunctaCntrDensityGrid(PCMVB, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVB.size(); n++) {
 				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
 				if (mB.isOwner()) {
@@ -1008,36 +1006,10 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 					
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nB = 0; nB < PCMVB.size(); nB++) { 
-							PunctaCntrMarker Neighbor = PCMVB.get(nB);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-						
-								int xmB = mB.getX();
-								int ymB = mB.getY();
-								int zmB = mB.getZ();
-					
-								float dx = (xmB - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymB - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmB - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing density in image two in slice "+zmB+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityB.count(mB);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityB.count(mB);
 					
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -1055,19 +1027,11 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate image two in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -1098,35 +1062,35 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					
 					//removes punctum that are on top edge or bottom edge or that do not overlap with first canvas or that are too small or too big
 					if (z <= (RemoveSurface + Group_Shiftz) || (z2 - MaxPunctaSizeinZ/2) < 1 || (z + Group_Shiftz) < 1 || (z2 + Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg2Z || (z + Group_Shiftz) > PixelsImg2Z || (z2 + MaxPunctaSizeinZ/2 + Group_Shiftz) > PixelsImg2Z) {
-  						PCMVB.removeMarker(n);
+  						removeGroup(PCMVB, densityB, n);
   						n--;
 		 				//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mA_z="+z2+" mB_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount - Group_Shiftx - MaxPunctaSizeinX/2) < 0 || (group_x/zCount - Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	   			} else if ((group_y/zCount - Group_Shifty - MaxPunctaSizeinX/2) < 0 || (group_y/zCount - Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {
-					 	PCMVB.removeMarker(n);
+					 	removeGroup(PCMVB, densityB, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" group_pixelsB="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVB.removeMarker(n);
+						removeGroup(PCMVB, densityB, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xB="+group_x/zCount+" yB="+group_y/zCount+" zB="+z+" mB_z="+z2+" mB_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -1136,27 +1100,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			}
 			
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVB.size(); n++) 
-				((PunctaCntrMarker)PCMVB.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker m = PCMVB.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVB.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVB.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVB.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVB.renumber(1);
 			//end of renumbering puncta following any removal
 			
 			currentMarkerVector = startingCMV;
@@ -1169,6 +1113,7 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 
+			PunctaCntrDensityGrid densityA = new PunctaCntrDensityGrid(PCMVA, MicronsX/PixelsX, MicronsY/PixelsY, MicronsZ, xDensityTol, yDensityTol, zDensityTol);
 			for (int n = 0; n < PCMVA.size(); n++) {
 				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
 				if (mA.isOwner()) {
@@ -1184,38 +1129,10 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					int PSD95NeighboringDensity = 0;
 					int SyntNeighboringDensity = 0;
 
-					if (PSD95NeighboringDensity == 0 && SyntNeighboringDensity == 0) {
-						for (int nA = 0; nA < PCMVA.size(); nA++) { 
-							PunctaCntrMarker Neighbor = PCMVA.get(nA);
-							
-							if (Neighbor.isOwner()){
-								int xNeighbor = Neighbor.getX();
-								int yNeighbor = Neighbor.getY();
-								int zNeighbor = Neighbor.getZ();
-					
-								int xmA = mA.getX();
-								int ymA = mA.getY();
-								int zmA = mA.getZ();
-					
-								float dx = (xmA - xNeighbor)*(MicronsX/PixelsX);	//in microns
-								float dy = (ymA - yNeighbor)*(MicronsY/PixelsY);	//in microns
-								float dz = (zmA - zNeighbor)*(MicronsZ);			//in microns	
-								
-								IJ.showStatus("Processing remove inadequate density in slice "+zmA+"/"+activeImg.getStackSize());
-					
-								if (PSD95orSynt == 1 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									PSD95NeighboringDensity++;
-									//IJ.log("ID= "+resultNum+"dx= "+dx+"dy= "+dy+"dz= "+dz+"punctaneighbordensity= "+PunctaNeighboringDensity);
-								}
-								if (PSD95orSynt == 2 && Math.abs(dx) <= xDensityTol && Math.abs(dy) <= yDensityTol && Math.abs(dz) <= zDensityTol) { //has to meet the minimum distance criteria
-									SyntNeighboringDensity++;
-									//IJ.log("ID= "+resultNum+"dx= "+dx+"dy= "+dy+"dz= "+dz+"punctaneighbordensity= "+PunctaNeighboringDensity);
-								}
-							}
-						}
-					}
+					if (PSD95orSynt == 1) PSD95NeighboringDensity = densityA.count(mA);
+					if (PSD95orSynt == 2) SyntNeighboringDensity = densityA.count(mA);
 			
-					ListIterator it = currentMarkerVector.listIterator();
+					ListIterator it = currentMarkerVector.getGroup(uid).listIterator();
 		
 					while (it.hasNext()) {
 						PunctaCntrMarker m = (PunctaCntrMarker)it.next();
@@ -1233,19 +1150,11 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 							group_y += y;
 							group_z += z;
 							zCount++;
-							ImageProcessor ip;
+							PunctaCntrSlice ip;
 							
 							IJ.showStatus("Processing remove inadequate in slice "+z+"/"+activeImg.getStackSize());
 				
-							if (activeImg.getStackSize() == 1) {
-								ip = activeImg.getProcessor();
-							} else {
-								ImageStack stack = activeImg.getStack();
-								ip = stack.getProcessor(z);
-							}
-				
-							ip.resetRoi();
-							ip = ip.crop();
+							ip = getSlice(z);
 				
 							int[][] endpts = new int[rad*2+1][2];
 							restrictBoundary(m, endpts, ip);
@@ -1277,35 +1186,35 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 					//removes punctum that are on top edge or bottom edge or that are too small or too big, shift values are irrelevant b/c they should be set to zero.
 					//is z-shiftz < 1 correct? used to be zA
 					if (z <= RemoveSurface || (z2 - MaxPunctaSizeinZ/2) < 1 || (z - Group_Shiftz) < 1 || (z2 - Group_Shiftz) < MaxPunctaSizeinZ/2 || (z2 + MaxPunctaSizeinZ/2) > PixelsImg1Z || (z - Group_Shiftz) > PixelsImg1Z || (z2 + MaxPunctaSizeinZ/2 - Group_Shiftz) > PixelsImg1Z) {
-  						PCMVA.removeMarker(n);
+  						removeGroup(PCMVA, densityA, n);
 						n--;
 		 				//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftz="+Shiftz+" remove_z");
 					} else if ((group_x/zCount - Group_Shiftx) < MaxPunctaSizeinX/2 || (group_x/zCount - Group_Shiftx + MaxPunctaSizeinX/2) > PixelsX) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 	  					//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shiftx="+Shiftx+" remove_x");
 	  			 	} else if ((group_y/zCount - Group_Shifty) < MaxPunctaSizeinY/2 || (group_y/zCount - Group_Shifty + MaxPunctaSizeinY/2) > PixelsY) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 					 	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" Shifty="+Shifty+" remove_y");
 					} else if (RemovePixels == 1 && group_pixels < 15) {
-					 	PCMVA.removeMarker(n);
+					 	removeGroup(PCMVA, densityA, n);
 						n--;
 					  	//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" group_pixelsA="+group_pixels+" remove_pixels");
 					} else if (RemoveMaxPunctaSizeinZ == 1 && zCount > MaxPunctaSizeinZ) { //critical parameter
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" remove_MaxPunctaSize");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 1 && PSD95NeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveDensity == 1 && PSD95orSynt == 2 && SyntNeighboringDensity <= PunctaNeighborDensityCutoff) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+"PunctaNeighboringDensity="+PunctaNeighboringDensity+" remove_IsolatedPuncta");
 					} else if (RemoveZCount == 1 && zCount == 1) {
-						PCMVA.removeMarker(n);
+						removeGroup(PCMVA, densityA, n);
 						n--;
 						//IJ.log("ID="+resultNum+" xA="+group_x/zCount+" yA="+group_y/zCount+" zA="+z+" mA_z="+z2+" mA_groupzcount="+zCount+" remove_zcount=1");
 					} else { 
@@ -1315,31 +1224,17 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			}
 
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVA.size(); n++) 
-				((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker m = PCMVA.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVA.renumber(1);
 			//end of renumbering puncta following any removal
 		}
 	}
 
+	//Removes the group of the owner at n, and its owners from the density grid
+	private void removeGroup(PunctaCntrMarkerVector markers, PunctaCntrDensityGrid density, int n) {
+		density.removeGroup(markers.getGroup(markers.get(n).getOwner()));
+		markers.removeMarker(n);
+	}
+
 //-----------------------------GET PUNCTA MEASUREMENTS FOR 1 OR 2 STACKS   
 	public void measure() {
 		if (compareMode) { //This code measures puncta when working with two images; note: autolink already removes puncta in canvas 1 and 2 that are on edges of canvas boundaries
@@ -1351,23 +1246,13 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			activeIC = ic1;
 			currentMarkerVector = typeVector.get(0);
 			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
-			}
+			measureOwners(PCMVA, activeImg);
 			
 			activeImg = img2;
 			activeIC = ic2;
 			currentMarkerVector = typeVector.get(1);
 			
-			for (int n = 0; n < PCMVB.size(); n++) {
-				PunctaCntrMarker mB = (PunctaCntrMarker)PCMVB.get(n);
-				if (mB.isOwner()) {
-					measureMarker3D(mB);
-				}
-			}
+			measureOwners(PCMVB, activeImg);
 			
          	relinkBasedOnResultNums();			
 			
@@ -1420,136 +1305,97 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			currentMarkerVector = typeVector.get(0);
 
 			//start of renumbering puncta following any removal
-			nextResultNum = 1;
-
-			for (int n = 0; n < PCMVA.size(); n++) 
-				((PunctaCntrMarker)PCMVA.get(n)).resultNum = 0;
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker m = PCMVA.get(n);
-				if (!m.isOwner()) continue;
-				m.resultNum = nextResultNum;
-				nextResultNum++;
-			}
-			
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mOwn = (PunctaCntrMarker) PCMVA.get(n);
-				if (!mOwn.isOwner()) continue;
-				for (int n2 = 0; n2 < PCMVA.size(); n2++) {
-					PunctaCntrMarker mSubj = (PunctaCntrMarker) PCMVA.get(n2);
-					if (mSubj.getOwner() == mOwn.getOwner())
-						mSubj.resultNum = mOwn.resultNum;
-				}
-			}
+			nextResultNum = PCMVA.renumber(1);
 			//end of renumbering puncta following any removal
 
-			for (int n = 0; n < PCMVA.size(); n++) {
-				PunctaCntrMarker mA = (PunctaCntrMarker)PCMVA.get(n);
-				if (mA.isOwner()) {
-					measureMarker3D(mA);
-				}
+			measureOwners(PCMVA, activeImg);
+		}
+	}
+	
+	//Measures the group of every owner in markers on img and adds their rows to the results
+	//in list order. A group only reads the stack and its own markers, so with ParallelMeasure
+	//the groups are measured side by side first and the rows added once all are done
+	private void measureOwners(final PunctaCntrMarkerVector markers, final ImagePlus img) {
+		Vector<PunctaCntrMarker> owners = new Vector<PunctaCntrMarker>();
+		for (int n = 0; n < markers.size(); n++)
+			if (markers.get(n).isOwner()) owners.add(markers.get(n));
+		PunctaCntrGroupStats[] measured = new PunctaCntrGroupStats[owners.size()];
+		
+		if (ParallelMeasure && owners.size() > 1) {
+			getSlice(img, 1); //called once here so the workers share one cache
+			Vector<Callable<PunctaCntrGroupStats>> tasks = new Vector<Callable<PunctaCntrGroupStats>>();
+			for (int n = 0; n < owners.size(); n++) {
+				final PunctaCntrMarker owner = owners.get(n);
+				tasks.add(new Callable<PunctaCntrGroupStats>() {
+					public PunctaCntrGroupStats call() {
+						return measureGroup(owner, markers, img);
+					}
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(Math.min(owners.size(), Runtime.getRuntime().availableProcessors()));
+			try {
+				List<Future<PunctaCntrGroupStats>> results = pool.invokeAll(tasks);
+				for (int n = 0; n < owners.size(); n++)
+					measured[n] = results.get(n).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IJ.log("Measure interrupted, no results were added");
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Measure failed on a punctum", e.getCause());
+			} finally {
+				pool.shutdown();
 			}
+		} else {
+			for (int n = 0; n < owners.size(); n++)
+				measured[n] = measureGroup(owners.get(n), markers, img);
 		}
+		
+		for (int n = 0; n < owners.size(); n++)
+			measureMarker3D(owners.get(n), measured[n]);
 	}
 	
-	private void measureMarker3D(PunctaCntrMarker marker) {
+	//The 2D circles of marker's group on img, one pass over the pixels of each
+	private PunctaCntrGroupStats measureGroup(PunctaCntrMarker marker, PunctaCntrMarkerVector markers, ImagePlus img) {
 		int uid = marker.getOwner();
-		PunctaCntrMarker m;
-		ListIterator it = currentMarkerVector.listIterator();
+		PunctaCntrGroupStats g = new PunctaCntrGroupStats();
+		Vector<PunctaCntrMarker> group = markers.getGroup(uid);
 		
+		for (int n = 0; n < group.size(); n++) {
+			PunctaCntrMarker m = group.get(n);
+			if (m.getOwner() != uid) continue;
+			if (m.isOwner()) {
+				g.resultNum = m.resultNum;
+				g.markerImage = m.canvasID;
+			}
+			int rad = m.getRad();
+			PunctaCntrSlice ip = getSlice(img, m.getZ());
+			int[][] endpts = new int[rad*2+1][2];
+			restrictBoundary(m, endpts, ip);
+			g.add(m, PunctaCntrGroupStats.ofRegion(ip, m.getX(), m.getY(), rad, endpts));
+		}
+		return g;
+	}
+	
+	//Adds the row of marker's group, as measureGroup measured it, to the results
+	private void measureMarker3D(PunctaCntrMarker marker, PunctaCntrGroupStats g) {
 		if (!results_initialized) {
-			rt.reset();
+			resultsWriter.reset();
 			results_initialized = true;
 		}
 		
-		double group_intensity = 0;
-		int group_pixels = 0;
-		double group_stddev = 0;
-		double group_max = 0;
-		int group_x = 0;
-		int group_y = 0;
-		int group_z = 0;
-		int zCount = 0;
-		int resultNum = 0;
-		int markerImage = 0;
-		
-		while (it.hasNext()) {
-			m = (PunctaCntrMarker)it.next();
-			if (m.getOwner() == uid) {
-				if (m.isOwner()) {
-					resultNum = m.resultNum;
-					markerImage = m.canvasID;
-				}
-				int rad = m.getRad();
-				int x = m.getX();
-				int y = m.getY();
-				int z = m.getZ();
-			   	group_x += x;
-				group_y += y;
-				group_z += z;
-				zCount++;
-				ImageProcessor ip;
-				if (activeImg.getStackSize() == 1) {
-					ip = activeImg.getProcessor();
-				} else {
-					ImageStack stack = activeImg.getStack();
-					ip = stack.getProcessor(z);
-				}
-				ip.resetRoi();
-				ip = ip.crop();
-				
-				int[][] endpts = new int[rad*2+1][2];
-				restrictBoundary(m, endpts, ip);
-				double intensity = 0;
-				int pixels = 0;
-				double max = 0;
-				int d2;
-				double v;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						intensity += v;
-						if (v > max) max = v;
-						pixels++;						
-					}
-				}
-				
-				double average = intensity/pixels;
-				double stddev = 0;
-				
-				for (int j = -rad; j <= rad; j++) {
-					if (endpts[j+rad][0] == -1000 || endpts[j+rad][1] == -1000) continue;
-					for (int i = endpts[j+rad][0]+1; i <= endpts[j+rad][1]-1; i++) {
-						v = ip.getPixelValue(x+i, y+j);
-						stddev += ((v-average)*(v-average));
-					}
-				}
-				
-				stddev /= pixels;
-				stddev = Math.sqrt(stddev);
-				
-				//The new stddev must be calculated BEFORE intensity and pixels are absorbed
-				if (group_pixels == 0) {
-					group_stddev = stddev;
-				} else {
-					int total_pixels = group_pixels + pixels;
-					double newaverage = (group_intensity+intensity)/(group_pixels+pixels);
-					group_stddev = ((double)pixels/(double)total_pixels)*(average*average+stddev*stddev)
-						+ ((double)group_pixels/(double)total_pixels)*(group_intensity*group_intensity/(group_pixels*group_pixels)
-						+ group_stddev*group_stddev) - newaverage*newaverage;
-					group_stddev = Math.sqrt(group_stddev);
-				}
-				
-				group_intensity += intensity;
-				group_pixels += pixels;
-				
-				if (max > group_max) group_max = max;
-			}
-		}
+		double group_intensity = g.intensity;
+		int group_pixels = g.pixels;
+		double group_stddev = g.getStddev();
+		double group_max = g.max;
+		int group_x = g.sumX;
+		int group_y = g.sumY;
+		int group_z = g.sumZ;
+		int zCount = g.zCount;
+		int resultNum = g.resultNum;
+		int markerImage = g.markerImage;
 		
-		rt.incrementCounter();
+		resultsWriter.incrementCounter();
 
 		int z = (int)(group_z/zCount);
 		double z2 = (int)(z);
@@ -1558,24 +1404,24 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
 			z2 = z + 0.5;
 		}
 		
-		rt.addValue("ID",resultNum);
-		rt.addValue("Image",markerImage);
-		rt.addValue("X", group_x/zCount);
-		rt.addValue("Y", group_y/zCount);
-		rt.addValue("Z", z2);
-		rt.addValue("Max Intensity",group_max);
-		rt.addValue("Average Intensity",group_intensity/group_pixels);
-		rt.addValue("Stddev",group_stddev);
-		rt.addValue("Volume in Pixels",group_pixels);														
-		rt.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
-		rt.addValue("Background_Avg",bkgrnd_avg[z]);
-		rt.addValue("Background_Stddev",bkgrnd_stddev[z]);		
-		rt.addValue("Number of Slices",zCount);
+		resultsWriter.addValue("ID",resultNum);
+		resultsWriter.addValue("Image",markerImage);
+		resultsWriter.addValue("X", group_x/zCount);
+		resultsWriter.addValue("Y", group_y/zCount);
+		resultsWriter.addValue("Z", z2);
+		resultsWriter.addValue("Max Intensity",group_max);
+		resultsWriter.addValue("Average Intensity",group_intensity/group_pixels);
+		resultsWriter.addValue("Stddev",group_stddev);
+		resultsWriter.addValue("Volume in Pixels",group_pixels);														
+		resultsWriter.addValue("Volume in Microns",group_pixels*(MicronsX/PixelsX*MicronsY/PixelsY*MicronsZ)); //Micronz Z already has unit um/slice
+		resultsWriter.addValue("Background_Avg",bkgrnd_avg[z]);
+		resultsWriter.addValue("Background_Stddev",bkgrnd_stddev[z]);		
+		resultsWriter.addValue("Number of Slices",zCount);
 		int changeCode = 0;
 		if (marker.linkedOwner > -1) changeCode = 0;
 		else if (marker.canvasID == 1) changeCode = -1;
 		else changeCode = 1;
-      	rt.addValue("Change",changeCode);
+      	resultsWriter.addValue("Change",changeCode);
 	}
 
 	public void relinkBasedOnResultNums() {
@@ -1668,8 +1514,9 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
     public void setGroupResultNum(PunctaCntrMarker m, int newNum) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.resultNum = newNum;
 	     }
@@ -1679,8 +1526,9 @@ public class PunctaCounterRemoveInadequate extends JFrame implements ActionListe
     public void setGroupLinkedOwner(PunctaCntrMarker m, int newLO) {
       int ownerUID = m.getOwner();
       PunctaCntrMarker m2;
-	   for (int n = 0; n < currentMarkerVector.size(); n++) {
-	     m2 = currentMarkerVector.get(n);
+      Vector<PunctaCntrMarker> group = currentMarkerVector.getGroup(ownerUID);
+	   for (int n = 0; n < group.size(); n++) {
+	     m2 = group.get(n);
 	     if (m2.getOwner() == ownerUID) {
 	       m2.linkedOwner = newLO;
 	     }
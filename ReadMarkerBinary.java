@@ -0,0 +1,164 @@
+/*
+ * ReadMarkerBinary.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Vector;
+
+public class ReadMarkerBinary {
+	//Reads the files WriteMarkerBinary writes, with the same calls as ReadXML. The header is
+	//read by the constructor; readMarkerData streams the records through a fixed buffer.
+	private static final int BUFFER_BYTES = 1 << 16;
+	private String filePath;
+	private String imgFilename;
+	private String currentType;
+	private long dataStart = -1; //file offset of the type count, -1 if the header was unreadable
+
+	/** Creates a new instance of ReadMarkerBinary */
+	public ReadMarkerBinary(String filePath) {
+		this.filePath = filePath;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(filePath);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(16);
+			fill(channel, buf, 16);
+			if (buf.getInt() != WriteMarkerBinary.MAGIC) {
+				System.out.println(filePath + " is not a marker file.");
+				return;
+			}
+			int version = buf.getInt();
+			if (version > WriteMarkerBinary.VERSION) {
+				System.out.println(filePath + " was written by a newer version (" + version + ").");
+				return;
+			}
+			int type = buf.getInt();
+			int nameLength = buf.getInt();
+			if (nameLength < 0 || nameLength > channel.size() - 16) {
+				System.out.println(filePath + " is not a marker file.");
+				return;
+			}
+			currentType = Integer.toString(type);
+			ByteBuffer name = ByteBuffer.allocate(nameLength);
+			fill(channel, name, name.capacity());
+			imgFilename = new String(name.array(), Charset.forName("UTF-8"));
+			dataStart = channel.position();
+		} catch (IOException e) {
+			System.out.println("IOException " + e.getMessage());
+		} finally {
+			close(in);
+		}
+	}
+
+	//True when the file starts with the marker file MAGIC
+	public static boolean isMarkerBinary(String filePath) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(filePath);
+			ByteBuffer buf = ByteBuffer.allocate(4);
+			fill(in.getChannel(), buf, 4);
+			return buf.getInt() == WriteMarkerBinary.MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			close(in);
+		}
+	}
+
+	public String readImgProperties(int valueID) {
+		switch (valueID) {
+			case (ReadXML.IMAGE_FILE_PATH):
+				return imgFilename;
+			case (ReadXML.CURRENT_TYPE):
+				return currentType;
+		}
+		return null;
+	}
+
+	//Same type remapping as ReadXML.readMarkerData. canvasIDtoSet replaces the stored canvasID
+	//as it does for XML files, which carry none; 0 keeps the canvasID stored with each marker
+	public void readMarkerData(Vector<PunctaCntrMarkerVector> typeVector, int canvasIDtoSet) {
+		if (dataStart < 0) return;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(filePath);
+			FileChannel channel = in.getChannel();
+			channel.position(dataStart);
+			ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+			buf.flip();
+			need(channel, buf, 4);
+			int types = buf.getInt();
+			for (int t = 0; t < types; t++) {
+				need(channel, buf, 8);
+				int index = buf.getInt() - 1;
+				int count = buf.getInt();
+				PunctaCntrMarkerVector markerVector = ReadXML.getTargetVector(typeVector, index, canvasIDtoSet);
+				for (int n = 0; n < count; n++) {
+					need(channel, buf, WriteMarkerBinary.RECORD_BYTES);
+					PunctaCntrMarker marker = new PunctaCntrMarker();
+					marker.setX(buf.getInt());
+					marker.setY(buf.getInt());
+					marker.setZ(buf.getInt());
+					marker.setRad(buf.getInt());
+					marker.setUID(buf.getInt());
+					marker.setOwner(buf.getInt());
+					marker.resultNum = buf.getInt();
+					marker.canvasID = buf.getInt();
+					if (canvasIDtoSet != 0) marker.canvasID = canvasIDtoSet;
+					markerVector.addMarkerFromXML(marker);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("IOException " + e.getMessage());
+		} finally {
+			close(in);
+		}
+	}
+
+	//Refills buf (kept in read mode) until at least bytes are available
+	private static void need(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+		if (buf.remaining() >= bytes) return;
+		buf.compact();
+		while (buf.position() < bytes)
+			if (channel.read(buf) < 0) throw new EOFException("Marker file ends early");
+		buf.flip();
+	}
+
+	//Reads exactly bytes into an empty buf and flips it for reading
+	private static void fill(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+		buf.limit(bytes);
+		while (buf.hasRemaining())
+			if (channel.read(buf) < 0) throw new EOFException("Marker file ends early");
+		buf.flip();
+	}
+
+	private static void close(FileInputStream in) {
+		try {
+			if (in != null) in.close();
+		} catch (IOException e) {
+			System.out.println("IOException " + e.getMessage());
+		}
+	}
+}
@@ -9,26 +9,30 @@
  * @author  kurt
  *
  */
- 
+
 import ij.IJ;
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Vector;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class ReadXML {
+    //The marker file is read with a StAX stream reader instead of a DOM: the constructor
+    //reads only as far as Current_Type for the image properties, and readMarkerData makes
+    //one forward pass over the markers, adding each one as soon as its </Marker> is seen,
+    //so memory no longer grows with the size of the file.
     private boolean verbose;
-    private DocumentBuilderFactory dbf;
-    private DocumentBuilder db;
-    private Document doc;
+    private XMLInputFactory xif;
+    private String XMLFilePath;
+    private String imgFilename;
+    private String currentType;
     private String str;
+    private ReadMarkerBinary binary; //set when XMLFilePath is a WriteMarkerBinary file
     public static final int IMAGE_FILE_PATH = 0;
     public static final int CURRENT_TYPE = 1;
     /**
@@ -36,28 +40,48 @@ public class ReadXML {
      */
     public ReadXML(String XMLFilePath) {
         setVerbose(verbose);
+        this.XMLFilePath = XMLFilePath;
+        if (ReadMarkerBinary.isMarkerBinary(XMLFilePath)) {
+            binary = new ReadMarkerBinary(XMLFilePath);
+            return;
+        }
+        xif = XMLInputFactory.newInstance();
+        xif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        InputStream in = null;
+        XMLStreamReader xr = null;
         try{
-            dbf = DocumentBuilderFactory.newInstance();
-            db = dbf.newDocumentBuilder();
-            doc = db.parse(new File(XMLFilePath));
-            doc.getDocumentElement().normalize();
-        } catch (SAXException e) {
+            in = new BufferedInputStream(new FileInputStream(XMLFilePath));
+            xr = xif.createXMLStreamReader(in);
+            while (xr.hasNext() && currentType == null) {
+                if (xr.next() != XMLStreamConstants.START_ELEMENT) continue;
+                String name = xr.getLocalName();
+                if (name.equals("Image_Filename"))
+                    imgFilename = xr.getElementText().trim();
+                else if (name.equals("Current_Type"))
+                    currentType = xr.getElementText().trim();
+                else if (name.equals("Marker_Type"))
+                    break; //no Current_Type in this file
+            }
+        } catch (XMLStreamException e) {
             System.out.println(e.getMessage());
             System.out.println(XMLFilePath + " is not well-formed.");
         } catch (IOException e) {
             System.out.println("IOException " + e.getMessage());
-        } catch (ParserConfigurationException e){
-            System.out.println("ParserConfigurationException " + e.getMessage());
+        } finally {
+            close(xr, in);
         }
     }
-    
+
     public String readImgProperties(int valueID){ //as URL
+        if (binary != null)
+            return binary.readImgProperties(valueID);
         switch(valueID){
             case(IMAGE_FILE_PATH):
-                str = readSingleValue(doc,"Image_Filename");
+                str = imgFilename;
                 break;
             case(CURRENT_TYPE):
-                str = readSingleValue(doc,"Current_Type");
+                str = currentType;
                 break;
         }
         if (str !=null){
@@ -65,90 +89,107 @@ public class ReadXML {
         }
         return null;
     }
-    
+
     public void readMarkerData(Vector<PunctaCntrMarkerVector> typeVector, int canvasIDtoSet){
-	//Vector<PunctaCntrMarkerVector>  was before readmarker data   
-    //Vector<PunctaCntrMarkerVector> typeVector in ()
-        //Vector<PunctaCntrMarkerVector> typeVector = new Vector<PunctaCntrMarkerVector>();
-        
-        NodeList markerTypeNodeList = getNodeListFromTag(doc,"Marker_Type");
-        for (int i=0; i<markerTypeNodeList.getLength(); i++){
-            Element markerTypeElement = getElement(markerTypeNodeList, i);
-            NodeList typeNodeList = markerTypeElement.getElementsByTagName("Type");
-            //PunctaCntrMarkerVector markerVector = new PunctaCntrMarkerVector(Integer.parseInt(readValue(typeNodeList , 0)));
-            int index = Integer.parseInt(readValue(typeNodeList , 0)) - 1;
+        if (binary != null) {
+            binary.readMarkerData(typeVector, canvasIDtoSet);
+            return;
+        }
+        InputStream in = null;
+        XMLStreamReader xr = null;
+        try{
+            in = new BufferedInputStream(new FileInputStream(XMLFilePath));
+            xr = xif.createXMLStreamReader(in);
             PunctaCntrMarkerVector markerVector = null;
-            if (index == 0 && canvasIDtoSet == 2) {
-              markerVector = (PunctaCntrMarkerVector)typeVector.get(1); 
-            } else if (index == 1 && canvasIDtoSet == 1) {
-              markerVector = (PunctaCntrMarkerVector)typeVector.get(0);
-            } else {
-              markerVector = (PunctaCntrMarkerVector)typeVector.get(index); 
+            PunctaCntrMarker marker = null;
+            while (xr.hasNext()) {
+                int event = xr.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = xr.getLocalName();
+                    if (name.equals("Marker") && marker != null) {
+                        marker.canvasID = canvasIDtoSet;
+                        markerVector.addMarkerFromXML(marker);
+                        marker = null;
+                    } else if (name.equals("Marker_Type")) {
+                        markerVector = null;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) continue;
+                String name = xr.getLocalName();
+                if (name.equals("Type") && marker == null) {
+                    int index = Integer.parseInt(xr.getElementText().trim()) - 1;
+                    markerVector = getTargetVector(typeVector, index, canvasIDtoSet);
+                } else if (name.equals("Marker")) {
+                    marker = new PunctaCntrMarker();
+                } else if (marker != null) {
+                    if (name.equals("MarkerX"))
+                        marker.setX(readInt(xr));
+                    else if (name.equals("MarkerY"))
+                        marker.setY(readInt(xr));
+                    else if (name.equals("MarkerZ"))
+                        marker.setZ(readInt(xr));
+                    else if (name.equals("MarkerRad"))
+                        marker.setRad(readInt(xr));
+                    else if (name.equals("MarkerUID"))
+                        marker.setUID(readInt(xr));
+                    else if (name.equals("MarkerOwner"))
+                        marker.setOwner(readInt(xr));
+                    else if (name.equals("GroupNumber"))
+                        marker.resultNum = readInt(xr);
+                }
             }
-            NodeList markerNodeList = markerTypeElement.getElementsByTagName("Marker");
-            for(int j=0; j<markerNodeList.getLength(); j++){
-                Element markerElement = getElement(markerNodeList, j);
-                NodeList markerXNodeList = markerElement.getElementsByTagName("MarkerX");
-                NodeList markerYNodeList = markerElement.getElementsByTagName("MarkerY");
-                NodeList markerZNodeList = markerElement.getElementsByTagName("MarkerZ");
-				    NodeList markerRadNodeList = markerElement.getElementsByTagName("MarkerRad");
-				    NodeList markerUIDNodeList = markerElement.getElementsByTagName("MarkerUID");
-				    NodeList markerOwnerNodeList = markerElement.getElementsByTagName("MarkerOwner");
-				    NodeList markerGroupNumberNodeList = markerElement.getElementsByTagName("GroupNumber");
-                PunctaCntrMarker marker = new PunctaCntrMarker();
-                marker.setX(Integer.parseInt(readValue(markerXNodeList,0)));
-                marker.setY(Integer.parseInt(readValue(markerYNodeList,0)));
-                marker.setZ(Integer.parseInt(readValue(markerZNodeList,0)));
-				    marker.setRad(Integer.parseInt(readValue(markerRadNodeList,0)));
-				    marker.setUID(Integer.parseInt(readValue(markerUIDNodeList,0)));
-				    marker.setOwner(Integer.parseInt(readValue(markerOwnerNodeList,0)));
-				    marker.resultNum = Integer.parseInt(readValue(markerGroupNumberNodeList,0));
-				    marker.canvasID = canvasIDtoSet;
-                markerVector.addMarkerFromXML(marker);
-            }
-            //typeVector.add(markerVector);
+        } catch (XMLStreamException e) {
+            System.out.println(e.getMessage());
+            System.out.println(XMLFilePath + " is not well-formed.");
+        } catch (IOException e) {
+            System.out.println("IOException " + e.getMessage());
+        } finally {
+            close(xr, in);
         }
-        //return typeVector;
-    }
-    
-    private String readValue(NodeList nodeList, int index) throws NullPointerException{
-        Element element = getElement(nodeList, index);
-        debugReport("Element = "+element.getNodeName());
-        NodeList elementNodeList = getChildNodes(element);
-        String str = getValue(elementNodeList, 0);
-        return str;
     }
-    private String[] readMarker(NodeList nodeList, int index) throws NullPointerException{
-        Element element = getElement(nodeList, index);
-        debugReport("Element = "+element.getNodeName());
-        NodeList elementNodeList = getChildNodes(element);
-        String str[] = {getValue(elementNodeList, 0),getValue(elementNodeList, 1),getValue(elementNodeList, 2)};
-        return str;
-    }
-    private String readSingleValue(Document doc, String elementName){
-        NodeList nodeList = getNodeListFromTag(doc,elementName);
-        Element element = getElement(nodeList, 0);
-        nodeList = getChildNodes(element);
-        String str = getValue(nodeList, 0);
-        return str;
-    }
-    private NodeList getNodeListFromTag(Document doc, String elementName){
-        NodeList nodeList = doc.getElementsByTagName(elementName);
-        return nodeList;
+
+    //Converts this marker file, XML or binary, to the WriteMarkerBinary format
+    public boolean writeBinary(String binaryFilePath){
+        Vector<PunctaCntrMarkerVector> typeVector = new Vector<PunctaCntrMarkerVector>();
+        readMarkerData(typeVector, 0);
+        String type = readImgProperties(CURRENT_TYPE);
+        String imgFilename = readImgProperties(IMAGE_FILE_PATH);
+        return new WriteMarkerBinary(binaryFilePath).writeMarkers((imgFilename == null) ? "" : imgFilename,
+                typeVector, (type == null) ? 1 : Integer.parseInt(type), 0);
     }
-    private NodeList getChildNodes(Element element){
-        NodeList nodeList = element.getChildNodes();
-        return nodeList;
+
+    //The vector markers of the given type index are loaded into. Types 1 and 2 are swapped
+    //for canvases 1 and 2; a typeVector shorter than index is extended, so an empty one
+    //collects every type in the file
+    static PunctaCntrMarkerVector getTargetVector(Vector<PunctaCntrMarkerVector> typeVector, int index, int canvasIDtoSet){
+        if (index == 0 && canvasIDtoSet == 2) {
+          index = 1;
+        } else if (index == 1 && canvasIDtoSet == 1) {
+          index = 0;
+        }
+        while (typeVector.size() <= index)
+          typeVector.add(new PunctaCntrMarkerVector(typeVector.size()+1));
+        return (PunctaCntrMarkerVector)typeVector.get(index);
     }
-    private Element getElement(NodeList nodeList, int index){
-        Element element = (Element)nodeList.item(index);
-        return element;
+
+    private int readInt(XMLStreamReader xr) throws XMLStreamException {
+        String str = xr.getElementText().trim();
+        debugReport("Element = "+xr.getLocalName()+" "+str);
+        return Integer.parseInt(str);
     }
-    private String getValue(NodeList nodeList, int index){
-        String str = ((Node)nodeList.item(index)).getNodeValue().trim();
-        return str;
+
+    private void close(XMLStreamReader xr, InputStream in) {
+        try {
+            if (xr != null) xr.close();
+            if (in != null) in.close();
+        } catch (XMLStreamException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println("IOException " + e.getMessage());
+        }
     }
-    
+
     public void debugReport(String report){
         if (verbose)
             System.out.println(report);
@@ -95,4 +95,22 @@ public class WriteXML{
         }
     }
     
+    //Writes the markers of a WriteMarkerBinary file as XML
+    public boolean convertBinary(String binaryFilePath){
+        ReadMarkerBinary rb = new ReadMarkerBinary(binaryFilePath);
+        String imgFilename = rb.readImgProperties(ReadXML.IMAGE_FILE_PATH);
+        String type = rb.readImgProperties(ReadXML.CURRENT_TYPE);
+        if (imgFilename == null || type == null){
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            return false;
+        }
+        Vector<PunctaCntrMarkerVector> typeVector = new Vector<PunctaCntrMarkerVector>();
+        rb.readMarkerData(typeVector, 0);
+        return writeXML(imgFilename, typeVector, Integer.parseInt(type), 0);
+    }
+    
 }
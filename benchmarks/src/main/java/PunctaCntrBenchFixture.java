@@ -0,0 +1,303 @@
+/*
+ * PunctaCntrBenchFixture.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+public class PunctaCntrBenchFixture {
+	//The stages of the pipeline set up on two PunctaCntrSyntheticStack days, the second
+	//shifted by (3, -2), for the benchmarks in punctacounter.bench. The plugins live in the
+	//default package, which JMH benchmarks cannot, so this class reaches them (the private
+	//steps by reflection) and hands each step over as a plain Callable, with a Runnable
+	//that restores its input:
+	//  findBackgroundLevel, findBoundary, restrictBoundary   one call, cycling over slices or puncta
+	//  restrictBoundaryCached                                restrictBoundary answered by the slice
+	//  autoDetect, GroupAndRemoveRedundant                   Autodetect on the whole stack of day 1
+	//  removeinadequate, autoGroupMarker                     the next two stages on day 1
+	//  autolink                                              both linking passes, day 1 with day 2
+	//  writeXML, readXML                                     the _3 marker file of day 1
+	//The slices keep the boundaries restrictBoundary found, so restrictBoundary gets a fresh
+	//slice over the same pixels before every call and times the scan itself, while
+	//restrictBoundaryCached reuses the slices and, after the first pass over the puncta,
+	//times the cached copy that repaints and measure see.
+	//Building it runs the whole pipeline once on both days; the files go to a temporary
+	//folder that close() removes.
+	//Autodetect takes every stack as 200 microns wide and grows rings up to 2 microns,
+	//rounded to pixels; below MIN_SIZE pixels that leaves it too few rings to find any
+	//punctum, whatever radius the synthetic puncta have, so smaller sizes are refused.
+	public static final int MIN_SIZE = 350;
+	private final File directory;
+	private final ImagePlus img1;
+	private final PunctaCounterAutodetect detect;
+	private final PunctaCounterRemoveInadequate remove;
+	private final PunctaCounterAutoGroup group;
+	private final PunctaCounterAutolink link;
+	private final PunctaCntrLinkDay day1, day2;
+	private final PunctaCntrMarkerVector detected; //Autodetect's candidates before grouping
+	private final PunctaCntrMarkerVector removeInput, groupInput;
+	private final PunctaCntrSlice[] slices;
+	private final PunctaCntrMarker[] puncta; //the puncta Autodetect kept
+	private int next;
+	private PunctaCntrMarker boundaryPunctum; //the next call of restrictBoundary, set by prepare
+	private PunctaCntrSlice boundarySlice;
+
+	/** Creates a new instance of PunctaCntrBenchFixture */
+	public PunctaCntrBenchFixture(int size, int stackSize, double density, int bitDepth, long seed) throws Exception {
+		if (size < MIN_SIZE)
+			throw new IllegalArgumentException("size "+size+" is below "+MIN_SIZE+" pixels, where Autodetect finds no puncta in a stack taken as 200 microns wide");
+		directory = File.createTempFile("puncta-bench", "");
+		directory.delete();
+		directory.mkdirs();
+		String dir = directory.getPath()+File.separator;
+		PunctaCntrSyntheticStack synth = new PunctaCntrSyntheticStack(size, size, stackSize, seed);
+		synth.density = density;
+		synth.bitDepth = bitDepth;
+		String path1 = save(synth.makeStack("benchDay1abx.tif", 0, 0, 0), dir);
+		String path2 = save(synth.makeStack("benchDay2abx.tif", 3, -2, 0), dir);
+
+		img1 = IJ.openImage(path1);
+		detect = new PunctaCounterAutodetect(img1, null, null, null);
+		remove = new PunctaCounterRemoveInadequate(img1, detect.getTypeVector(), detect.getCurrentType(), null, null, null);
+		group = new PunctaCounterAutoGroup(img1, remove.getTypeVector(), remove.getCurrentType(), null, null, null);
+		new WriteXML(dir+img1.getTitle()+"_3.xml").writeXML(img1.getTitle(), group.getTypeVector(), group.getCurrentType(), 0);
+		ImagePlus img2 = IJ.openImage(path2);
+		PunctaCounterAutodetect detect2 = new PunctaCounterAutodetect(img2, null, null, null);
+		PunctaCounterRemoveInadequate remove2 = new PunctaCounterRemoveInadequate(img2, detect2.getTypeVector(), detect2.getCurrentType(), null, null, null);
+		PunctaCounterAutoGroup group2 = new PunctaCounterAutoGroup(img2, remove2.getTypeVector(), remove2.getCurrentType(), null, null, null);
+		new WriteXML(dir+img2.getTitle()+"_3.xml").writeXML(img2.getTitle(), group2.getTypeVector(), group2.getCurrentType(), 0);
+		img2.flush();
+		day1 = new PunctaCntrLinkDay(path1);
+		day2 = new PunctaCntrLinkDay(path2);
+		link = new PunctaCounterAutolink(day1, day2, dir);
+
+		removeInput = copy(detect.getTypeVector().get(0));
+		groupInput = copy(remove.getTypeVector().get(0));
+		detected = new PunctaCntrMarkerVector(1);
+		Method detectSlice = method(PunctaCounterAutodetect.class, "detectSlice", ImagePlus.class, int.class);
+		for (int z = 1; z <= stackSize; z++) {
+			Vector<?> candidates = (Vector<?>)detectSlice.invoke(detect, img1, z);
+			for (int n = 0; n < candidates.size(); n++) {
+				PunctaCntrMarker m = (PunctaCntrMarker)candidates.get(n);
+				detected.addOwnerMarker(m);
+				m.canvasID = 1;
+			}
+		}
+		slices = new PunctaCntrSlice[stackSize+1];
+		for (int z = 1; z <= stackSize; z++)
+			slices[z] = new PunctaCntrSlice(img1.getStack().getProcessor(z));
+		this.puncta = removeInput.toArray(new PunctaCntrMarker[removeInput.size()]);
+		if (removeInput.size() == 0)
+			throw new IllegalArgumentException("Autodetect found no puncta; the stacks need more puncta or a higher snr");
+		if (groupInput.size() == 0)
+			throw new IllegalArgumentException("No puncta left after remove inadequate, which keeps only puncta at least 10 slices from the top and bottom; the stacks need more than 21 slices");
+	}
+
+	private static String save(ImagePlus img, String dir) {
+		String path = dir+img.getTitle();
+		IJ.saveAsTiff(img, path);
+		img.flush();
+		return path;
+	}
+
+	private static PunctaCntrMarkerVector copy(PunctaCntrMarkerVector markers) {
+		PunctaCntrMarkerVector copy = new PunctaCntrMarkerVector(markers.getType());
+		copy.addMarkersAsLoaded(markers, 1);
+		return copy;
+	}
+
+	private static void restore(PunctaCntrMarkerVector markers, PunctaCntrMarkerVector input) {
+		markers.clear();
+		markers.addMarkersAsLoaded(input, 1);
+	}
+
+	private static Method method(Class<?> c, String name, Class<?>... types) throws NoSuchMethodException {
+		Method m = c.getDeclaredMethod(name, types);
+		m.setAccessible(true);
+		return m;
+	}
+
+	private static Object call(Method m, Object target, Object... args) throws Exception {
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+			throw e;
+		}
+	}
+
+	public int getPunctaCount() {
+		return puncta.length;
+	}
+
+	//Restores what the step changes; run before every call of step(name)
+	public Runnable prepare(String name) {
+		if (name.equals("autoDetect"))
+			return new Runnable() { public void run() { detect.typeVector.get(0).clear(); } };
+		if (name.equals("GroupAndRemoveRedundant"))
+			return new Runnable() { public void run() { restore(detect.typeVector.get(0), detected); } };
+		if (name.equals("removeinadequate"))
+			return new Runnable() { public void run() { restore(remove.typeVector.get(0), removeInput); } };
+		if (name.equals("autoGroupMarker"))
+			return new Runnable() { public void run() { restore(group.typeVector.get(0), groupInput); } };
+		if (name.equals("restrictBoundary")) {
+			return new Runnable() {
+				public void run() {
+					boundaryPunctum = puncta[next++ % puncta.length];
+					boundarySlice = new PunctaCntrSlice(img1.getStack().getProcessor(boundaryPunctum.getZ()));
+				}
+			};
+		}
+		if (name.equals("autolink")) {
+			return new Runnable() {
+				public void run() {
+					link.typeVector.get(0).clear();
+					link.typeVector.get(1).clear();
+					try {
+						call(method(PunctaCounterAutolink.class, "loadMarkers", PunctaCntrLinkDay.class, PunctaCntrLinkDay.class), link, day1, day2);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+		}
+		return new Runnable() { public void run() {} };
+	}
+
+	public Callable<Object> step(String name) throws Exception {
+		final String file = directory.getPath()+File.separator+img1.getTitle()+"_3.xml";
+		if (name.equals("findBackgroundLevel")) {
+			final Method m = method(PunctaCounterAutodetect.class, "findBackgroundLevel", PunctaCntrSlice.class);
+			return new Callable<Object>() {
+				public Object call() throws Exception {
+					return PunctaCntrBenchFixture.call(m, detect, slices[1 + next++ % (slices.length-1)]);
+				}
+			};
+		}
+		if (name.equals("findBoundary")) {
+			final Method m = method(PunctaCounterAutodetect.class, "findBoundary", PunctaCntrSlice.class, int.class, int.class, int.class);
+			return new Callable<Object>() {
+				public Object call() throws Exception {
+					PunctaCntrMarker p = puncta[next++ % puncta.length];
+					return PunctaCntrBenchFixture.call(m, detect, slices[p.getZ()], p.getX(), p.getY(), p.getZ());
+				}
+			};
+		}
+		if (name.equals("restrictBoundary")) {
+			return new Callable<Object>() {
+				public Object call() {
+					PunctaCntrMarker p = boundaryPunctum;
+					int[][] endpts = new int[p.getRad()*2+1][2];
+					detect.restrictBoundary(p, endpts, boundarySlice);
+					return endpts;
+				}
+			};
+		}
+		if (name.equals("restrictBoundaryCached")) {
+			return new Callable<Object>() {
+				public Object call() {
+					PunctaCntrMarker p = puncta[next++ % puncta.length];
+					int[][] endpts = new int[p.getRad()*2+1][2];
+					detect.restrictBoundary(p, endpts, slices[p.getZ()]);
+					return endpts;
+				}
+			};
+		}
+		if (name.equals("autoDetect")) {
+			final Method m = method(PunctaCounterAutodetect.class, "autoDetect", int.class);
+			return new Callable<Object>() {
+				public Object call() throws Exception {
+					PunctaCntrBenchFixture.call(m, detect, 1);
+					return detect.typeVector.get(0);
+				}
+			};
+		}
+		if (name.equals("GroupAndRemoveRedundant")) {
+			return new Callable<Object>() {
+				public Object call() {
+					detect.GroupAndRemoveRedundant();
+					return detect.typeVector.get(0);
+				}
+			};
+		}
+		if (name.equals("removeinadequate")) {
+			return new Callable<Object>() {
+				public Object call() {
+					remove.removeinadequate();
+					return remove.typeVector.get(0);
+				}
+			};
+		}
+		if (name.equals("autoGroupMarker")) {
+			return new Callable<Object>() {
+				public Object call() {
+					group.autoGroupMarker();
+					return group.typeVector.get(0);
+				}
+			};
+		}
+		if (name.equals("autolink")) {
+			return new Callable<Object>() {
+				public Object call() {
+					link.autolink();
+					link.autolink2();
+					return link.typeVector;
+				}
+			};
+		}
+		if (name.equals("writeXML")) {
+			final String out = directory.getPath()+File.separator+"write.xml";
+			return new Callable<Object>() {
+				public Object call() {
+					return new WriteXML(out).writeXML(img1.getTitle(), group.getTypeVector(), group.getCurrentType(), 0);
+				}
+			};
+		}
+		if (name.equals("readXML")) {
+			return new Callable<Object>() {
+				public Object call() {
+					Vector<PunctaCntrMarkerVector> markers = new Vector<PunctaCntrMarkerVector>();
+					new ReadXML(file).readMarkerData(markers, 1);
+					return markers;
+				}
+			};
+		}
+		throw new IllegalArgumentException("No benchmark step "+name);
+	}
+
+	public void close() {
+		img1.flush();
+		day1.release();
+		day2.release();
+		delete(directory);
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null)
+			for (int i = 0; i < files.length; i++) delete(files[i]);
+		f.delete();
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * StageBenchmarks.java
+ *
+ * Part of the Puncta Counter plugins
+ * for Dr. Michael Stryker's lab at the University of California San Francisco
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.txt )
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package punctacounter.bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Steps of the detection, grouping and linking pipeline on synthetic stacks of size x size
+//pixels and stackSize slices, with density puncta per 10,000 pixels of every slice. The
+//single-call steps (findBackgroundLevel, findBoundary, restrictBoundary and
+//restrictBoundaryCached) report microseconds, the whole-stack ones milliseconds; steps
+//that change their markers get a fresh copy of their input before every call, and
+//restrictBoundary a fresh slice with no boundaries kept, outside the measured time. Remove
+//inadequate keeps only puncta at least 10 slices from the top and bottom, so stacks need
+//more than 21 slices for the later steps to have anything to work on. Autodetect takes
+//every stack as 200 microns wide and finds no puncta in one narrower than 350 pixels
+//(PunctaCntrBenchFixture.MIN_SIZE), so size must be at least that.
+//
+//  java -jar target/benchmarks.jar -p size=1024 -p density=8
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StageBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class Stacks {
+		@Param({"512"})
+		public int size;
+		@Param({"24"})
+		public int stackSize;
+		@Param({"4"})
+		public double density;
+		@Param({"16"})
+		public int bitDepth;
+		@Param({"1"})
+		public long seed;
+
+		Object fixture; //PunctaCntrBenchFixture, which lives in the default package with the plugins
+
+		@Setup(Level.Trial)
+		public void build() throws Exception {
+			System.setProperty("java.awt.headless", "true");
+			fixture = Class.forName("PunctaCntrBenchFixture")
+					.getConstructor(int.class, int.class, double.class, int.class, long.class)
+					.newInstance(size, stackSize, density, bitDepth, seed);
+		}
+
+		@SuppressWarnings("unchecked")
+		Callable<Object> step(String name) throws Exception {
+			return (Callable<Object>)fixture.getClass().getMethod("step", String.class).invoke(fixture, name);
+		}
+
+		Runnable prepare(String name) throws Exception {
+			return (Runnable)fixture.getClass().getMethod("prepare", String.class).invoke(fixture, name);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws Exception {
+			fixture.getClass().getMethod("close").invoke(fixture);
+		}
+	}
+
+	static abstract class Step {
+		Callable<Object> step;
+		Runnable prepare;
+
+		void init(Stacks stacks, String name) throws Exception {
+			step = stacks.step(name);
+			prepare = stacks.prepare(name);
+		}
+	}
+
+	//A step that changes its markers, restored before every call
+	static abstract class RestoredStep extends Step {
+		@Setup(Level.Invocation)
+		public void restore() {
+			prepare.run();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FindBackgroundLevel extends Step {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "findBackgroundLevel"); }
+	}
+
+	@State(Scope.Thread)
+	public static class FindBoundary extends Step {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "findBoundary"); }
+	}
+
+	//A fresh slice before every call, so the boundary is scanned rather than taken from the slice
+	@State(Scope.Thread)
+	public static class RestrictBoundary extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "restrictBoundary"); }
+	}
+
+	@State(Scope.Thread)
+	public static class RestrictBoundaryCached extends Step {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "restrictBoundaryCached"); }
+	}
+
+	@State(Scope.Thread)
+	public static class AutoDetect extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "autoDetect"); }
+	}
+
+	@State(Scope.Thread)
+	public static class GroupAndRemoveRedundant extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "GroupAndRemoveRedundant"); }
+	}
+
+	@State(Scope.Thread)
+	public static class RemoveInadequate extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "removeinadequate"); }
+	}
+
+	@State(Scope.Thread)
+	public static class AutoGroupMarker extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "autoGroupMarker"); }
+	}
+
+	@State(Scope.Thread)
+	public static class Autolink extends RestoredStep {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "autolink"); }
+	}
+
+	@State(Scope.Thread)
+	public static class WriteXML extends Step {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "writeXML"); }
+	}
+
+	@State(Scope.Thread)
+	public static class ReadXML extends Step {
+		@Setup(Level.Trial) public void init(Stacks s) throws Exception { init(s, "readXML"); }
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object findBackgroundLevel(FindBackgroundLevel s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object findBoundary(FindBoundary s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object restrictBoundary(RestrictBoundary s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object restrictBoundaryCached(RestrictBoundaryCached s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object autoDetect(AutoDetect s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object groupAndRemoveRedundant(GroupAndRemoveRedundant s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object removeinadequate(RemoveInadequate s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object autoGroupMarker(AutoGroupMarker s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object autolink(Autolink s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object writeXML(WriteXML s) throws Exception {
+		return s.step.call();
+	}
+
+	@Benchmark @OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object readXML(ReadXML s) throws Exception {
+		return s.step.call();
+	}
+}